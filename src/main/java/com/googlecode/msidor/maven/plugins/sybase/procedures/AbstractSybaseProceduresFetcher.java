@@ -0,0 +1,268 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.	
+ */
+package com.googlecode.msidor.maven.plugins.sybase.procedures;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * @author Maciej SIDOR
+ *
+ * Base class of the engines retrieving stored procedures from SYBASE
+ */
+public abstract class AbstractSybaseProceduresFetcher implements SybaseProceduresFetcherI
+{
+	/**
+	 * SQL columns with the owner of the procedure of "sysobjects" aliased "o", 1 in "own" column if it is owned 
+	 * by the current user, and its compilation date formatted like the "Create_date" column of "sp_help"
+	 */
+	protected static final String CATALOG_COLUMNS = "o.name, user_name(o.uid) owner, case when o.uid = user_id() then 1 else 0 end own, convert(varchar(26), o.crdate) crdate";
+
+	/**
+	 * DAO used to query SYBASE
+	 */
+	protected SybaseProceduresMojoDAOI dao = null;
+
+	/**
+	 * MOJO logger
+	 */
+	protected Log log = null;
+
+	/**
+	 * Cache of the calls of the bodies parsed previously, null if the bodies are parsed as they are read
+	 */
+	protected SybaseProceduresParseCache parseCache = null;
+
+	/**
+	 * True if the bodies are parsed by a separate stage and not while they are read
+	 */
+	protected boolean deferredParsing = false;
+
+	/**
+	 * Procedures created during the generation
+	 */
+	protected SybaseProceduresRegistry registry = new SybaseProceduresRegistry();
+
+	/**
+	 * The character set of the SQL files
+	 */
+	protected Charset scriptCharset = Charset.defaultCharset();
+
+	/**
+	 * Directory of the SQL files the bodies are compared with as they are read, null if not compared
+	 */
+	protected String scriptDirectory = null;
+
+	/**
+	 * @param dao DAO used to query SYBASE
+	 * @param log MOJO logger
+	 */
+	public AbstractSybaseProceduresFetcher(SybaseProceduresMojoDAOI dao, Log log)
+	{
+		this.dao = dao;
+		this.log = log;
+	}
+
+	/**
+	 * @param parseCache cache of the calls of the bodies parsed previously
+	 */
+	@Override
+	public void setParseCache(SybaseProceduresParseCache parseCache)
+	{
+		this.parseCache = parseCache;
+	}
+
+	/**
+	 * @param deferredParsing true if the bodies are parsed by a separate stage and not while they are read
+	 */
+	@Override
+	public void setDeferredParsing(boolean deferredParsing)
+	{
+		this.deferredParsing = deferredParsing;
+	}
+
+	/**
+	 * @param registry procedures created during the generation, shared by all the engines of the generation
+	 */
+	@Override
+	public void setRegistry(SybaseProceduresRegistry registry)
+	{
+		this.registry = registry;
+	}
+
+	/**
+	 * @param scriptCharset the character set the SQL files are written with
+	 */
+	@Override
+	public void setScriptCharset(Charset scriptCharset)
+	{
+		this.scriptCharset = scriptCharset;
+	}
+
+	/**
+	 * @param scriptDirectory directory of the SQL files the bodies are compared with as they are read
+	 */
+	@Override
+	public void setScriptDirectory(String scriptDirectory)
+	{
+		this.scriptDirectory = scriptDirectory;
+	}
+
+	/**
+	 * Get the procedure from the registry or create it
+	 * 
+	 * @param dbName
+	 *            procedure database name
+	 * @param name
+	 *            procedure name
+	 * @param creationDate
+	 *            compilation date
+	 * @return the only procedure of that name in the generation
+	 */
+	protected SybaseProcedure createProcedure(String dbName, String name, String creationDate)
+	{
+		return registry.getOrCreate(dbName, name, creationDate);
+	}
+
+	/**
+	 * @param procedure
+	 *            the procedure which body is read, null if not known yet
+	 * @return new reader of a procedure body, comparing the body with the SQL file of the procedure if any
+	 */
+	protected SybaseProceduresBodyReader createBodyReader(SybaseProcedure procedure)
+	{
+		SybaseProceduresBodyReader reader = deferredParsing ? new SybaseProceduresBodyReader(false) : new SybaseProceduresBodyReader(parseCache);
+		if (scriptDirectory != null && procedure != null) reader.compareWith(new File(scriptDirectory + procedure.getDbName() + ".." + procedure.getName() + ".sql"), scriptCharset);
+
+		return reader;
+	}
+
+	/**
+	 * Retrieve basic info and body of several procedures one by one with fetchProcedure.
+	 * 
+	 * @param procedures
+	 *            database and procedure name pairs of the procedures to retrieve
+	 * @return Procedure objects keyed by database and procedure name joined with ".." as requested. 
+	 *            Procedures that do not exist are mapped to null.
+	 * @throws SQLException
+	 *             if error occurred during procedures retrieval
+	 */
+	@Override
+	public Map<String, SybaseProcedure> fetchProcedures(List<String[]> procedures) throws SQLException
+	{
+		Map<String, SybaseProcedure> result = new LinkedHashMap<String, SybaseProcedure>();
+		
+		for (String[] procedure : procedures)
+		{
+			String key = procedure[0] + ".." + procedure[1];
+			if (!result.containsKey(key)) result.put(key, fetchProcedure(procedure[1], procedure[0]));
+		}
+		
+		return result;
+	}
+
+	/**
+	 * Key the entry of the current catalog row by the owner and the name of its procedure, 
+	 * and by the name alone if SYBASE resolves the unqualified name to this procedure:
+	 * the procedure of the current user, otherwise the one of "dbo".
+	 * 
+	 * @param entries
+	 *            entries of the catalog read so far
+	 * @param rs
+	 *            catalog row with CATALOG_COLUMNS
+	 * @param entry
+	 *            entry of the procedure of the row
+	 * @throws SQLException
+	 *             if the row could not be read
+	 */
+	protected static <T> void putCatalogEntry(Map<String, T> entries, ResultSet rs, T entry) throws SQLException
+	{
+		String name = rs.getString("name");
+		String owner = rs.getString("owner");
+
+		entries.put(owner + "." + name, entry);
+		if (rs.getInt("own") == 1 || ("dbo".equals(owner) && !entries.containsKey(name))) entries.put(name, entry);
+	}
+
+	/**
+	 * Move to the next result set of the statement skipping update counts
+	 * 
+	 * @param statement
+	 *            statement to read
+	 * @param current
+	 *            true if the current result of the statement has not been read yet
+	 * @return next result set or null if there are no more results
+	 * @throws SQLException
+	 */
+	protected ResultSet nextResultSet(Statement statement, boolean current) throws SQLException
+	{
+		if (current)
+		{
+			ResultSet rs = statement.getResultSet();
+			if (rs != null) return rs;
+		}
+
+		while (statement.getMoreResults() || statement.getUpdateCount() != -1)
+		{
+			ResultSet rs = statement.getResultSet();
+			if (rs != null) return rs;
+		}
+
+		return null;
+	}
+
+	/**
+	 * Read the SQL file content with the character set of the SQL files
+	 * 
+	 * @param file
+	 *            SQL file
+	 * @return file content
+	 * @throws IOException
+	 *             if the file could not be read
+	 */
+	protected String readFile(File file) throws IOException
+	{
+		StringBuilder content = new StringBuilder();
+		char[] buffer = new char[8192];
+
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), scriptCharset));
+		try
+		{
+			int numRead;
+			while ((numRead = reader.read(buffer)) != -1)
+				content.append(buffer, 0, numRead);
+		}
+		finally
+		{
+			reader.close();
+		}
+
+		return content.toString();
+	}
+
+}
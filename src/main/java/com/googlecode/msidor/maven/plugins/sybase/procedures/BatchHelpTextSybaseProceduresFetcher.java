@@ -0,0 +1,248 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.	
+ */
+package com.googlecode.msidor.maven.plugins.sybase.procedures;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * @author Maciej SIDOR
+ *
+ * Engine retrieving stored procedures with "sp_help" and "sp_helptext" system procedures 
+ * sending many procedures in one SQL batch.
+ * 
+ * <p>
+ * Each procedure of the batch is preceded by marker selects naming the procedure and the section 
+ * ("help" or "text") that follows, so that the result sets of the batch can be split back 
+ * to the right procedures. The system procedures are executed only if the procedure exists, 
+ * so a missing procedure simply gives empty sections instead of breaking the batch with error 17461.
+ * </p>
+ * 
+ * <p>
+ * This engine doesn't require the read access to the system tables.
+ * </p>
+ */
+public class BatchHelpTextSybaseProceduresFetcher extends HelpTextSybaseProceduresFetcher
+{
+	/**
+	 * Label of the marker column naming the procedure
+	 */
+	private static final String MARKER_PROCEDURE = "sybproc_procedure";
+
+	/**
+	 * Label of the marker column naming the section
+	 */
+	private static final String MARKER_SECTION = "sybproc_section";
+
+	/**
+	 * Maximum number of procedures sent in one batch
+	 */
+	private int batchSize = 200;
+
+	/**
+	 * @param dao DAO used to query SYBASE
+	 * @param log MOJO logger
+	 * @param batchSize maximum number of procedures sent in one batch
+	 */
+	public BatchHelpTextSybaseProceduresFetcher(SybaseProceduresMojoDAOI dao, Log log, int batchSize)
+	{
+		super(dao, log);
+		this.batchSize = Math.max(1, batchSize);
+	}
+
+	/**
+	 * Retrieve basic info and body of several procedures sending at most <i>batchSize</i> procedures per batch.
+	 * 
+	 * @param procedures
+	 *            database and procedure name pairs of the procedures to retrieve
+	 * @return Procedure objects keyed by database and procedure name joined with ".." as requested. 
+	 *            Procedures that do not exist are mapped to null.
+	 * @throws SQLException
+	 *             if error occurred during procedures retrieval
+	 */
+	@Override
+	public Map<String, SybaseProcedure> fetchProcedures(List<String[]> procedures) throws SQLException
+	{
+		Map<String, SybaseProcedure> result = new LinkedHashMap<String, SybaseProcedure>();
+
+		// distinct procedures to retrieve grouped by database
+		Map<String, String[]> toFetch = new LinkedHashMap<String, String[]>();
+		Map<String, List<String>> toFetchByDatabase = new LinkedHashMap<String, List<String>>();
+		for (String[] procedure : procedures)
+		{
+			String key = procedure[0] + ".." + procedure[1];
+			if (toFetch.put(key, procedure) != null) continue;
+
+			List<String> databaseKeys = toFetchByDatabase.get(procedure[0]);
+			if (databaseKeys == null)
+			{
+				databaseKeys = new ArrayList<String>();
+				toFetchByDatabase.put(procedure[0], databaseKeys);
+			}
+			databaseKeys.add(key);
+		}
+
+		// a single procedure doesn't need a batch
+		if (toFetch.size() == 1)
+			return super.fetchProcedures(procedures);
+
+		// each batch is sent to a connection of its database
+		StringBuilder batch = new StringBuilder();
+		for (Map.Entry<String, List<String>> database : toFetchByDatabase.entrySet())
+		{
+			int batchCount = 0;
+			for (String key : database.getValue())
+			{
+				appendProcedure(batch, key, toFetch.get(key)[0], toFetch.get(key)[1]);
+				batchCount++;
+
+				if (batchCount == batchSize)
+				{
+					executeBatch(database.getKey(), batch.toString(), result);
+					batch.setLength(0);
+					batchCount = 0;
+				}
+			}
+
+			if (batchCount > 0)
+			{
+				executeBatch(database.getKey(), batch.toString(), result);
+				batch.setLength(0);
+			}
+		}
+
+		// the procedures not found in the batch results do not exist
+		for (String key : toFetch.keySet())
+		{
+			if (!result.containsKey(key))
+			{
+				log.warn(key + " is missing");
+				result.put(key, null);
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Append the procedure retrieval to the batch
+	 * 
+	 * @param batch
+	 *            SQL batch
+	 * @param key
+	 *            procedure key
+	 * @param dbName
+	 *            database name
+	 * @param procedureName
+	 *            procedure name
+	 */
+	private void appendProcedure(StringBuilder batch, String key, String dbName, String procedureName)
+	{
+		String quotedKey = "'" + key.replace("'", "''") + "'";
+
+		batch.append("select ").append(quotedKey).append(" ").append(MARKER_PROCEDURE).append(", 'help' ").append(MARKER_SECTION).append("\n");
+		batch.append("if object_id(").append(quotedKey).append(") is not null exec ").append(dbName).append("..sp_help ").append(procedureName).append("\n");
+		batch.append("select ").append(quotedKey).append(" ").append(MARKER_PROCEDURE).append(", 'text' ").append(MARKER_SECTION).append("\n");
+		batch.append("if object_id(").append(quotedKey).append(") is not null exec ").append(dbName).append("..sp_helptext ").append(procedureName).append("\n");
+	}
+
+	/**
+	 * Execute the batch and split its result sets back to the procedures
+	 * 
+	 * @param dbName
+	 *            database of the procedures of the batch
+	 * @param batch
+	 *            SQL batch
+	 * @param result
+	 *            procedures found keyed by procedure key
+	 * @throws SQLException
+	 *             if error occurred during the batch execution
+	 */
+	private void executeBatch(String dbName, String batch, Map<String, SybaseProcedure> result) throws SQLException
+	{
+		Statement statement = dao.executeSybaseQuery(dbName, batch);
+		try
+		{
+			String key = null;
+			String section = null;
+			int sectionResult = 0;
+			SybaseProcedure procedure = null;
+			SybaseProceduresBodyReader body = createBodyReader(null);
+
+			ResultSet rs = nextResultSet(statement, true);
+			while (rs != null)
+			{
+				if (MARKER_PROCEDURE.equalsIgnoreCase(rs.getMetaData().getColumnLabel(1)))
+				{
+					// the body of previous procedure is complete
+					if (procedure != null && "text".equals(section)) body.complete(procedure);
+
+					// a new section starts
+					rs.next();
+					String newKey = rs.getString(1);
+					if (!newKey.equals(key)) procedure = null;
+					key = newKey;
+					section = rs.getString(2);
+					sectionResult = 0;
+					body = createBodyReader(procedure);
+				}
+				else if ("help".equals(section))
+				{
+					// the first result set of "sp_help" contains the procedure basic info
+					if (sectionResult == 0 && rs.next())
+					{
+						String name = rs.getString("Name");
+						String creationDate = rs.getString("Create_date");
+
+						log.debug(key.substring(0, key.indexOf("..")) + ".." + name + " compiled " + creationDate);
+
+						procedure = createProcedure(key.substring(0, key.indexOf("..")), name, creationDate);
+						result.put(key, procedure);
+					}
+					sectionResult++;
+				}
+				else if ("text".equals(section))
+				{
+					// the first result set of "sp_helptext" is skipped,
+					// the body is output in several lines by the following ones
+					if (sectionResult > 0 && procedure != null)
+					{
+						while (rs.next())
+							body.read(rs.getString(1));
+					}
+					sectionResult++;
+				}
+
+				rs.close();
+				rs = nextResultSet(statement, false);
+			}
+
+			if (procedure != null && "text".equals(section)) body.complete(procedure);
+		}
+		finally
+		{
+			dao.closeSybaseStatement(statement);
+		}
+	}
+
+}
@@ -0,0 +1,272 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.	
+ */
+package com.googlecode.msidor.maven.plugins.sybase.procedures;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * @author Maciej SIDOR
+ *
+ * Engine retrieving all stored procedures of a database at once from "sysobjects" and "syscomments" catalogs.
+ * 
+ * <p>
+ * The first time a procedure of a database is requested, one ordered query sweeps the whole database catalog 
+ * and rebuilds the body and compilation date of every procedure from the result stream. 
+ * All further requests for this database are served from memory. A body is released from the sweep 
+ * as soon as its procedure has been handed out under all its names: from then on the procedure holds the only copy, 
+ * which the generation may spill or compact.
+ * </p>
+ * 
+ * <p>
+ * The procedures are keyed by owner and name, an unqualified name is resolved like SYBASE does 
+ * to the procedure of the current user, otherwise to the one of "dbo". 
+ * The compilation dates have the format of "sp_help".
+ * </p>
+ * 
+ * <p>
+ * This engine is much cheaper than calling "sp_help" and "sp_helptext" for each procedure as soon as the configuration 
+ * covers a large part of the database. It requires the read access to the system tables.
+ * </p>
+ */
+public class CatalogSybaseProceduresFetcher extends AbstractSybaseProceduresFetcher
+{
+
+	/**
+	 * The catalog sweeps of each database keyed by database name. 
+	 * Each sweep gives the procedures of the database keyed by owner and procedure name and by the unqualified name they resolve.
+	 * The same entry is shared by both keys.
+	 */
+	private ConcurrentMap<String, FutureTask<Map<String, ProcedureEntry>>> databases = new ConcurrentHashMap<String, FutureTask<Map<String, ProcedureEntry>>>();
+
+	/**
+	 * @param dao DAO used to query SYBASE
+	 * @param log MOJO logger
+	 */
+	public CatalogSybaseProceduresFetcher(SybaseProceduresMojoDAOI dao, Log log)
+	{
+		super(dao, log);
+	}
+
+	/**
+	 * Retrieve procedure basic info and its body from the catalog sweep of its database.
+	 * Sub-procedure calls are not checked.
+	 * 
+	 * @param procedureName
+	 *            name of procedure to retrieve
+	 * @param dbName
+	 *            name of database of the procedure
+	 * @return Procedure object with its body or null if the procedure does not exist
+	 * @throws SQLException
+	 *             if error occurred during the catalog sweep
+	 */
+	@Override
+	public SybaseProcedure fetchProcedure(String procedureName, String dbName) throws SQLException
+	{
+		ProcedureEntry entry = getDatabaseProcedures(dbName).get(procedureName);
+
+		if (entry == null)
+		{
+			log.warn(dbName + ".." + procedureName + " is missing");
+			return null;
+		}
+
+		log.debug(dbName + ".." + procedureName + " compiled " + entry.creationDate);
+
+		SybaseProcedure procedure = createProcedure(dbName, procedureName, entry.creationDate);
+
+		String body = entry.handOut(procedureName);
+		if (body != null) procedure.setBody(body);
+
+		return procedure;
+	}
+
+	/**
+	 * Get all procedures of the database sweeping the catalog unless done already.
+	 * Concurrent requests for the same database wait for the same sweep.
+	 * 
+	 * @param dbName
+	 *            name of database
+	 * @return compilation date and body (null once handed out) of every procedure keyed by owner and procedure name
+	 *            and by the unqualified name they resolve
+	 * @throws SQLException
+	 *             if error occurred during the catalog sweep
+	 */
+	private Map<String, ProcedureEntry> getDatabaseProcedures(final String dbName) throws SQLException
+	{
+		FutureTask<Map<String, ProcedureEntry>> sweep = new FutureTask<Map<String, ProcedureEntry>>(new Callable<Map<String, ProcedureEntry>>()
+		{
+			@Override
+			public Map<String, ProcedureEntry> call() throws Exception
+			{
+				return sweepDatabase(dbName);
+			}
+		});
+
+		FutureTask<Map<String, ProcedureEntry>> existingSweep = databases.putIfAbsent(dbName, sweep);
+		if (existingSweep == null)
+			sweep.run();
+		else
+			sweep = existingSweep;
+
+		try
+		{
+			return sweep.get();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while sweeping " + dbName + " catalog");
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof SQLException) throw (SQLException) e.getCause();
+			throw new SQLException("Could not sweep " + dbName + " catalog: " + e.getCause());
+		}
+	}
+
+	/**
+	 * Read the bodies and compilation dates of all procedures of the database with one ordered query
+	 * 
+	 * @param dbName
+	 *            name of database
+	 * @return compilation date and body of every procedure keyed by owner and procedure name
+	 *            and by the unqualified name they resolve
+	 * @throws SQLException
+	 *             if error occurred during the query
+	 */
+	private Map<String, ProcedureEntry> sweepDatabase(String dbName) throws SQLException
+	{
+		log.info("Reading " + dbName + " catalog...");
+
+		Map<String, ProcedureEntry> procedures = new HashMap<String, ProcedureEntry>();
+		int count = 0;
+
+		Statement statement = dao.executeSybaseQuery(dbName, "select o.id, " + CATALOG_COLUMNS + ", c.text from " + dbName + "..sysobjects o, " + dbName + "..syscomments c" 
+				+ " where o.type = 'P' and c.id = o.id order by o.id, c.number, c.colid2, c.colid");
+		try
+		{
+			ResultSet rs = nextResultSet(statement, true);
+			if (rs != null)
+			{
+				// the rows of the same procedure follow each other
+				// so the body is complete as soon as the procedure id changes
+				String currentId = null;
+				ProcedureEntry currentProcedure = null;
+				StringBuilder body = new StringBuilder();
+
+				while (rs.next())
+				{
+					String id = rs.getString("id");
+					if (!id.equals(currentId))
+					{
+						if (currentProcedure != null) currentProcedure.body = body.toString();
+
+						currentId = id;
+						currentProcedure = new ProcedureEntry(rs.getString("crdate"));
+						putCatalogEntry(procedures, rs, currentProcedure);
+						count++;
+						body.setLength(0);
+					}
+
+					String text = rs.getString("text");
+					if (text != null) body.append(text);
+				}
+
+				if (currentProcedure != null) currentProcedure.body = body.toString();
+
+				rs.close();
+			}
+		}
+		finally
+		{
+			dao.closeSybaseStatement(statement);
+		}
+
+		// the body is released once the procedure has been handed out under all its keys
+		for (ProcedureEntry entry : procedures.values())
+			entry.keys++;
+
+		log.debug(count + " procedures found in " + dbName);
+
+		return procedures;
+	}
+
+	/**
+	 * The compilation date and the body of a procedure read by the catalog sweep
+	 */
+	private static class ProcedureEntry
+	{
+		/**
+		 * Compilation date
+		 */
+		private String creationDate = null;
+
+		/**
+		 * Body, null once handed out under all the keys of the entry
+		 */
+		private String body = null;
+
+		/**
+		 * Number of keys of the entry not handed out yet
+		 */
+		private int keys = 0;
+
+		/**
+		 * Keys under which the body has been handed out
+		 */
+		private Set<String> handedOut = new HashSet<String>();
+
+		/**
+		 * @param creationDate compilation date
+		 */
+		public ProcedureEntry(String creationDate)
+		{
+			this.creationDate = creationDate;
+		}
+
+		/**
+		 * Hand out the body to the procedure requested under the key. 
+		 * The procedure requested again under the same key is the one of the registry with its body, 
+		 * so the body is kept only until all the keys have been requested.
+		 * 
+		 * @param key
+		 *            name the procedure is requested with
+		 * @return the body or null if already handed out under this key
+		 */
+		public synchronized String handOut(String key)
+		{
+			if (body == null || !handedOut.add(key)) return null;
+
+			String result = body;
+			if (--keys == 0) body = null;
+			return result;
+		}
+	}
+
+}
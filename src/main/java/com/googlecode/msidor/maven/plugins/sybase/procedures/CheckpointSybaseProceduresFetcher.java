@@ -0,0 +1,395 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.	
+ */
+package com.googlecode.msidor.maven.plugins.sybase.procedures;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * @author Maciej SIDOR
+ *
+ * Engine saving periodically the procedures retrieved so far so that an interrupted generation can be resumed.
+ * 
+ * <p>
+ * The checkpoint file kept in the output directory holds the compilation dates and bodies of the procedures 
+ * retrieved, their sub-procedure calls and the names of the missing procedures. 
+ * When a generation resumes with the same configuration on the same server, the procedures of the checkpoint 
+ * are rebuilt from it and only the others are retrieved by the underlying engine. 
+ * A checkpoint of another configuration or server is discarded. The checkpoint is deleted once the generation 
+ * has retrieved all the procedures.
+ * </p>
+ */
+public class CheckpointSybaseProceduresFetcher extends AbstractSybaseProceduresFetcher
+{
+	/**
+	 * Prefixes of the checkpoint entries
+	 */
+	private static final String FINGERPRINT = "fingerprint";
+	private static final String PREFIX_DATE = "date.";
+	private static final String PREFIX_BODY = "body.";
+	private static final String PREFIX_CALLS = "calls.";
+	private static final String PREFIX_MISSING = "missing.";
+
+	/**
+	 * Separator of the sub-procedure calls
+	 */
+	private static final String CALL_SEPARATOR = ",";
+
+	/**
+	 * Engine retrieving the procedures missing from the checkpoint
+	 */
+	private SybaseProceduresFetcherI fetcher = null;
+
+	/**
+	 * The checkpoint file
+	 */
+	private File checkpointFile = null;
+
+	/**
+	 * Minimum time in milliseconds between two saves
+	 */
+	private long saveInterval = 0;
+
+	/**
+	 * Time of the last save
+	 */
+	private long lastSave = System.currentTimeMillis();
+
+	/**
+	 * Fingerprint of the configuration and of the server
+	 */
+	private String fingerprint = null;
+
+	/**
+	 * The checkpoint entries: the ones resumed and the ones recorded since
+	 */
+	private Map<String, String> entries = new ConcurrentHashMap<String, String>();
+
+	/**
+	 * Sub-procedure calls of the procedures rebuilt from the checkpoint
+	 */
+	private Map<SybaseProcedure, List<String[]>> restoredCalls = Collections.synchronizedMap(new IdentityHashMap<SybaseProcedure, List<String[]>>());
+
+	/**
+	 * @param dao DAO used to query SYBASE
+	 * @param log MOJO logger
+	 * @param fetcher engine retrieving the procedures missing from the checkpoint
+	 * @param checkpointFile the checkpoint file
+	 * @param saveInterval minimum time in seconds between two saves
+	 */
+	public CheckpointSybaseProceduresFetcher(SybaseProceduresMojoDAOI dao, Log log, SybaseProceduresFetcherI fetcher, File checkpointFile, int saveInterval)
+	{
+		super(dao, log);
+		this.fetcher = fetcher;
+		this.checkpointFile = checkpointFile;
+		this.saveInterval = Math.max(0, saveInterval) * 1000L;
+	}
+
+	/**
+	 * Resume the checkpoint of previous generation if it has been taken with the same configuration on the same server.
+	 * Must be called once connected to SYBASE and before any procedure is retrieved.
+	 * 
+	 * @param configuration
+	 *            fingerprint of the configuration
+	 * @throws SQLException
+	 *             if the server name could not be read
+	 * @throws IOException
+	 *             if the checkpoint file could not be read
+	 */
+	public void resume(String configuration) throws SQLException, IOException
+	{
+		fingerprint = configuration + "@" + getServerName();
+
+		if (!checkpointFile.exists()) return;
+
+		Properties properties = new Properties();
+		InputStream in = new FileInputStream(checkpointFile);
+		try
+		{
+			properties.load(in);
+		}
+		finally
+		{
+			in.close();
+		}
+
+		if (!fingerprint.equals(properties.getProperty(FINGERPRINT)))
+		{
+			log.info("Discarding the checkpoint taken with another configuration or server");
+			return;
+		}
+
+		for (String key : properties.stringPropertyNames())
+		{
+			if (!FINGERPRINT.equals(key)) entries.put(key, properties.getProperty(key));
+		}
+
+		log.info("Resuming the checkpoint of previous generation");
+	}
+
+	/**
+	 * Rebuild the procedure from the checkpoint or retrieve it.
+	 * 
+	 * @param procedureName
+	 *            name of procedure to retrieve
+	 * @param dbName
+	 *            name of database of the procedure
+	 * @return Procedure object with its body or null if the procedure does not exist
+	 * @throws SQLException
+	 *             if error occurred during procedure retrieval
+	 */
+	@Override
+	public SybaseProcedure fetchProcedure(String procedureName, String dbName) throws SQLException
+	{
+		List<String[]> procedures = Collections.singletonList(new String[] { dbName, procedureName });
+		return fetchProcedures(procedures).get(dbName + ".." + procedureName);
+	}
+
+	/**
+	 * Rebuild the procedures of the checkpoint and retrieve all the others at once with the underlying engine.
+	 * The procedures retrieved are recorded in the checkpoint.
+	 * 
+	 * @param procedures
+	 *            database and procedure name pairs of the procedures to retrieve
+	 * @return Procedure objects keyed by database and procedure name joined with ".." as requested. 
+	 *            Procedures that do not exist are mapped to null.
+	 * @throws SQLException
+	 *             if error occurred during procedures retrieval
+	 */
+	@Override
+	public Map<String, SybaseProcedure> fetchProcedures(List<String[]> procedures) throws SQLException
+	{
+		Map<String, SybaseProcedure> result = new LinkedHashMap<String, SybaseProcedure>();
+		List<String[]> toFetch = new ArrayList<String[]>();
+
+		for (String[] procedure : procedures)
+		{
+			String key = procedure[0] + ".." + procedure[1];
+			if (result.containsKey(key)) continue;
+
+			if (entries.containsKey(PREFIX_MISSING + key))
+			{
+				log.debug(key + " is missing according to the checkpoint");
+				result.put(key, null);
+			}
+			else if (entries.containsKey(PREFIX_BODY + key))
+			{
+				result.put(key, restoreProcedure(procedure[1], procedure[0]));
+			}
+			else toFetch.add(procedure);
+		}
+
+		if (!toFetch.isEmpty())
+		{
+			Map<String, SybaseProcedure> fetched = fetcher.fetchProcedures(toFetch);
+			for (String[] procedure : toFetch)
+			{
+				String key = procedure[0] + ".." + procedure[1];
+				SybaseProcedure fetchedProcedure = fetched.get(key);
+				result.put(key, fetchedProcedure);
+
+				// record the procedure in the checkpoint
+				if (fetchedProcedure == null)
+				{
+					entries.put(PREFIX_MISSING + key, "");
+				}
+				else if (fetchedProcedure.hasBody())
+				{
+					if (fetchedProcedure.getCreationDate() != null) entries.put(PREFIX_DATE + key, fetchedProcedure.getCreationDate());
+					entries.put(PREFIX_BODY + key, fetchedProcedure.getBody());
+				}
+			}
+
+			saveIfDue();
+		}
+
+		return result;
+	}
+
+	/**
+	 * Get the sub-procedure calls of the procedure if it has been rebuilt from the checkpoint with its calls
+	 * 
+	 * @param procedure
+	 *            the procedure
+	 * @return database and procedure name pairs of the calls or null if unknown
+	 */
+	public List<String[]> getRestoredCalls(SybaseProcedure procedure)
+	{
+		return restoredCalls.get(procedure);
+	}
+
+	/**
+	 * Record the sub-procedure calls of the procedure in the checkpoint
+	 * 
+	 * @param procedure
+	 *            the procedure
+	 * @param calls
+	 *            database and procedure name pairs of the calls
+	 */
+	public void recordCalls(SybaseProcedure procedure, List<String[]> calls)
+	{
+		StringBuilder callsValue = new StringBuilder();
+		for (String[] call : calls)
+		{
+			if (callsValue.length() > 0) callsValue.append(CALL_SEPARATOR);
+			callsValue.append(call[0]).append("..").append(call[1]);
+		}
+
+		entries.put(PREFIX_CALLS + procedure.getDbName() + ".." + procedure.getName(), callsValue.toString());
+	}
+
+	/**
+	 * Write the checkpoint file if the save interval has elapsed since the last save
+	 */
+	private void saveIfDue()
+	{
+		if (System.currentTimeMillis() - lastSave < saveInterval) return;
+
+		try
+		{
+			save();
+		}
+		catch (IOException e)
+		{
+			log.warn("Could not write the checkpoint: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Write the checkpoint file. The file is replaced only once completely written.
+	 * 
+	 * @throws IOException
+	 *             if the checkpoint file could not be written
+	 */
+	public synchronized void save() throws IOException
+	{
+		if (fingerprint == null) return;
+
+		Properties properties = new Properties();
+		properties.putAll(entries);
+		properties.setProperty(FINGERPRINT, fingerprint);
+
+		File tempFile = new File(checkpointFile.getPath() + ".tmp");
+		OutputStream out = new FileOutputStream(tempFile);
+		try
+		{
+			properties.store(out, "sybase-proc-maven-plugin checkpoint");
+		}
+		finally
+		{
+			out.close();
+		}
+
+		if (checkpointFile.exists() && !checkpointFile.delete()) throw new IOException("Could not replace " + checkpointFile);
+		if (!tempFile.renameTo(checkpointFile)) throw new IOException("Could not rename " + tempFile + " to " + checkpointFile);
+
+		lastSave = System.currentTimeMillis();
+		log.debug("Checkpoint saved");
+	}
+
+	/**
+	 * Delete the checkpoint file once all the procedures have been retrieved
+	 */
+	public synchronized void discard()
+	{
+		if (checkpointFile.exists() && !checkpointFile.delete()) log.warn("Could not delete " + checkpointFile);
+	}
+
+	/**
+	 * Rebuild the procedure from the checkpoint
+	 * 
+	 * @param procedureName
+	 *            procedure name
+	 * @param dbName
+	 *            database name
+	 * @return the procedure
+	 */
+	private SybaseProcedure restoreProcedure(String procedureName, String dbName)
+	{
+		String key = dbName + ".." + procedureName;
+
+		SybaseProcedure procedure = createProcedure(dbName, procedureName, entries.get(PREFIX_DATE + key));
+		procedure.setBody(entries.get(PREFIX_BODY + key));
+
+		String calls = entries.get(PREFIX_CALLS + key);
+		if (calls != null)
+		{
+			List<String[]> restored = new ArrayList<String[]>();
+			if (calls.length() > 0)
+			{
+				for (String call : calls.split(CALL_SEPARATOR))
+				{
+					int index = call.indexOf("..");
+					restored.add(new String[] { call.substring(0, index), call.substring(index + 2) });
+				}
+			}
+			restoredCalls.put(procedure, restored);
+		}
+
+		log.debug(key + " resumed from the checkpoint");
+
+		return procedure;
+	}
+
+	/**
+	 * Read the name of the SYBASE server
+	 * 
+	 * @return the server name or an empty string if unknown
+	 * @throws SQLException
+	 *             if error occurred during the query
+	 */
+	private String getServerName() throws SQLException
+	{
+		String serverName = null;
+
+		Statement statement = dao.executeSybaseQuery("select @@servername servername");
+		if (statement == null) return "";
+
+		try
+		{
+			ResultSet rs = nextResultSet(statement, true);
+			if (rs != null)
+			{
+				if (rs.next()) serverName = rs.getString("servername");
+				rs.close();
+			}
+		}
+		finally
+		{
+			dao.closeSybaseStatement(statement);
+		}
+
+		return serverName == null ? "" : serverName;
+	}
+
+}
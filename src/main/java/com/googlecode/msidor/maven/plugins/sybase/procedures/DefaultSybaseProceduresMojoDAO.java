@@ -21,8 +21,17 @@ import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.xmlrpc.XmlRpcException;
 import org.apache.xmlrpc.client.XmlRpcClient;
@@ -49,9 +58,75 @@ public class DefaultSybaseProceduresMojoDAO implements SybaseProceduresMojoDAOI
 	private XmlRpcClient client = null;	
 	
 	/**
-	 * The Sybase connection
+	 * All the Sybase connections of the pool
 	 */
-	private Connection connection = null;
+	private List<Connection> connections = Collections.synchronizedList(new ArrayList<Connection>());
+	
+	/**
+	 * The Sybase connections that are not used by any statement
+	 */
+	private BlockingQueue<Connection> idleConnections = new LinkedBlockingQueue<Connection>();
+	
+	/**
+	 * The Sybase connections borrowed by statements that are still open
+	 */
+	private Map<Statement, BorrowedConnection> busyConnections = Collections.synchronizedMap(new IdentityHashMap<Statement, BorrowedConnection>());
+	
+	/**
+	 * Maximum number of connections opened in the context of each database, 0 if the queries are not routed by database
+	 */
+	private int connectionsPerDatabase = 0;
+	
+	/**
+	 * The idle connections opened in the context of each database
+	 */
+	private Map<String, BlockingQueue<Connection>> databaseIdleConnections = new HashMap<String, BlockingQueue<Connection>>();
+	
+	/**
+	 * Time in milliseconds a query waits for a connection of its database before giving up
+	 */
+	private static final long CONNECTION_WAIT_TIMEOUT = 600000L;
+	
+	/**
+	 * Time in milliseconds between two checks for a connection of the database to open while waiting for an idle one
+	 */
+	private static final long CONNECTION_POLL_INTERVAL = 1000L;
+	
+	/**
+	 * The usage statistics of each database
+	 */
+	private Map<String, SybaseProceduresDatabaseUsage> databaseUsage = new ConcurrentHashMap<String, SybaseProceduresDatabaseUsage>();
+	
+	/**
+	 * Time the last query of each thread got its connection
+	 */
+	private ThreadLocal<Long> lastQueryStart = new ThreadLocal<Long>();
+	
+	/**
+	 * Connection string used to open the database connections on demand
+	 */
+	private String connectionString = null;
+	
+	/**
+	 * Connection properties used to open the database connections on demand
+	 */
+	private Properties connectionProperties = null;
+	
+	/**
+	 * Connection borrowed by a statement
+	 */
+	private static class BorrowedConnection
+	{
+		private Connection connection;
+		private String dbName;
+		private long start = System.currentTimeMillis();
+		
+		private BorrowedConnection(Connection connection, String dbName)
+		{
+			this.connection = connection;
+			this.dbName = dbName;
+		}
+	}
 	
 	/**
 	 * Update Confluence page with given content
@@ -133,6 +208,40 @@ public class DefaultSybaseProceduresMojoDAO implements SybaseProceduresMojoDAOI
 	 */	
 	@Override
 	public void connectToSybase(String syabseDriver,String syabseUser, String sybasePassword, String connectionString) throws Exception
+	{
+		connectToSybase(syabseDriver, syabseUser, sybasePassword, connectionString, 1);
+	}
+	
+	/**
+	 * Connect to Sybase databse opening a pool of connections.
+	 * Each query borrows one connection from the pool until its statement is closed with closeSybaseStatement.
+	 * @param syabseDriverVersion Sybase driver version
+	 * @param syabseUser Sybase user 
+	 * @param sybasePassword Sybase password
+	 * @param connectionString Sybase connection string
+	 * @param connectionPoolSize number of connections to open
+	 * @throws Exception
+	 */	
+	@Override
+	public void connectToSybase(String syabseDriver,String syabseUser, String sybasePassword, String connectionString, int connectionPoolSize) throws Exception
+	{
+		connectToSybase(syabseDriver, syabseUser, sybasePassword, connectionString, connectionPoolSize, 0);
+	}
+	
+	/**
+	 * Connect to Sybase databse opening a pool of connections.
+	 * Additionally, up to connectionsPerDatabase connections are opened on demand in the context of each database 
+	 * and the queries on behalf of a database are routed to them.
+	 * @param syabseDriverVersion Sybase driver version
+	 * @param syabseUser Sybase user 
+	 * @param sybasePassword Sybase password
+	 * @param connectionString Sybase connection string
+	 * @param connectionPoolSize number of connections to open
+	 * @param connectionsPerDatabase maximum number of connections per database, 0 to use the shared pool for all queries
+	 * @throws Exception
+	 */	
+	@Override
+	public void connectToSybase(String syabseDriver,String syabseUser, String sybasePassword, String connectionString, int connectionPoolSize, int connectionsPerDatabase) throws Exception
 	{
         //prepare the driver
         SybDriver sybDriver = (SybDriver) Class.forName( syabseDriver ).newInstance();
@@ -147,8 +256,18 @@ public class DefaultSybaseProceduresMojoDAO implements SybaseProceduresMojoDAOI
         prop.setProperty( "USE_METADATA", "true" );
         prop.setProperty( "IGNORE_DONE_IN_PROC", "false" );
         
-        //connect
-        connection = java.sql.DriverManager.getConnection( connectionString, prop );		
+        //keep the connection parameters for the database connections opened on demand
+        this.connectionString = connectionString;
+        this.connectionProperties = prop;
+        this.connectionsPerDatabase = Math.max( 0, connectionsPerDatabase );
+        
+        //connect as many times as the pool size requires
+        for ( int i = 0; i < Math.max( 1, connectionPoolSize ); i++ )
+        {
+            Connection connection = java.sql.DriverManager.getConnection( connectionString, prop );
+            connections.add( connection );
+            idleConnections.add( connection );
+        }
 	}
 	
 	/**
@@ -158,12 +277,29 @@ public class DefaultSybaseProceduresMojoDAO implements SybaseProceduresMojoDAOI
 	@Override
 	public void dropSybaseConnection() throws SQLException
 	{
-        if ( connection != null && !connection.isClosed() )
-            connection.close();
+        synchronized ( connections )
+        {
+            for ( Connection connection : connections )
+            {
+                if ( connection != null && !connection.isClosed() )
+                    connection.close();
+            }
+            
+            connections.clear();
+        }
+        
+        idleConnections.clear();
+        busyConnections.clear();
+        
+        synchronized ( databaseIdleConnections )
+        {
+            databaseIdleConnections.clear();
+        }
 	}
 	
 	/**
-	 * Execute Sybase query
+	 * Execute Sybase query.
+	 * The connection used by the query is borrowed from the pool and waits until one is available.
 	 * @param Sybase query
 	 * @return
 	 * @throws SQLException
@@ -171,9 +307,255 @@ public class DefaultSybaseProceduresMojoDAO implements SybaseProceduresMojoDAOI
 	@Override
 	public Statement executeSybaseQuery(String query) throws SQLException
 	{
-		Statement statement = connection.createStatement();
-		statement.execute(query);	
+		return executeSybaseQuery(null, query);
+	}
+	
+	/**
+	 * Execute Sybase query on behalf of the database.
+	 * If the queries are routed by database, the connection is borrowed from the connections of the database, 
+	 * otherwise from the shared pool.
+	 * @param dbName database the query works on, null for the shared pool
+	 * @param Sybase query
+	 * @return
+	 * @throws SQLException
+	 */	
+	@Override
+	public Statement executeSybaseQuery(String dbName, String query) throws SQLException
+	{
+		BorrowedConnection borrowed = new BorrowedConnection(borrowConnection(dbName), dbName);
+		lastQueryStart.set(Long.valueOf(borrowed.start));
+		
+		Statement statement = null;
+		try
+		{
+			statement = borrowed.connection.createStatement();
+			busyConnections.put(statement, borrowed);
+			statement.execute(query);
+		}
+		catch (SQLException e)
+		{
+			//give the connection back as the caller will never see the statement
+			if (statement != null)
+				closeSybaseStatement(statement);
+			else
+				releaseConnection(borrowed);
+			
+			throw e;
+		}
 		
 		return statement;
 	}
+	
+	/**
+	 * Close the statement returned by executeSybaseQuery and give its connection back to the pool
+	 * @param statement statement to close
+	 * @throws SQLException
+	 */
+	@Override
+	public void closeSybaseStatement(Statement statement) throws SQLException
+	{
+		BorrowedConnection borrowed = busyConnections.remove(statement);
+		try
+		{
+			statement.close();
+		}
+		finally
+		{
+			if (borrowed != null)
+				releaseConnection(borrowed);
+		}
+	}
+	
+	/**
+	 * Get the usage statistics of each database the queries have been executed on behalf of
+	 * @return usage statistics keyed by database name
+	 */
+	@Override
+	public Map<String, SybaseProceduresDatabaseUsage> getDatabaseUsage()
+	{
+		return databaseUsage;
+	}
+	
+	/**
+	 * Get the time the last query executed by the current thread got its connection
+	 * @return time in milliseconds or 0 if the thread has not executed any query
+	 */
+	@Override
+	public long getLastQueryStart()
+	{
+		Long start = lastQueryStart.get();
+		return start == null ? 0 : start.longValue();
+	}
+	
+	/**
+	 * Give the connection back to the pool it has been borrowed from and record the usage of its database
+	 * @param borrowed the connection borrowed
+	 */
+	private void releaseConnection(BorrowedConnection borrowed)
+	{
+		if (borrowed.dbName != null)
+			getUsage(borrowed.dbName).recordQuery(System.currentTimeMillis() - borrowed.start);
+		
+		if (connectionsPerDatabase > 0 && borrowed.dbName != null)
+		{
+			synchronized (databaseIdleConnections)
+			{
+				BlockingQueue<Connection> idle = databaseIdleConnections.get(borrowed.dbName);
+				if (idle != null)
+					idle.add(borrowed.connection);
+			}
+		}
+		else
+			idleConnections.add(borrowed.connection);
+	}
+	
+	/**
+	 * Get the usage statistics of the database creating them if needed
+	 * @param dbName database name
+	 * @return usage statistics
+	 */
+	private SybaseProceduresDatabaseUsage getUsage(String dbName)
+	{
+		synchronized (databaseUsage)
+		{
+			SybaseProceduresDatabaseUsage usage = databaseUsage.get(dbName);
+			if (usage == null)
+			{
+				usage = new SybaseProceduresDatabaseUsage();
+				databaseUsage.put(dbName, usage);
+			}
+			return usage;
+		}
+	}
+	
+	/**
+	 * Take an idle connection for the database. 
+	 * If the queries are routed by database, a connection of the database is reused or opened if the database has less 
+	 * connections than allowed, otherwise the query waits for a connection of the database. 
+	 * While waiting, a connection is opened as soon as the database has less connections than allowed again 
+	 * (one of them could not be opened). 
+	 * @param dbName database name, null for the shared pool
+	 * @return the connection
+	 * @throws SQLException if the connection could not be opened, if no connection has been available in time 
+	 * or if the thread has been interrupted while waiting
+	 */
+	private Connection borrowConnection(String dbName) throws SQLException
+	{
+		if (connectionsPerDatabase <= 0 || dbName == null)
+			return borrowConnection();
+		
+		if (connections.isEmpty())
+			throw new SQLException("Not connected to SYBASE");
+		
+		SybaseProceduresDatabaseUsage usage = getUsage(dbName);
+		long deadline = System.currentTimeMillis() + CONNECTION_WAIT_TIMEOUT;
+		
+		while (true)
+		{
+			BlockingQueue<Connection> idle = null;
+			boolean reserved = false;
+			synchronized (databaseIdleConnections)
+			{
+				idle = databaseIdleConnections.get(dbName);
+				if (idle == null)
+				{
+					idle = new LinkedBlockingQueue<Connection>();
+					databaseIdleConnections.put(dbName, idle);
+				}
+				
+				Connection connection = idle.poll();
+				if (connection != null)
+					return connection;
+				
+				//reserve the new connection while still holding the lock
+				if (usage.getConnections() < connectionsPerDatabase)
+				{
+					usage.recordConnection();
+					reserved = true;
+				}
+			}
+			
+			if (reserved)
+				return openDatabaseConnection(dbName, usage);
+			
+			long wait = deadline - System.currentTimeMillis();
+			if (wait <= 0)
+				throw new SQLException("Timed out waiting for a SYBASE connection to " + dbName);
+			
+			try
+			{
+				Connection connection = idle.poll(Math.min(wait, CONNECTION_POLL_INTERVAL), TimeUnit.MILLISECONDS);
+				if (connection != null)
+					return connection;
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new SQLException("Interrupted while waiting for a SYBASE connection to " + dbName);
+			}
+		}
+	}
+	
+	/**
+	 * Open a connection switched to the context of the database. 
+	 * If the connection could not be opened or switched, it is closed and its reservation is released.
+	 * @param dbName database name
+	 * @param usage usage statistics of the database where the connection has been reserved
+	 * @return the connection
+	 * @throws SQLException if the connection could not be opened or switched to the database
+	 */
+	private Connection openDatabaseConnection(String dbName, SybaseProceduresDatabaseUsage usage) throws SQLException
+	{
+		Connection connection = null;
+		boolean opened = false;
+		try
+		{
+			connection = java.sql.DriverManager.getConnection( connectionString, connectionProperties );
+			connection.setCatalog( dbName );
+			opened = true;
+		}
+		finally
+		{
+			if (!opened)
+			{
+				usage.releaseConnection();
+				
+				if (connection != null)
+				{
+					try
+					{
+						connection.close();
+					}
+					catch (SQLException e)
+					{
+						//the connection is given up anyway
+					}
+				}
+			}
+		}
+		
+		connections.add( connection );
+		return connection;
+	}
+	
+	/**
+	 * Take an idle connection from the pool waiting until one is available
+	 * @return the connection
+	 * @throws SQLException if there is no connection at all or if the thread has been interrupted while waiting
+	 */
+	private Connection borrowConnection() throws SQLException
+	{
+		if (connections.isEmpty())
+			throw new SQLException("Not connected to SYBASE");
+		
+		try
+		{
+			return idleConnections.take();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for a SYBASE connection");
+		}
+	}
 }
@@ -0,0 +1,350 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.	
+ */
+package com.googlecode.msidor.maven.plugins.sybase.procedures;
+
+import java.io.File;
+import java.security.MessageDigest;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * @author Maciej SIDOR
+ *
+ * Engine transferring the procedure body only if it differs from the existing SQL file.
+ * 
+ * <p>
+ * SYBASE computes the MD5 digest of each "syscomments" row of the procedure text with "hashbytes". 
+ * The digests and the lengths of the rows of all procedures of a database are read with one query. 
+ * The existing SQL file is encoded with the SYBASE character set, cut into the same rows 
+ * and each row digest is compared to the server one. 
+ * If all the rows are the same, the procedure is rebuilt from the SQL file. 
+ * Otherwise the procedure is retrieved by the underlying engine.
+ * </p>
+ * 
+ * <p>
+ * Requires read access to "sysobjects" and "syscomments" and the "hashbytes" function (ASE 15.0.2 and later).
+ * </p>
+ */
+public class DigestSybaseProceduresFetcher extends AbstractSybaseProceduresFetcher
+{
+	/**
+	 * Engine retrieving the procedures that have changed
+	 */
+	private SybaseProceduresFetcherI fetcher = null;
+
+	/**
+	 * The directory of SQL files
+	 */
+	private String outputDir = null;
+
+	/**
+	 * The character set of the procedure text stored by SYBASE
+	 */
+	private String sybaseCharset = null;
+
+	/**
+	 * The readings of the text digests of each database keyed by database name. 
+	 * Each reading gives the digests of the procedures of the database keyed by owner and procedure name and by the unqualified name they resolve.
+	 */
+	private ConcurrentMap<String, FutureTask<Map<String, ProcedureDigest>>> databases = new ConcurrentHashMap<String, FutureTask<Map<String, ProcedureDigest>>>();
+
+	/**
+	 * Number of procedures rebuilt from the SQL files
+	 */
+	private AtomicInteger unchangedCount = new AtomicInteger();
+
+	/**
+	 * @param dao DAO used to query SYBASE
+	 * @param log MOJO logger
+	 * @param fetcher engine retrieving the procedures that have changed
+	 * @param outputDir directory of SQL files
+	 * @param sybaseCharset the character set of the procedure text stored by SYBASE
+	 */
+	public DigestSybaseProceduresFetcher(SybaseProceduresMojoDAOI dao, Log log, SybaseProceduresFetcherI fetcher, String outputDir, String sybaseCharset)
+	{
+		super(dao, log);
+		this.fetcher = fetcher;
+		this.outputDir = outputDir;
+		this.sybaseCharset = sybaseCharset;
+	}
+
+	/**
+	 * Rebuild the procedure from the SQL file if the text has not changed or retrieve it otherwise.
+	 * 
+	 * @param procedureName
+	 *            name of procedure to retrieve
+	 * @param dbName
+	 *            name of database of the procedure
+	 * @return Procedure object with its body or null if the procedure does not exist
+	 * @throws SQLException
+	 *             if error occurred during procedure retrieval
+	 */
+	@Override
+	public SybaseProcedure fetchProcedure(String procedureName, String dbName) throws SQLException
+	{
+		SybaseProcedure procedure = restoreProcedure(procedureName, dbName);
+		if (procedure == null) procedure = fetcher.fetchProcedure(procedureName, dbName);
+
+		return procedure;
+	}
+
+	/**
+	 * Rebuild the unchanged procedures from the SQL files and retrieve all the others at once with the underlying engine.
+	 * 
+	 * @param procedures
+	 *            database and procedure name pairs of the procedures to retrieve
+	 * @return Procedure objects keyed by database and procedure name joined with ".." as requested. 
+	 *            Procedures that do not exist are mapped to null.
+	 * @throws SQLException
+	 *             if error occurred during procedures retrieval
+	 */
+	@Override
+	public Map<String, SybaseProcedure> fetchProcedures(List<String[]> procedures) throws SQLException
+	{
+		Map<String, SybaseProcedure> result = new LinkedHashMap<String, SybaseProcedure>();
+		List<String[]> toFetch = new ArrayList<String[]>();
+
+		for (String[] procedure : procedures)
+		{
+			String key = procedure[0] + ".." + procedure[1];
+			if (result.containsKey(key)) continue;
+
+			SybaseProcedure restored = restoreProcedure(procedure[1], procedure[0]);
+			if (restored != null) result.put(key, restored);
+			else toFetch.add(procedure);
+		}
+
+		if (!toFetch.isEmpty()) result.putAll(fetcher.fetchProcedures(toFetch));
+
+		return result;
+	}
+
+	/**
+	 * @return number of procedures rebuilt from the SQL files
+	 */
+	public int getUnchangedCount()
+	{
+		return unchangedCount.get();
+	}
+
+	/**
+	 * Rebuild the procedure from the SQL file if the digests of all its rows are the same as on the server
+	 * 
+	 * @param procedureName
+	 *            procedure name
+	 * @param dbName
+	 *            database name
+	 * @return the procedure or null if it has changed, if there is no SQL file or if the procedure does not exist
+	 * @throws SQLException
+	 *             if error occurred while reading the digests
+	 */
+	private SybaseProcedure restoreProcedure(String procedureName, String dbName) throws SQLException
+	{
+		ProcedureDigest digest = getDatabaseDigests(dbName).get(procedureName);
+		if (digest == null) return null;
+
+		File file = new File(outputDir + dbName + ".." + procedureName + ".sql");
+		if (!file.exists()) return null;
+
+		try
+		{
+			String body = readFile(file);
+			if (!digest.matches(body.getBytes(sybaseCharset))) return null;
+
+			log.debug(dbName + ".." + procedureName + " has the same text as " + file.getName());
+
+			// the body is left in the file, which is neither read again nor compared when the script is written
+			SybaseProceduresChecksum checksum = new SybaseProceduresChecksum();
+			checksum.update(body);
+
+			SybaseProcedure procedure = createProcedure(dbName, procedureName, digest.creationDate);
+			procedure.keepInScript(file, scriptCharset);
+			procedure.setChecksum(checksum.getChecksum());
+			procedure.setDigest(checksum.getDigest());
+			unchangedCount.incrementAndGet();
+
+			return procedure;
+		}
+		catch (Exception e)
+		{
+			log.warn("Could not compare " + file.getName() + ", " + dbName + ".." + procedureName + " will be retrieved: " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Get the text digests of all procedures of the database reading them unless done already.
+	 * Concurrent requests for the same database wait for the same reading, 
+	 * the readings of different databases run concurrently.
+	 * 
+	 * @param dbName
+	 *            database name
+	 * @return digests keyed by owner and procedure name and by the unqualified name they resolve
+	 * @throws SQLException
+	 *             if error occurred while reading the digests
+	 */
+	private Map<String, ProcedureDigest> getDatabaseDigests(final String dbName) throws SQLException
+	{
+		FutureTask<Map<String, ProcedureDigest>> reading = new FutureTask<Map<String, ProcedureDigest>>(new Callable<Map<String, ProcedureDigest>>()
+		{
+			@Override
+			public Map<String, ProcedureDigest> call() throws Exception
+			{
+				return readDatabaseDigests(dbName);
+			}
+		});
+
+		FutureTask<Map<String, ProcedureDigest>> existingReading = databases.putIfAbsent(dbName, reading);
+		if (existingReading == null)
+			reading.run();
+		else
+			reading = existingReading;
+
+		try
+		{
+			return reading.get();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while reading " + dbName + " digests");
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof SQLException) throw (SQLException) e.getCause();
+			throw new SQLException("Could not read " + dbName + " digests: " + e.getCause());
+		}
+	}
+
+	/**
+	 * Read the text digests of all procedures of the database with one query
+	 * 
+	 * @param dbName
+	 *            database name
+	 * @return digests keyed by owner and procedure name and by the unqualified name they resolve
+	 * @throws SQLException
+	 *             if error occurred while reading the digests
+	 */
+	private Map<String, ProcedureDigest> readDatabaseDigests(String dbName) throws SQLException
+	{
+		Map<String, ProcedureDigest> digests = new HashMap<String, ProcedureDigest>();
+
+		Statement statement = dao.executeSybaseQuery(dbName, "select o.id, " + CATALOG_COLUMNS + ", datalength(c.text) length, hashbytes('md5', c.text) digest from " + dbName + "..sysobjects o, " + dbName + "..syscomments c"
+				+ " where o.type = 'P' and c.id = o.id order by o.id, c.number, c.colid2, c.colid");
+		try
+		{
+			ResultSet rs = nextResultSet(statement, true);
+			if (rs != null)
+			{
+				String currentId = null;
+				ProcedureDigest current = null;
+				while (rs.next())
+				{
+					String id = rs.getString("id");
+					if (!id.equals(currentId))
+					{
+						currentId = id;
+						current = new ProcedureDigest(rs.getString("crdate"));
+						putCatalogEntry(digests, rs, current);
+					}
+
+					current.lengths.add(Integer.valueOf(rs.getInt("length")));
+					current.digests.add(rs.getBytes("digest"));
+				}
+				rs.close();
+			}
+		}
+		finally
+		{
+			dao.closeSybaseStatement(statement);
+		}
+
+		return digests;
+	}
+
+	/**
+	 * The compilation date and the digests of the text rows of a procedure
+	 */
+	private static class ProcedureDigest
+	{
+		/**
+		 * Compilation date
+		 */
+		private String creationDate = null;
+
+		/**
+		 * Length in bytes of each text row
+		 */
+		private List<Integer> lengths = new ArrayList<Integer>();
+
+		/**
+		 * MD5 digest of each text row
+		 */
+		private List<byte[]> digests = new ArrayList<byte[]>();
+
+		/**
+		 * @param creationDate compilation date
+		 */
+		public ProcedureDigest(String creationDate)
+		{
+			this.creationDate = creationDate;
+		}
+
+		/**
+		 * Check if the text cut into the same rows as on the server gives the same digests
+		 * 
+		 * @param text
+		 *            text encoded with the SYBASE character set
+		 * @return true if all the rows are the same
+		 * @throws Exception
+		 *             if the digest could not be computed
+		 */
+		public boolean matches(byte[] text) throws Exception
+		{
+			MessageDigest md5 = MessageDigest.getInstance("MD5");
+			int offset = 0;
+
+			for (int i = 0; i < lengths.size(); i++)
+			{
+				int length = lengths.get(i).intValue();
+				if (digests.get(i) == null || offset + length > text.length) return false;
+
+				md5.update(text, offset, length);
+				if (!Arrays.equals(md5.digest(), digests.get(i))) return false;
+
+				offset += length;
+			}
+
+			return offset == text.length;
+		}
+	}
+
+}
@@ -0,0 +1,142 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.	
+ */
+package com.googlecode.msidor.maven.plugins.sybase.procedures;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * @author Maciej SIDOR
+ *
+ * Engine retrieving each stored procedure separately with "sp_help" and "sp_helptext" system procedures
+ */
+public class HelpTextSybaseProceduresFetcher extends AbstractSybaseProceduresFetcher
+{
+
+	/**
+	 * @param dao DAO used to query SYBASE
+	 * @param log MOJO logger
+	 */
+	public HelpTextSybaseProceduresFetcher(SybaseProceduresMojoDAOI dao, Log log)
+	{
+		super(dao, log);
+	}
+
+	/**
+	 * Retrieve procedure basic info with "sp_help" and its body with "sp_helptext".
+	 * Sub-procedure calls are not checked.
+	 * 
+	 * @param procedureName
+	 *            name of procedure to retrieve
+	 * @param dbName
+	 *            name of database of the procedure
+	 * @return Procedure object with its body or null if the procedure does not exist
+	 * @throws SQLException
+	 *             if error occurred during procedure retrieval unless error code
+	 *             17461 informing that the procedure does not exist
+	 */
+	@Override
+	public SybaseProcedure fetchProcedure(String procedureName, String dbName) throws SQLException
+	{
+
+		try
+		{
+
+			SybaseProcedure procedure = null;
+			String name = null;
+			String creationDate = null;
+
+			// prepare and execute the procedure verification statement
+			Statement statement = dao.executeSybaseQuery(dbName, "exec " + dbName + "..sp_help " + procedureName);
+			try
+			{
+				// get the result
+				statement.getMoreResults();
+				ResultSet rs = statement.getResultSet();
+				if (rs != null && rs.next())
+				{
+					// get the procedure basic info from SYBASE
+					name = rs.getString("Name");
+					creationDate = rs.getString("Create_date");
+				}
+
+				// close the result set as no longer needed
+				if (rs != null) rs.close();
+			}
+			finally
+			{
+				dao.closeSybaseStatement(statement);
+			}
+
+			if (name != null)
+			{
+				log.debug(dbName + ".." + name + " compiled " + creationDate);
+
+				// create the procedure object
+				procedure = createProcedure(dbName, name, creationDate);
+
+				// prepare and execute the commend to retrieve procedure body
+				Statement stmt = dao.executeSybaseQuery(dbName, "exec " + dbName + "..sp_helptext " + procedureName);
+
+				// The procedure body is output in several lines.
+				// Each line is parsed and digested as soon as read
+				SybaseProceduresBodyReader b = createBodyReader(procedure);
+				try
+				{
+					boolean firstResult = true;
+					while (stmt.getMoreResults() || stmt.getUpdateCount() != -1)
+					{
+						ResultSet rs2 = stmt.getResultSet();
+						if (rs2 != null)
+						{
+							while (rs2.next() && !firstResult)
+							{
+								String ligne = rs2.getString(1);
+								b.read(ligne);
+							}
+							rs2.close();
+
+							firstResult = false;
+						}
+					}
+				}
+				finally
+				{
+					// close the statement as no longer needed
+					dao.closeSybaseStatement(stmt);
+				}
+
+				// update procedure object with procedure body
+				b.complete(procedure);
+			}
+
+			return procedure;
+		}
+		catch (SQLException sqlException)
+		{
+			// ignore SQL exception informing that the procedure does not exist
+			if (17461 == sqlException.getErrorCode()) log.warn(dbName + ".." + procedureName + " is missing");
+			else throw sqlException;
+		}
+
+		return null;
+
+	}
+
+}
@@ -0,0 +1,428 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.	
+ */
+package com.googlecode.msidor.maven.plugins.sybase.procedures;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * @author Maciej SIDOR
+ *
+ * Engine retrieving only the procedures that have changed since the previous generation.
+ * 
+ * <p>
+ * The state file kept in the output directory maps each procedure to its compilation date, 
+ * the MD5 digest of its whole body and its sub-procedure calls. 
+ * The compilation dates of all procedures of a database are read with one cheap query on "sysobjects". 
+ * If a procedure has not been recompiled since the previous generation and its SQL file has not been modified, 
+ * the procedure is rebuilt from the state and the SQL file without retrieving its body from SYBASE. 
+ * Otherwise the procedure is retrieved by the underlying engine.
+ * </p>
+ */
+public class IncrementalSybaseProceduresFetcher extends AbstractSybaseProceduresFetcher
+{
+	/**
+	 * Separator of the values of the state entries
+	 */
+	private static final String VALUE_SEPARATOR = "|";
+
+	/**
+	 * Separator of the sub-procedure calls in the state entries
+	 */
+	private static final String CALL_SEPARATOR = ",";
+
+	/**
+	 * Engine retrieving the procedures that have changed
+	 */
+	private SybaseProceduresFetcherI fetcher = null;
+
+	/**
+	 * The directory of SQL files
+	 */
+	private String outputDir = null;
+
+	/**
+	 * The state file
+	 */
+	private File stateFile = null;
+
+	/**
+	 * State of previous generation: catalog compilation date, reported compilation date, body digest and calls keyed by procedure key
+	 */
+	private Map<String, String[]> previousState = new HashMap<String, String[]>();
+
+	/**
+	 * State of current generation
+	 */
+	private Map<String, String[]> currentState = new ConcurrentHashMap<String, String[]>();
+
+	/**
+	 * The readings of the catalog compilation dates of each database keyed by database name. 
+	 * Each reading gives the compilation dates of the procedures of the database keyed by owner and procedure name and by the unqualified name they resolve.
+	 */
+	private ConcurrentMap<String, FutureTask<Map<String, String>>> creationDates = new ConcurrentHashMap<String, FutureTask<Map<String, String>>>();
+
+	/**
+	 * Sub-procedure calls of the procedures rebuilt from the state
+	 */
+	private Map<SybaseProcedure, List<String[]>> restoredCalls = Collections.synchronizedMap(new IdentityHashMap<SybaseProcedure, List<String[]>>());
+
+	/**
+	 * Number of procedures rebuilt from the state
+	 */
+	private AtomicInteger restoredCount = new AtomicInteger();
+
+	/**
+	 * @param dao DAO used to query SYBASE
+	 * @param log MOJO logger
+	 * @param fetcher engine retrieving the procedures that have changed
+	 * @param outputDir directory of SQL files
+	 * @param stateFile the state file
+	 * @throws IOException if the state file could not be read
+	 */
+	public IncrementalSybaseProceduresFetcher(SybaseProceduresMojoDAOI dao, Log log, SybaseProceduresFetcherI fetcher, String outputDir, File stateFile) throws IOException
+	{
+		super(dao, log);
+		this.fetcher = fetcher;
+		this.outputDir = outputDir;
+		this.stateFile = stateFile;
+
+		loadState();
+	}
+
+	/**
+	 * Rebuild the procedure from the state if unchanged or retrieve it otherwise.
+	 * 
+	 * @param procedureName
+	 *            name of procedure to retrieve
+	 * @param dbName
+	 *            name of database of the procedure
+	 * @return Procedure object with its body or null if the procedure does not exist
+	 * @throws SQLException
+	 *             if error occurred during procedure retrieval
+	 */
+	@Override
+	public SybaseProcedure fetchProcedure(String procedureName, String dbName) throws SQLException
+	{
+		if (getCreationDate(dbName, procedureName) == null)
+		{
+			log.warn(dbName + ".." + procedureName + " is missing");
+			return null;
+		}
+
+		SybaseProcedure procedure = restoreProcedure(procedureName, dbName);
+		if (procedure == null) procedure = fetcher.fetchProcedure(procedureName, dbName);
+
+		return procedure;
+	}
+
+	/**
+	 * Rebuild the unchanged procedures from the state and retrieve all the others at once with the underlying engine.
+	 * 
+	 * @param procedures
+	 *            database and procedure name pairs of the procedures to retrieve
+	 * @return Procedure objects keyed by database and procedure name joined with ".." as requested. 
+	 *            Procedures that do not exist are mapped to null.
+	 * @throws SQLException
+	 *             if error occurred during procedures retrieval
+	 */
+	@Override
+	public Map<String, SybaseProcedure> fetchProcedures(List<String[]> procedures) throws SQLException
+	{
+		Map<String, SybaseProcedure> result = new LinkedHashMap<String, SybaseProcedure>();
+		List<String[]> toFetch = new ArrayList<String[]>();
+
+		for (String[] procedure : procedures)
+		{
+			String key = procedure[0] + ".." + procedure[1];
+			if (result.containsKey(key)) continue;
+
+			if (getCreationDate(procedure[0], procedure[1]) == null)
+			{
+				log.warn(key + " is missing");
+				result.put(key, null);
+				continue;
+			}
+
+			SybaseProcedure restored = restoreProcedure(procedure[1], procedure[0]);
+			if (restored != null) result.put(key, restored);
+			else toFetch.add(procedure);
+		}
+
+		if (!toFetch.isEmpty()) result.putAll(fetcher.fetchProcedures(toFetch));
+
+		return result;
+	}
+
+	/**
+	 * Get the sub-procedure calls of the procedure if it has been rebuilt from the state
+	 * 
+	 * @param procedure
+	 *            the procedure
+	 * @return database and procedure name pairs of the calls or null if the procedure has been retrieved from SYBASE
+	 */
+	public List<String[]> getRestoredCalls(SybaseProcedure procedure)
+	{
+		return restoredCalls.get(procedure);
+	}
+
+	/**
+	 * Record the procedure and its calls in the state of current generation
+	 * 
+	 * @param procedure
+	 *            the procedure
+	 * @param calls
+	 *            database and procedure name pairs of the calls
+	 * @throws Exception
+	 *             if the procedure could not be recorded
+	 */
+	public void recordProcedure(SybaseProcedure procedure, List<String[]> calls) throws Exception
+	{
+		String catalogDate = getCreationDate(procedure.getDbName(), procedure.getName());
+		if (catalogDate == null || !procedure.hasBody()) return;
+
+		StringBuilder callsValue = new StringBuilder();
+		for (String[] call : calls)
+		{
+			if (callsValue.length() > 0) callsValue.append(CALL_SEPARATOR);
+			callsValue.append(call[0]).append("..").append(call[1]);
+		}
+
+		String digest = procedure.getDigest();
+		if (digest == null)
+		{
+			digest = SybaseProceduresChecksum.digest(procedure.getBody());
+			procedure.setDigest(digest);
+		}
+		currentState.put(procedure.getDbName() + ".." + procedure.getName(), new String[] { catalogDate, procedure.getCreationDate(), digest, callsValue.toString() });
+	}
+
+	/**
+	 * Write the state of current generation to the state file
+	 * 
+	 * @throws IOException
+	 *             if the state file could not be written
+	 */
+	public void saveState() throws IOException
+	{
+		Properties properties = new Properties();
+		for (Map.Entry<String, String[]> entry : currentState.entrySet())
+		{
+			String[] value = entry.getValue();
+			properties.setProperty(entry.getKey(), value[0] + VALUE_SEPARATOR + value[1] + VALUE_SEPARATOR + value[2] + VALUE_SEPARATOR + value[3]);
+		}
+
+		OutputStream out = new FileOutputStream(stateFile);
+		try
+		{
+			properties.store(out, "sybase-proc-maven-plugin generation state");
+		}
+		finally
+		{
+			out.close();
+		}
+
+		log.info(restoredCount.get() + " procedures unchanged since previous generation, " + (currentState.size() - restoredCount.get()) + " retrieved");
+	}
+
+	/**
+	 * Read the state of previous generation if any
+	 * 
+	 * @throws IOException
+	 *             if the state file could not be read
+	 */
+	private void loadState() throws IOException
+	{
+		if (!stateFile.exists()) return;
+
+		Properties properties = new Properties();
+		InputStream in = new FileInputStream(stateFile);
+		try
+		{
+			properties.load(in);
+		}
+		finally
+		{
+			in.close();
+		}
+
+		for (String key : properties.stringPropertyNames())
+		{
+			String[] value = properties.getProperty(key).split("\\" + VALUE_SEPARATOR, -1);
+			if (value.length == 4) previousState.put(key, value);
+		}
+	}
+
+	/**
+	 * Rebuild the procedure from the state if it has not been recompiled and if its SQL file has not been modified
+	 * 
+	 * @param procedureName
+	 *            procedure name
+	 * @param dbName
+	 *            database name
+	 * @return the procedure or null if it has changed
+	 * @throws SQLException
+	 *             if error occurred during procedure retrieval
+	 */
+	private SybaseProcedure restoreProcedure(String procedureName, String dbName) throws SQLException
+	{
+		String key = dbName + ".." + procedureName;
+		String[] previous = previousState.get(key);
+
+		if (previous == null || !previous[0].equals(getCreationDate(dbName, procedureName))) return null;
+
+		File file = new File(outputDir + key + ".sql");
+		if (!file.exists()) return null;
+
+		try
+		{
+			String body = readFile(file);
+
+			// the whole file must be the body recorded, the checksum is kept for the SQL scripts comparison only
+			SybaseProceduresChecksum checksum = new SybaseProceduresChecksum();
+			checksum.update(body);
+			if (!previous[2].equals(checksum.getDigest())) return null;
+
+			List<String[]> calls = new ArrayList<String[]>();
+			if (previous[3].length() > 0)
+			{
+				for (String call : previous[3].split(CALL_SEPARATOR))
+				{
+					int index = call.indexOf("..");
+					calls.add(new String[] { call.substring(0, index), call.substring(index + 2) });
+				}
+			}
+
+			log.debug(key + " unchanged since " + previous[1]);
+
+			SybaseProcedure procedure = createProcedure(dbName, procedureName, previous[1]);
+			procedure.keepInScript(file, scriptCharset);
+			procedure.setChecksum(checksum.getChecksum());
+			procedure.setDigest(previous[2]);
+			restoredCalls.put(procedure, calls);
+			restoredCount.incrementAndGet();
+
+			return procedure;
+		}
+		catch (Exception e)
+		{
+			log.warn("Could not read " + file.getName() + ", " + key + " will be retrieved: " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Get the catalog compilation date of the procedure reading the compilation dates of its database unless done already.
+	 * Concurrent requests for the same database wait for the same reading, 
+	 * the readings of different databases run concurrently.
+	 * 
+	 * @param dbName
+	 *            database name
+	 * @param procedureName
+	 *            procedure name
+	 * @return compilation date or null if the procedure does not exist
+	 * @throws SQLException
+	 *             if error occurred while reading the catalog
+	 */
+	private String getCreationDate(final String dbName, String procedureName) throws SQLException
+	{
+		FutureTask<Map<String, String>> reading = new FutureTask<Map<String, String>>(new Callable<Map<String, String>>()
+		{
+			@Override
+			public Map<String, String> call() throws Exception
+			{
+				return readCreationDates(dbName);
+			}
+		});
+
+		FutureTask<Map<String, String>> existingReading = creationDates.putIfAbsent(dbName, reading);
+		if (existingReading == null)
+			reading.run();
+		else
+			reading = existingReading;
+
+		try
+		{
+			return reading.get().get(procedureName);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while reading " + dbName + " catalog");
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof SQLException) throw (SQLException) e.getCause();
+			throw new SQLException("Could not read " + dbName + " catalog: " + e.getCause());
+		}
+	}
+
+	/**
+	 * Read the catalog compilation dates of all procedures of the database with one query
+	 * 
+	 * @param dbName
+	 *            database name
+	 * @return compilation dates keyed by owner and procedure name and by the unqualified name they resolve
+	 * @throws SQLException
+	 *             if error occurred while reading the catalog
+	 */
+	private Map<String, String> readCreationDates(String dbName) throws SQLException
+	{
+		Map<String, String> databaseDates = new HashMap<String, String>();
+
+		Statement statement = dao.executeSybaseQuery(dbName, "select " + CATALOG_COLUMNS + " from " + dbName + "..sysobjects o where o.type = 'P'");
+		try
+		{
+			ResultSet rs = nextResultSet(statement, true);
+			if (rs != null)
+			{
+				while (rs.next())
+					putCatalogEntry(databaseDates, rs, rs.getString("crdate"));
+				rs.close();
+			}
+		}
+		finally
+		{
+			dao.closeSybaseStatement(statement);
+		}
+
+		return databaseDates;
+	}
+
+}
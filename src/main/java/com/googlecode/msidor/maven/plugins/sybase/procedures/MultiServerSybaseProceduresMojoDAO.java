@@ -0,0 +1,279 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.	
+ */
+package com.googlecode.msidor.maven.plugins.sybase.procedures;
+
+import java.net.MalformedURLException;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.xmlrpc.XmlRpcException;
+
+/**
+ * @author Maciej SIDOR
+ *
+ * DAO for Sybase MOJOs spanning the local server and named remote servers.
+ * 
+ * <p>
+ * The databases of a remote server are qualified with the server name ("server.db"). 
+ * The queries on behalf of such a database are sent to the pool of the remote server, 
+ * with the server qualification removed from the query, while all other queries go to the local server. 
+ * Each server has its own connection pool, sized independently, so that a slow remote server 
+ * cannot take the connections of the others. The DAOs of the remote servers are created by the given factory 
+ * when connecting.
+ * </p>
+ */
+public class MultiServerSybaseProceduresMojoDAO implements SybaseProceduresMojoDAOI
+{
+	/**
+	 * The DAO of the local server
+	 */
+	private SybaseProceduresMojoDAOI localDao;
+
+	/**
+	 * Connection strings of the remote servers keyed by server name
+	 */
+	private Map<String, String> serverConnectionStrings;
+
+	/**
+	 * Connection pool sizes of the remote servers keyed by server name
+	 */
+	private Map<String, Integer> serverPoolSizes;
+
+	/**
+	 * Factory of the DAOs of the remote servers
+	 */
+	private SybaseProceduresMojoDAOFactoryI daoFactory;
+
+	/**
+	 * The DAOs of the remote servers keyed by server name, created when connecting
+	 */
+	private Map<String, SybaseProceduresMojoDAOI> serverDaos = new LinkedHashMap<String, SybaseProceduresMojoDAOI>();
+
+	/**
+	 * The DAO of each open statement
+	 */
+	private Map<Statement, SybaseProceduresMojoDAOI> statementDaos = Collections.synchronizedMap(new IdentityHashMap<Statement, SybaseProceduresMojoDAOI>());
+
+	/**
+	 * The remote servers are accessed with the default DAO
+	 * @param localDao DAO of the local server
+	 * @param serverConnectionStrings connection strings of the remote servers keyed by server name
+	 * @param serverPoolSizes connection pool sizes of the remote servers keyed by server name
+	 */
+	public MultiServerSybaseProceduresMojoDAO(SybaseProceduresMojoDAOI localDao, Map<String, String> serverConnectionStrings, Map<String, Integer> serverPoolSizes)
+	{
+		this(localDao, serverConnectionStrings, serverPoolSizes, new SybaseProceduresMojoDAOFactoryI()
+		{
+			@Override
+			public SybaseProceduresMojoDAOI createDAO(String server)
+			{
+				return new DefaultSybaseProceduresMojoDAO();
+			}
+		});
+	}
+
+	/**
+	 * @param localDao DAO of the local server
+	 * @param serverConnectionStrings connection strings of the remote servers keyed by server name
+	 * @param serverPoolSizes connection pool sizes of the remote servers keyed by server name
+	 * @param daoFactory factory of the DAOs of the remote servers
+	 */
+	public MultiServerSybaseProceduresMojoDAO(SybaseProceduresMojoDAOI localDao, Map<String, String> serverConnectionStrings, Map<String, Integer> serverPoolSizes, SybaseProceduresMojoDAOFactoryI daoFactory)
+	{
+		this.localDao = localDao;
+		this.serverConnectionStrings = serverConnectionStrings;
+		this.serverPoolSizes = serverPoolSizes;
+		this.daoFactory = daoFactory;
+	}
+
+	@Override
+	public void updateConfluencePage(Object cookie, HashMap<Object, Object> page, HashMap<Object, Object> pageUpdateOptions) throws XmlRpcException
+	{
+		localDao.updateConfluencePage(cookie, page, pageUpdateOptions);
+	}
+
+	@Override
+	public HashMap<Object, Object> getConfluencePage(Object cookie, String confluencePageID) throws XmlRpcException
+	{
+		return localDao.getConfluencePage(cookie, confluencePageID);
+	}
+
+	@Override
+	public Object authenticateToConfluence(String confleunceUser, String confluencePassword) throws XmlRpcException
+	{
+		return localDao.authenticateToConfluence(confleunceUser, confluencePassword);
+	}
+
+	@Override
+	public void initializeXmlRpcClient(String confluenceServer) throws MalformedURLException
+	{
+		localDao.initializeXmlRpcClient(confluenceServer);
+	}
+
+	@Override
+	public void connectToSybase(String syabseDriver, String syabseUser, String sybasePassword, String connectionString) throws Exception
+	{
+		connectToSybase(syabseDriver, syabseUser, sybasePassword, connectionString, 1, 0);
+	}
+
+	@Override
+	public void connectToSybase(String syabseDriver, String syabseUser, String sybasePassword, String connectionString, int connectionPoolSize) throws Exception
+	{
+		connectToSybase(syabseDriver, syabseUser, sybasePassword, connectionString, connectionPoolSize, 0);
+	}
+
+	/**
+	 * Connect to the local server and to all remote servers, each with its own pool and DAO.
+	 * The remote servers are connected with the same credentials as the local one.
+	 * @param syabseDriverVersion Sybase driver version
+	 * @param syabseUser Sybase user 
+	 * @param sybasePassword Sybase password
+	 * @param connectionString connection string of the local server
+	 * @param connectionPoolSize number of connections to open to the local server
+	 * @param connectionsPerDatabase maximum number of connections per database, 0 to use the shared pool for all queries
+	 * @throws Exception
+	 */
+	@Override
+	public void connectToSybase(String syabseDriver, String syabseUser, String sybasePassword, String connectionString, int connectionPoolSize, int connectionsPerDatabase) throws Exception
+	{
+		localDao.connectToSybase(syabseDriver, syabseUser, sybasePassword, connectionString, connectionPoolSize, connectionsPerDatabase);
+
+		for (Map.Entry<String, String> server : serverConnectionStrings.entrySet())
+		{
+			SybaseProceduresMojoDAOI serverDao = daoFactory.createDAO(server.getKey());
+			serverDaos.put(server.getKey(), serverDao);
+
+			Integer poolSize = serverPoolSizes.get(server.getKey());
+			serverDao.connectToSybase(syabseDriver, syabseUser, sybasePassword, server.getValue(), poolSize == null ? 1 : poolSize.intValue(), connectionsPerDatabase);
+		}
+	}
+
+	/**
+	 * Disconnect from all servers
+	 * @throws SQLException
+	 */
+	@Override
+	public void dropSybaseConnection() throws SQLException
+	{
+		SQLException error = null;
+
+		for (SybaseProceduresMojoDAOI serverDao : serverDaos.values())
+		{
+			try
+			{
+				serverDao.dropSybaseConnection();
+			}
+			catch (SQLException e)
+			{
+				error = e;
+			}
+		}
+
+		localDao.dropSybaseConnection();
+
+		if (error != null) throw error;
+	}
+
+	@Override
+	public Statement executeSybaseQuery(String query) throws SQLException
+	{
+		return localDao.executeSybaseQuery(query);
+	}
+
+	/**
+	 * Execute Sybase query on the server of the database
+	 * @param dbName database the query works on, qualified with the server name if remote
+	 * @param Sybase query
+	 * @return
+	 * @throws SQLException
+	 */
+	@Override
+	public Statement executeSybaseQuery(String dbName, String query) throws SQLException
+	{
+		SybaseProceduresMojoDAOI dao = localDao;
+		String localDbName = dbName;
+
+		int index = dbName == null ? -1 : dbName.indexOf('.');
+		if (index > 0)
+		{
+			String server = dbName.substring(0, index);
+			dao = serverDaos.get(server);
+			if (dao == null) throw new SQLException("Server " + server + " is not configured");
+
+			// the remote server knows its databases without qualification
+			localDbName = dbName.substring(index + 1);
+			query = query.replace(dbName + "..", localDbName + "..");
+		}
+
+		Statement statement = dao.executeSybaseQuery(localDbName, query);
+		if (statement != null) statementDaos.put(statement, dao);
+
+		return statement;
+	}
+
+	/**
+	 * Close the statement on its server
+	 * @param statement statement to close
+	 * @throws SQLException
+	 */
+	@Override
+	public void closeSybaseStatement(Statement statement) throws SQLException
+	{
+		SybaseProceduresMojoDAOI dao = statement == null ? null : statementDaos.remove(statement);
+		if (dao == null) dao = localDao;
+
+		dao.closeSybaseStatement(statement);
+	}
+
+	/**
+	 * Get the usage statistics of the databases of all servers. The databases of the remote servers are qualified 
+	 * with the server name.
+	 * @return usage statistics keyed by database name
+	 */
+	@Override
+	public Map<String, SybaseProceduresDatabaseUsage> getDatabaseUsage()
+	{
+		Map<String, SybaseProceduresDatabaseUsage> usage = new HashMap<String, SybaseProceduresDatabaseUsage>(localDao.getDatabaseUsage());
+
+		for (Map.Entry<String, SybaseProceduresMojoDAOI> server : serverDaos.entrySet())
+		{
+			for (Map.Entry<String, SybaseProceduresDatabaseUsage> database : server.getValue().getDatabaseUsage().entrySet())
+				usage.put(server.getKey() + "." + database.getKey(), database.getValue());
+		}
+
+		return usage;
+	}
+
+	/**
+	 * Get the time the last query executed by the current thread got its connection, on whichever server
+	 * @return time in milliseconds or 0 if unknown
+	 */
+	@Override
+	public long getLastQueryStart()
+	{
+		long start = localDao.getLastQueryStart();
+		for (SybaseProceduresMojoDAOI serverDao : serverDaos.values())
+			start = Math.max(start, serverDao.getLastQueryStart());
+
+		return start;
+	}
+
+}
@@ -15,10 +15,14 @@ limitations under the License.
  */
 package com.googlecode.msidor.maven.plugins.sybase.procedures;
 
-import java.util.ArrayList;
-import java.util.Hashtable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 
 /**
  * @author Maciej SIDOR
@@ -27,12 +31,6 @@ import java.util.Map;
  */
 public class SybaseProcedure
 {
-    /**
-     * The static collection of all created objects.
-     * Allows to retrieve existing procedure instead of creating the doubled one 
-     */
-    private static Map<String, SybaseProcedure> allProcedures = new Hashtable<String, SybaseProcedure>();
-
     /**
      * Database name
      */
@@ -49,14 +47,72 @@ public class SybaseProcedure
     private String creationDate;
 
     /**
-     * Procedure body
+     * Procedure body, null if spilled, compacted or kept in the SQL script
      */
     private String body;
 
     /**
-     * List if sub procedures called by this procedure
+     * SQL script with the same text as the body, read back when the body is needed. Null if the body is kept otherwise
+     */
+    private File script;
+    private Charset scriptCharset;
+
+    /**
+     * Procedure body kept as bytes, null if the body is a string
+     */
+    private SybaseProceduresCompactBody compactBody;
+
+    /**
+     * Store the body has been spilled to, null if the body is on the heap
+     */
+    private SybaseProceduresSpillStore spillStore;
+
+    /**
+     * Offset and length of the body in the spill store
+     */
+    private long spillOffset;
+    private int spillLength;
+
+    /**
+     * Sub-procedure calls found while the body was read, null if unknown
+     */
+    private List<SybaseProceduresLexer.CallSite> callSites;
+
+    /**
+     * Table references found while the body was read, null if unknown
+     */
+    private List<SybaseProceduresLexer.TableAccess> tableAccesses;
+
+    /**
+     * Checksum of the body computed while the body was read, null if unknown
+     */
+    private String checksum;
+
+    /**
+     * Digest of the whole body computed while the body was read, null if unknown
+     */
+    private String digest;
+
+    /**
+     * True if the body was read from the SQL script, which has therefore the same text
+     */
+    private boolean scriptUpToDate;
+
+    /**
+     * Call graph this procedure belongs to, null if not linked yet
+     */
+    private SybaseProceduresGraph graph;
+
+    /**
+     * Id of this procedure in the call graph
      */
-    private List<SybaseProcedure> procedures = new ArrayList<SybaseProcedure>();
+    private int graphId = -1;
+
+    /**
+     * Ids of the database and procedure names in the name table of the generation, -1 if not registered
+     */
+    private int dbNameId = -1;
+    private int nameId = -1;
 
     
     /**
@@ -71,22 +127,26 @@ public class SybaseProcedure
         this.dbName = dbName;
         this.name = name;
         this.creationDate = creationDate;
-
-        SybaseProcedure.allProcedures.put( dbName + ":" + name, this );
     }
 
     /**
-     * Retrieves procedure from the collection of already created procedures
+     * Retrieves procedure from the procedures created by the execution running in the current thread.
+     * The execution is known to the thread running the plugin and to the threads it starts only: 
+     * the threads of a pool created beforehand, such as the common ForkJoin pool, 
+     * do not inherit it and always get null.
      * @param dbName - procedure database name
      * @param name - procedure name
-     * @return Procedure if already created or null if none found
+     * @return Procedure if already created or null if none found or if the execution is not known to the thread
+     * @deprecated the procedures are kept per execution, use {@link SybaseProceduresRegistry#get(String, String)}
      */
+    @Deprecated
     public static SybaseProcedure getExistingProcedure( String dbName, String name )
     {
-        if ( !SybaseProcedure.allProcedures.containsKey( dbName + ":" + name ) )
+        SybaseProceduresRegistry registry = SybaseProceduresRegistry.getCurrent();
+        if ( registry == null )
             return null;
-        else
-            return SybaseProcedure.allProcedures.get( dbName + ":" + name );
+
+        return registry.get( dbName, name );
     }
 
     /**
@@ -103,6 +163,7 @@ public class SybaseProcedure
     public void setDbName( String dbName )
     {
         this.dbName = dbName;
+        this.dbNameId = -1;
     }
 
     /**
@@ -119,6 +180,7 @@ public class SybaseProcedure
     public void setName( String name )
     {
         this.name = name;
+        this.nameId = -1;
     }
 
     /**
@@ -142,31 +204,328 @@ public class SybaseProcedure
      */
     public String getBody()
     {
+        if ( spillStore != null )
+            return spillStore.read( spillOffset, spillLength );
+
+        if ( script != null )
+            return readScript();
+
+        if ( compactBody != null )
+            return compactBody.decode();
+
         return body;
     }
 
     /**
-     * @param body the body to set
+     * @return the body kept as bytes or null if the body is not compacted
+     */
+    public SybaseProceduresCompactBody getCompactBody()
+    {
+        return compactBody;
+    }
+
+    /**
+     * Keep the body as UTF-8 bytes instead of a string. The checksum is kept, 
+     * the calls of the body must have been found already.
+     * @param compress true if the bytes should be deflated
+     * @return the body compacted or null if there is no body on the heap
+     */
+    public SybaseProceduresCompactBody compact( boolean compress )
+    {
+        if ( body == null )
+            return null;
+
+        compactBody = new SybaseProceduresCompactBody( body, compress );
+        body = null;
+        callSites = null;
+        tableAccesses = null;
+
+        return compactBody;
+    }
+
+    /**
+     * @return true if the body is kept in a spill store instead of the heap
+     */
+    public boolean isSpilled()
+    {
+        return spillStore != null;
+    }
+
+    /**
+     * Release the body from the heap once written to the spill store. The checksum is kept, 
+     * the calls of the body must have been found already.
+     * @param spillStore the store the body has been written to
+     * @param spillOffset offset of the body in the store
+     * @param spillLength number of characters of the body
+     */
+    void spill( SybaseProceduresSpillStore spillStore, long spillOffset, int spillLength )
+    {
+        this.spillStore = spillStore;
+        this.spillOffset = spillOffset;
+        this.spillLength = spillLength;
+        this.body = null;
+        this.compactBody = null;
+        this.callSites = null;
+        this.tableAccesses = null;
+    }
+
+    /**
+     * @param body the body to set. The calls, the checksum and the digest of the previous body are forgotten.
      */
     public void setBody( String body )
     {
         this.body = body;
+        this.compactBody = null;
+        this.spillStore = null;
+        this.callSites = null;
+        this.tableAccesses = null;
+        this.checksum = null;
+        this.digest = null;
+        this.scriptUpToDate = false;
+        this.script = null;
+        this.scriptCharset = null;
+    }
+
+    /**
+     * Release the body, which has the same text as the SQL script, and read it back from the script when needed.
+     * The calls, the checksum and the digest of the previous body are forgotten.
+     * @param script the SQL script
+     * @param scriptCharset the character set of the SQL script
+     */
+    void keepInScript( File script, Charset scriptCharset )
+    {
+        setBody( null );
+        this.script = script;
+        this.scriptCharset = scriptCharset;
+        this.scriptUpToDate = true;
+    }
+
+    /**
+     * @return true if the body is not on the heap but read back from the SQL script when needed
+     */
+    public boolean isKeptInScript()
+    {
+        return script != null;
+    }
+
+    /**
+     * @return true if the procedure has a body, wherever it is kept
+     */
+    public boolean hasBody()
+    {
+        return body != null || compactBody != null || spillStore != null || script != null;
     }
 
     /**
-     * @return the procedures
+     * @return the content of the SQL script the body is kept in
+     */
+    private String readScript()
+    {
+        StringBuilder content = new StringBuilder();
+        char[] buffer = new char[8192];
+
+        try
+        {
+            Reader reader = new InputStreamReader( new FileInputStream( script ), scriptCharset );
+            try
+            {
+                int numRead;
+                while ( ( numRead = reader.read( buffer ) ) != -1 )
+                    content.append( buffer, 0, numRead );
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new IllegalStateException( "Could not read the body of " + dbName + ".." + name + " back from " + script.getName(), e );
+        }
+
+        return content.toString();
+    }
+
+    /**
+     * @return the sub-procedure calls found while the body was read or null if unknown
+     */
+    public List<SybaseProceduresLexer.CallSite> getCallSites()
+    {
+        return callSites;
+    }
+
+    /**
+     * @param callSites the sub-procedure calls of the body
+     */
+    public void setCallSites( List<SybaseProceduresLexer.CallSite> callSites )
+    {
+        this.callSites = callSites;
+    }
+
+    /**
+     * @return the table references found while the body was read or null if unknown
+     */
+    public List<SybaseProceduresLexer.TableAccess> getTableAccesses()
+    {
+        return tableAccesses;
+    }
+
+    /**
+     * @param tableAccesses the table references of the body
+     */
+    public void setTableAccesses( List<SybaseProceduresLexer.TableAccess> tableAccesses )
+    {
+        this.tableAccesses = tableAccesses;
+    }
+
+    /**
+     * @return the distinct tables referenced by this procedure in order of first reference
+     */
+    public List<String> getTables()
+    {
+        if ( graph == null )
+            return Collections.emptyList();
+
+        return graph.getTables( graphId );
+    }
+
+    /**
+     * @param index index of the table in the tables list
+     * @return how this procedure accesses the table, a combination of {@link SybaseProceduresGraph#READ} and {@link SybaseProceduresGraph#WRITE}
+     */
+    public int getTableAccess( int index )
+    {
+        return graph.getTableAccess( graphId, index );
+    }
+
+    /**
+     * @return the checksum of the body or null if unknown
+     */
+    public String getChecksum()
+    {
+        return checksum;
+    }
+
+    /**
+     * @param checksum the checksum of the body
+     */
+    public void setChecksum( String checksum )
+    {
+        this.checksum = checksum;
+    }
+
+    /**
+     * @return the digest of the whole body or null if unknown
+     * @see SybaseProceduresChecksum#getDigest()
+     */
+    public String getDigest()
+    {
+        return digest;
+    }
+
+    /**
+     * @param digest the digest of the whole body
+     */
+    public void setDigest( String digest )
+    {
+        this.digest = digest;
+    }
+
+    /**
+     * @return true if the body was read from the SQL script, which does not have to be compared nor written then
+     */
+    public boolean isScriptUpToDate()
+    {
+        return scriptUpToDate;
+    }
+
+    /**
+     * @param scriptUpToDate true if the body was read from the SQL script
+     */
+    public void setScriptUpToDate( boolean scriptUpToDate )
+    {
+        this.scriptUpToDate = scriptUpToDate;
+    }
+
+    /**
+     * @return read only view of the distinct sub procedures called by this procedure in order of first call.
+     * Unlike the list kept by the previous versions, it cannot be modified: the calls are replaced with {@link #setProcedures(List)}
      */
     public List<SybaseProcedure> getProcedures()
     {
-        return procedures;
+        if ( graph == null )
+            return Collections.emptyList();
+
+        return graph.getCallees( graphId );
     }
 
     /**
-     * @param procedures the procedures to set
+     * Replaces the calls of this procedure in its call graph, a graph of its own if not linked yet.
+     * The sub procedures must not belong to another call graph.
+     * @param procedures the sub procedures called by this procedure
+     * @deprecated the calls are registered with {@link SybaseProceduresGraph#addCall(SybaseProcedure, SybaseProcedure)}
      */
+    @Deprecated
     public void setProcedures( List<SybaseProcedure> procedures )
     {
-        this.procedures = procedures;
+        if ( graph == null )
+            new SybaseProceduresGraph().addProcedure( this );
+
+        for ( SybaseProcedure procedure : procedures )
+        {
+            if ( procedure.graph != null && procedure.graph != graph )
+                throw new IllegalArgumentException( procedure.getDbName() + ".." + procedure.getName() + " belongs to another call graph" );
+        }
+
+        graph.removeCalls( this );
+        for ( SybaseProcedure procedure : procedures )
+            graph.addCall( this, procedure );
+    }
+
+    /**
+     * @param index index of the sub procedure in the sub procedures list
+     * @return number of times this procedure calls the sub procedure
+     */
+    public int getCallCount( int index )
+    {
+        return graph.getCallCount( graphId, index );
+    }
+
+    /**
+     * @return id of the database name in the name table of the generation or -1 if not registered
+     */
+    public int getDbNameId()
+    {
+        return dbNameId;
+    }
+
+    /**
+     * @return id of the procedure name in the name table of the generation or -1 if not registered
+     */
+    public int getNameId()
+    {
+        return nameId;
+    }
+
+    /**
+     * @param dbNameId id of the database name in the name table of the generation
+     * @param nameId id of the procedure name in the name table of the generation
+     */
+    void setNameIds( int dbNameId, int nameId )
+    {
+        this.dbNameId = dbNameId;
+        this.nameId = nameId;
+    }
+
+    /**
+     * Attach this procedure to the call graph
+     * @param graph the call graph
+     * @param graphId id of this procedure in the call graph
+     */
+    void setGraph( SybaseProceduresGraph graph, int graphId )
+    {
+        this.graph = graph;
+        this.graphId = graphId;
     }
 
 
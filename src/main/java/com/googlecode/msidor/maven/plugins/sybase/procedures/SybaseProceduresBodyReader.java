@@ -0,0 +1,278 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.	
+ */
+package com.googlecode.msidor.maven.plugins.sybase.procedures;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+
+/**
+ * @author Maciej SIDOR
+ *
+ * Reader of a procedure body given row by row as it arrives from SYBASE.
+ * 
+ * <p>
+ * Each row goes straight into the lexer detecting the sub-procedure calls and table references and into the checksum, 
+ * so that both are known as soon as the last row has been read without any further pass over the body.
+ * </p>
+ * 
+ * <p>
+ * With a parse cache, the lexer is not fed: the calls and table references are looked up by the digest of the body 
+ * once read and the body is parsed only if it is not in the cache. When parsing is left to a separate 
+ * stage, the reader only digests the body.
+ * </p>
+ * 
+ * <p>
+ * When compared with the SQL script of the previous generation, the body is not kept while it has the same text 
+ * as the script: the rows are only matched against the script as they arrive. The body is buffered from the first 
+ * difference on, starting with the part of the script matched so far. An unchanged body is left in the script 
+ * and read back from it only if needed.
+ * </p>
+ */
+public class SybaseProceduresBodyReader
+{
+	/**
+	 * The body, null while it has the same text as the SQL script
+	 */
+	private StringBuilder body = new StringBuilder();
+
+	/**
+	 * The SQL script the body is compared with, null if not compared
+	 */
+	private File script = null;
+
+	/**
+	 * The character set of the SQL script
+	 */
+	private Charset scriptCharset = null;
+
+	/**
+	 * Reader of the SQL script positioned after the characters matched so far, null once the body differs
+	 */
+	private Reader scriptReader = null;
+
+	/**
+	 * Number of characters of the body matching the SQL script
+	 */
+	private int matched = 0;
+
+	/**
+	 * The lexer detecting the sub-procedure calls
+	 */
+	private SybaseProceduresLexer lexer = null;
+
+	/**
+	 * The checksum and the digest of the body
+	 */
+	private SybaseProceduresChecksum checksum = new SybaseProceduresChecksum();
+
+	/**
+	 * Cache of the calls of the bodies parsed previously or null
+	 */
+	private SybaseProceduresParseCache parseCache = null;
+
+	/**
+	 * Reader parsing the body as it is read
+	 */
+	public SybaseProceduresBodyReader()
+	{
+		lexer = new SybaseProceduresLexer();
+	}
+
+	/**
+	 * Reader looking the calls up in the parse cache first
+	 * 
+	 * @param parseCache
+	 *            cache of the calls of the bodies parsed previously, if null the body is parsed as it is read
+	 */
+	public SybaseProceduresBodyReader(SybaseProceduresParseCache parseCache)
+	{
+		if (parseCache == null) lexer = new SybaseProceduresLexer();
+		this.parseCache = parseCache;
+	}
+
+	/**
+	 * Reader leaving the body unparsed if requested
+	 * 
+	 * @param parsing
+	 *            if false, the calls of the body are not looked for and are left to the parse stage
+	 */
+	public SybaseProceduresBodyReader(boolean parsing)
+	{
+		if (parsing) lexer = new SybaseProceduresLexer();
+	}
+
+	/**
+	 * Compare the body with the SQL script as it is read. Must be called before the first row.
+	 * 
+	 * @param script
+	 *            the SQL script of the previous generation, ignored if it does not exist
+	 * @param scriptCharset
+	 *            the character set of the SQL script
+	 */
+	public void compareWith(File script, Charset scriptCharset)
+	{
+		if (body == null || body.length() > 0 || !script.isFile()) return;
+
+		try
+		{
+			scriptReader = new BufferedReader(new InputStreamReader(new FileInputStream(script), scriptCharset));
+		}
+		catch (IOException e)
+		{
+			return;
+		}
+
+		this.script = script;
+		this.scriptCharset = scriptCharset;
+		body = null;
+	}
+
+	/**
+	 * Read the next row of the body
+	 * 
+	 * @param row
+	 *            the row, null rows are ignored
+	 */
+	public void read(String row)
+	{
+		if (row == null) return;
+
+		if (body == null && !matchScript(row)) bufferScript();
+		if (body != null) body.append(row);
+
+		if (lexer != null) lexer.feed(row);
+		checksum.update(row);
+	}
+
+	/**
+	 * Set the body, its sub-procedure calls, its checksum and its digest to the procedure
+	 * 
+	 * @param procedure
+	 *            the procedure
+	 */
+	public void complete(SybaseProcedure procedure)
+	{
+		if (body == null && !matchScriptEnd()) bufferScript();
+
+		String digest = checksum.getDigest();
+		if (body != null) procedure.setBody(body.toString());
+		else procedure.keepInScript(script, scriptCharset);
+		procedure.setChecksum(checksum.getChecksum());
+		procedure.setDigest(digest);
+
+		if (lexer != null)
+		{
+			procedure.setCallSites(lexer.finish());
+			procedure.setTableAccesses(lexer.getTableAccesses());
+			return;
+		}
+
+		if (parseCache == null) return;
+
+		if (!parseCache.restore(digest, procedure))
+		{
+			SybaseProceduresLexer.parse(procedure, procedure.getBody());
+			parseCache.put(digest, procedure);
+		}
+	}
+
+	/**
+	 * Match the row with the next characters of the SQL script
+	 * 
+	 * @param row
+	 *            the row
+	 * @return true if the script goes on with the row
+	 */
+	private boolean matchScript(String row)
+	{
+		char[] expected = new char[row.length()];
+		try
+		{
+			int read = 0;
+			while (read < expected.length)
+			{
+				int numRead = scriptReader.read(expected, read, expected.length - read);
+				if (numRead == -1) return false;
+				read += numRead;
+			}
+		}
+		catch (IOException e)
+		{
+			return false;
+		}
+
+		if (!row.contentEquals(new String(expected))) return false;
+
+		matched += expected.length;
+		return true;
+	}
+
+	/**
+	 * @return true if the SQL script ends where the body does
+	 */
+	private boolean matchScriptEnd()
+	{
+		try
+		{
+			boolean end = scriptReader.read() == -1;
+			if (end) scriptReader.close();
+			return end;
+		}
+		catch (IOException e)
+		{
+			return false;
+		}
+	}
+
+	/**
+	 * Stop comparing and buffer the body from the part of the SQL script matched so far
+	 */
+	private void bufferScript()
+	{
+		body = new StringBuilder(matched);
+		char[] buffer = new char[8192];
+
+		try
+		{
+			scriptReader.close();
+
+			Reader reader = new InputStreamReader(new FileInputStream(script), scriptCharset);
+			try
+			{
+				while (body.length() < matched)
+				{
+					int numRead = reader.read(buffer, 0, Math.min(buffer.length, matched - body.length()));
+					if (numRead == -1) throw new IOException("the file has been shortened");
+					body.append(buffer, 0, numRead);
+				}
+			}
+			finally
+			{
+				reader.close();
+			}
+		}
+		catch (IOException e)
+		{
+			throw new IllegalStateException("Could not read back the beginning of " + script.getName() + ": " + e.getMessage(), e);
+		}
+	}
+
+}
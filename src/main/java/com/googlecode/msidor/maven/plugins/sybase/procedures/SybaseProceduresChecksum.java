@@ -0,0 +1,199 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.	
+ */
+package com.googlecode.msidor.maven.plugins.sybase.procedures;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * @author Maciej SIDOR
+ *
+ * Incremental MD5 checksum and digest of a text given in several chunks.
+ * 
+ * <p>
+ * The checksum is the same as the one computed by {@link SybaseProceduresGeneratorMojo#createChecksum(java.io.Reader)} 
+ * over the whole text read from a <code>StringReader</code>: the text is digested by blocks of 1024 characters. 
+ * Like createChecksum, it leaves the second half of each block out, so it only tells whether a SQL script 
+ * written by a previous generation has to be written again.
+ * </p>
+ * 
+ * <p>
+ * The digest is the MD5 of the UTF-8 bytes of the whole text. It identifies a body wherever a changed body 
+ * must never be taken for the previous one (parse cache, incremental extraction state).
+ * </p>
+ */
+public class SybaseProceduresChecksum
+{
+	/**
+	 * Size of the blocks digested
+	 */
+	private static final int BLOCK_SIZE = 1024;
+
+	/**
+	 * UTF-8 encoding of the text digested
+	 */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * The checksum compatible with createChecksum
+	 */
+	private MessageDigest checksum;
+
+	/**
+	 * The digest of the whole text
+	 */
+	private MessageDigest digest;
+
+	/**
+	 * High surrogate ending the last block, digested with the next block so that the pair is encoded as one character
+	 */
+	private char pendingSurrogate = 0;
+
+	/**
+	 * Hexadecimal representations of the checksum and of the digest once the text is ended
+	 */
+	private String checksumResult = null;
+	private String digestResult = null;
+
+	/**
+	 * The block being filled
+	 */
+	private char[] block = new char[BLOCK_SIZE];
+
+	/**
+	 * Number of characters in the block
+	 */
+	private int blockLength = 0;
+
+	/**
+	 * Create the checksum of an empty text
+	 */
+	public SybaseProceduresChecksum()
+	{
+		try
+		{
+			checksum = MessageDigest.getInstance("MD5");
+			digest = MessageDigest.getInstance("MD5");
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new IllegalStateException("MD5 is not available", e);
+		}
+	}
+
+	/**
+	 * Add the next chunk of the text
+	 * 
+	 * @param chunk
+	 *            the chunk
+	 */
+	public void update(CharSequence chunk)
+	{
+		int length = chunk.length();
+		for (int i = 0; i < length; i++)
+		{
+			block[blockLength++] = chunk.charAt(i);
+			if (blockLength == BLOCK_SIZE) digestBlock();
+		}
+	}
+
+	/**
+	 * End the text
+	 * 
+	 * @return hexadecimal representation of the checksum compatible with createChecksum
+	 */
+	public String getChecksum()
+	{
+		finish();
+		return checksumResult;
+	}
+
+	/**
+	 * End the text
+	 * 
+	 * @return hexadecimal representation of the digest of the whole text
+	 */
+	public String getDigest()
+	{
+		finish();
+		return digestResult;
+	}
+
+	/**
+	 * Compute the digest of a whole text
+	 * 
+	 * @param text
+	 *            the text
+	 * @return hexadecimal representation of the digest
+	 */
+	public static String digest(CharSequence text)
+	{
+		SybaseProceduresChecksum checksum = new SybaseProceduresChecksum();
+		checksum.update(text);
+		return checksum.getDigest();
+	}
+
+	/**
+	 * Digest the last block and compute the results, once
+	 */
+	private void finish()
+	{
+		if (checksumResult != null) return;
+
+		if (blockLength > 0) digestBlock();
+		if (pendingSurrogate != 0) digest.update(String.valueOf(pendingSurrogate).getBytes(UTF8));
+
+		checksumResult = toHex(checksum.digest());
+		digestResult = toHex(digest.digest());
+	}
+
+	/**
+	 * Digest the block as createChecksum does and as UTF-8 bytes
+	 */
+	private void digestBlock()
+	{
+		checksum.update(SybaseProceduresGeneratorMojo.stringToBytesUTFCustom(block), 0, blockLength);
+
+		StringBuilder text = new StringBuilder(blockLength + 1);
+		if (pendingSurrogate != 0) text.append(pendingSurrogate);
+		text.append(block, 0, blockLength);
+
+		// a pair split by the end of the block is encoded with the next block
+		pendingSurrogate = 0;
+		if (Character.isHighSurrogate(text.charAt(text.length() - 1)))
+		{
+			pendingSurrogate = text.charAt(text.length() - 1);
+			text.setLength(text.length() - 1);
+		}
+
+		digest.update(text.toString().getBytes(UTF8));
+		blockLength = 0;
+	}
+
+	/**
+	 * Hexadecimal representation of a digest
+	 */
+	private static String toHex(byte[] bytes)
+	{
+		StringBuilder result = new StringBuilder();
+		for (byte b : bytes)
+			result.append(Integer.toString((b & 0xff) + 0x100, 16).substring(1));
+
+		return result.toString();
+	}
+
+}
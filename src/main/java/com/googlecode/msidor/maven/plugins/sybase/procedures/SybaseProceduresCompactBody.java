@@ -0,0 +1,193 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.	
+ */
+package com.googlecode.msidor.maven.plugins.sybase.procedures;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * @author Maciej SIDOR
+ *
+ * Procedure body kept on the heap as UTF-8 bytes, optionally deflated.
+ * 
+ * <p>
+ * Most of the procedures text is ASCII so the UTF-8 form takes half the size of a <code>String</code>, 
+ * the deflated form even less. The body is decompressed lazily while it is read from the stream 
+ * and the UTF-8 bytes can be written as they are to the SQL scripts.
+ * </p>
+ */
+public class SybaseProceduresCompactBody
+{
+	/**
+	 * The encoding of the bytes
+	 */
+	public static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * The bytes, deflated if compressed
+	 */
+	private byte[] data;
+
+	/**
+	 * True if the bytes are deflated
+	 */
+	private boolean compressed = false;
+
+	/**
+	 * Number of characters of the body
+	 */
+	private int length;
+
+	/**
+	 * Encode the body
+	 * 
+	 * @param body
+	 *            the body
+	 * @param compress
+	 *            true if the UTF-8 bytes should be deflated. The bytes are kept as they are if the deflated form is not smaller.
+	 */
+	public SybaseProceduresCompactBody(String body, boolean compress)
+	{
+		length = body.length();
+		data = body.getBytes(UTF8);
+
+		if (compress)
+		{
+			ByteArrayOutputStream deflated = new ByteArrayOutputStream(data.length / 3 + 16);
+			Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+			try
+			{
+				DeflaterOutputStream out = new DeflaterOutputStream(deflated, deflater);
+				out.write(data);
+				out.close();
+			}
+			catch (IOException e)
+			{
+				// not thrown by in-memory streams
+				throw new IllegalStateException(e);
+			}
+			finally
+			{
+				deflater.end();
+			}
+
+			if (deflated.size() < data.length)
+			{
+				data = deflated.toByteArray();
+				compressed = true;
+			}
+		}
+	}
+
+	/**
+	 * @return stream of the UTF-8 bytes of the body, inflated while read if compressed
+	 */
+	public InputStream openStream()
+	{
+		InputStream in = new ByteArrayInputStream(data);
+		return compressed ? new InflaterInputStream(in) : in;
+	}
+
+	/**
+	 * @return reader of the body
+	 */
+	public Reader openReader()
+	{
+		return new InputStreamReader(openStream(), UTF8);
+	}
+
+	/**
+	 * Write the UTF-8 bytes of the body
+	 * 
+	 * @param out
+	 *            the stream to write to
+	 * @throws IOException
+	 *             if the bytes could not be written
+	 */
+	public void writeTo(OutputStream out) throws IOException
+	{
+		if (!compressed)
+		{
+			out.write(data);
+			return;
+		}
+
+		InputStream in = openStream();
+		try
+		{
+			byte[] buffer = new byte[8192];
+			int numRead;
+			while ((numRead = in.read(buffer)) != -1)
+				out.write(buffer, 0, numRead);
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	/**
+	 * @return the body
+	 */
+	public String decode()
+	{
+		if (!compressed) return new String(data, UTF8);
+
+		StringBuilder body = new StringBuilder(length);
+		Reader reader = openReader();
+		try
+		{
+			char[] buffer = new char[8192];
+			int numRead;
+			while ((numRead = reader.read(buffer)) != -1)
+				body.append(buffer, 0, numRead);
+			reader.close();
+		}
+		catch (IOException e)
+		{
+			// not thrown by in-memory streams
+			throw new IllegalStateException(e);
+		}
+
+		return body.toString();
+	}
+
+	/**
+	 * @return number of characters of the body
+	 */
+	public int getLength()
+	{
+		return length;
+	}
+
+	/**
+	 * @return number of bytes kept on the heap
+	 */
+	public int getSize()
+	{
+		return data.length;
+	}
+
+}
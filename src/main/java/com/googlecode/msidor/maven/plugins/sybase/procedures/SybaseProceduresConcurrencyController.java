@@ -0,0 +1,234 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.	
+ */
+package com.googlecode.msidor.maven.plugins.sybase.procedures;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * @author Maciej SIDOR
+ *
+ * Controller of the number of queries running at once on SYBASE server.
+ * 
+ * <p>
+ * The concurrency limit follows additive increase and multiplicative decrease: once as many queries as the limit 
+ * have completed within the latency target, the limit is raised by one, and as soon as a query started under the 
+ * current limit is slower than the target (or fails), the limit is halved. The limit always stays within the 
+ * configured bounds. Independently, the queries can be spaced so that no more than the configured number of queries 
+ * per second are started.
+ * </p>
+ */
+public class SybaseProceduresConcurrencyController
+{
+	/**
+	 * Lower bound of the concurrency limit
+	 */
+	private int minConcurrency;
+
+	/**
+	 * Upper bound of the concurrency limit
+	 */
+	private int maxConcurrency;
+
+	/**
+	 * Query latency in milliseconds above which the server is considered overloaded, 0 to keep the limit fixed
+	 */
+	private long latencyTarget;
+
+	/**
+	 * Interval in nanoseconds between two query starts, 0 if not capped
+	 */
+	private long startInterval = 0;
+
+	/**
+	 * MOJO logger
+	 */
+	private Log log;
+
+	/**
+	 * Current concurrency limit
+	 */
+	private int limit;
+
+	/**
+	 * Number of queries running
+	 */
+	private int inFlight = 0;
+
+	/**
+	 * Number of queries completed within the latency target since the last change of the limit
+	 */
+	private int completions = 0;
+
+	/**
+	 * Time of the last change of the limit
+	 */
+	private long lastChange = System.currentTimeMillis();
+
+	/**
+	 * Earliest start time in nanoseconds of the next query
+	 */
+	private long nextStart = 0;
+
+	/**
+	 * Lowest and highest limit reached, number of changes of the limit and of queries delayed by the rate cap
+	 */
+	private int lowestLimit;
+	private int highestLimit;
+	private int changes = 0;
+	private int delayedQueries = 0;
+
+	/**
+	 * @param minConcurrency
+	 *            lower bound of the concurrency limit, also the initial limit
+	 * @param maxConcurrency
+	 *            upper bound of the concurrency limit
+	 * @param latencyTarget
+	 *            query latency in milliseconds above which the limit is decreased, 0 to keep the limit fixed to
+	 *            maxConcurrency
+	 * @param maxQueriesPerSecond
+	 *            maximum number of queries started per second, 0 if not capped
+	 * @param log
+	 *            MOJO logger
+	 */
+	public SybaseProceduresConcurrencyController(int minConcurrency, int maxConcurrency, long latencyTarget, int maxQueriesPerSecond, Log log)
+	{
+		this.minConcurrency = Math.max(1, minConcurrency);
+		this.maxConcurrency = Math.max(this.minConcurrency, maxConcurrency);
+		this.latencyTarget = Math.max(0, latencyTarget);
+		this.log = log;
+
+		if (maxQueriesPerSecond > 0) startInterval = 1000000000L / maxQueriesPerSecond;
+
+		limit = this.latencyTarget > 0 ? this.minConcurrency : this.maxConcurrency;
+		lowestLimit = limit;
+		highestLimit = limit;
+	}
+
+	/**
+	 * Wait until the query can be started: the number of queries running is below the limit and the rate cap allows it
+	 * 
+	 * @return the start time of the query in milliseconds, to be given back to release
+	 * @throws InterruptedException
+	 *             if the thread has been interrupted while waiting
+	 */
+	public long acquire() throws InterruptedException
+	{
+		long delay = 0;
+
+		synchronized (this)
+		{
+			while (inFlight >= limit)
+				wait();
+
+			inFlight++;
+
+			// reserve the next start slot of the rate cap
+			if (startInterval > 0)
+			{
+				long now = System.nanoTime();
+				long start = nextStart == 0 ? now : Math.max(now, nextStart);
+				nextStart = start + startInterval;
+				delay = start - now;
+				if (delay > 0) delayedQueries++;
+			}
+		}
+
+		// wait for the slot without blocking the others
+		if (delay > 0)
+		{
+			try
+			{
+				Thread.sleep(delay / 1000000L, (int) (delay % 1000000L));
+			}
+			catch (InterruptedException e)
+			{
+				// the query never ran, give the slot back without adapting the limit
+				synchronized (this)
+				{
+					inFlight--;
+					notifyAll();
+				}
+				throw e;
+			}
+		}
+
+		return System.currentTimeMillis();
+	}
+
+	/**
+	 * Give the query slot back and adapt the limit to the query latency
+	 * 
+	 * @param start
+	 *            start time of the query returned by acquire
+	 * @param failed
+	 *            true if the query failed
+	 */
+	public synchronized void release(long start, boolean failed)
+	{
+		inFlight--;
+
+		if (latencyTarget > 0)
+		{
+			long latency = System.currentTimeMillis() - start;
+
+			if (failed || latency > latencyTarget)
+			{
+				// only the queries started under the current limit are
+				// relevant, the others have been accounted already
+				if (start >= lastChange) changeLimit(Math.max(minConcurrency, limit / 2), latency);
+			}
+			else if (++completions >= limit)
+			{
+				changeLimit(Math.min(maxConcurrency, limit + 1), latency);
+			}
+		}
+
+		notifyAll();
+	}
+
+	/**
+	 * Change the limit and log the change
+	 * 
+	 * @param newLimit
+	 *            the new limit
+	 * @param latency
+	 *            latency of the query causing the change
+	 */
+	private void changeLimit(int newLimit, long latency)
+	{
+		completions = 0;
+		lastChange = System.currentTimeMillis();
+
+		if (newLimit == limit) return;
+
+		log.info("Query concurrency " + (newLimit > limit ? "raised" : "lowered") + " from " + limit + " to " + newLimit + " (latency " + latency + " ms)");
+
+		limit = newLimit;
+		lowestLimit = Math.min(lowestLimit, limit);
+		highestLimit = Math.max(highestLimit, limit);
+		changes++;
+	}
+
+	/**
+	 * @return the summary of the concurrency changes over the run
+	 */
+	public synchronized String getSummary()
+	{
+		return "Query concurrency ranged from " + lowestLimit + " to " + highestLimit + " and ended at " + limit + " after " + changes + " change(s), " 
+				+ delayedQueries + " queries delayed by the rate cap";
+	}
+
+}
@@ -0,0 +1,96 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.	
+ */
+package com.googlecode.msidor.maven.plugins.sybase.procedures;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author Maciej SIDOR
+ *
+ * Usage statistics of one database: queries executed, time the connections were busy with them
+ * and connections dedicated to the database.
+ */
+public class SybaseProceduresDatabaseUsage
+{
+	/**
+	 * Number of queries executed
+	 */
+	private AtomicInteger queries = new AtomicInteger();
+
+	/**
+	 * Time in milliseconds between the execution and the release of the statements
+	 */
+	private AtomicLong busyTime = new AtomicLong();
+
+	/**
+	 * Number of connections opened in the context of the database
+	 */
+	private AtomicInteger connections = new AtomicInteger();
+
+	/**
+	 * Record a query released
+	 * 
+	 * @param time
+	 *            time in milliseconds the connection was busy with the query
+	 */
+	public void recordQuery(long time)
+	{
+		queries.incrementAndGet();
+		busyTime.addAndGet(time);
+	}
+
+	/**
+	 * Record a connection opened in the context of the database
+	 */
+	public void recordConnection()
+	{
+		connections.incrementAndGet();
+	}
+
+	/**
+	 * Record a connection of the database that could not be opened or has been closed
+	 */
+	public void releaseConnection()
+	{
+		connections.decrementAndGet();
+	}
+
+	/**
+	 * @return number of queries executed
+	 */
+	public int getQueries()
+	{
+		return queries.get();
+	}
+
+	/**
+	 * @return time in milliseconds the connections were busy with the queries
+	 */
+	public long getBusyTime()
+	{
+		return busyTime.get();
+	}
+
+	/**
+	 * @return number of connections dedicated to the database
+	 */
+	public int getConnections()
+	{
+		return connections.get();
+	}
+
+}
@@ -0,0 +1,300 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.	
+ */
+package com.googlecode.msidor.maven.plugins.sybase.procedures;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * @author Maciej SIDOR
+ *
+ * Factory of the engine retrieving the stored procedures and of the fetchers wrapping it
+ */
+public class SybaseProceduresFetcherFactory
+{
+	/**
+	 * DAO used to query SYBASE
+	 */
+	private SybaseProceduresMojoDAOI dao = null;
+
+	/**
+	 * MOJO logger
+	 */
+	private Log log = null;
+
+	/**
+	 * Procedures created during the generation, shared by all the fetchers
+	 */
+	private SybaseProceduresRegistry registry = null;
+
+	/**
+	 * Engine retrieving the procedures: helptext, batch, catalog or temptable
+	 */
+	private String extractionEngine = null;
+
+	/**
+	 * Number of procedures retrieved by a query of the batch engine
+	 */
+	private int extractionBatchSize = 50;
+
+	/**
+	 * Cache of the calls of the bodies parsed previously, null if not used
+	 */
+	private SybaseProceduresParseCache parseCache = null;
+
+	/**
+	 * True if the bodies are parsed by a separate stage and not while they are read
+	 */
+	private boolean deferredParsing = false;
+
+	/**
+	 * The character set of the SQL files
+	 */
+	private Charset scriptCharset = Charset.defaultCharset();
+
+	/**
+	 * Directory of the SQL files
+	 */
+	private String outputDir = null;
+
+	/**
+	 * Directory of the SQL files the bodies are compared with as they are read, null if not compared
+	 */
+	private String scriptDirectory = null;
+
+	/**
+	 * Character set of SYBASE, null if the procedures are not compared with the SQL files on the server
+	 */
+	private String sybaseCharset = null;
+
+	/**
+	 * State file of the incremental extraction, null if the extraction is not incremental
+	 */
+	private File incrementalStateFile = null;
+
+	/**
+	 * Checkpoint file, null if the generation is not checkpointed
+	 */
+	private File checkpointFile = null;
+
+	/**
+	 * Number of procedures retrieved between two checkpoints
+	 */
+	private int checkpointInterval = 0;
+
+	/**
+	 * Fetcher comparing the procedures with the SQL files on the server, null if not created
+	 */
+	private DigestSybaseProceduresFetcher digestFetcher = null;
+
+	/**
+	 * Fetcher retrieving only the procedures changed since the previous generation, null if not created
+	 */
+	private IncrementalSybaseProceduresFetcher incrementalFetcher = null;
+
+	/**
+	 * Fetcher saving the progress of the generation, null if not created
+	 */
+	private CheckpointSybaseProceduresFetcher checkpointFetcher = null;
+
+	/**
+	 * @param dao DAO used to query SYBASE
+	 * @param log MOJO logger
+	 * @param registry procedures created during the generation, shared by all the fetchers
+	 */
+	public SybaseProceduresFetcherFactory(SybaseProceduresMojoDAOI dao, Log log, SybaseProceduresRegistry registry)
+	{
+		this.dao = dao;
+		this.log = log;
+		this.registry = registry;
+	}
+
+	/**
+	 * @param extractionEngine engine retrieving the procedures: helptext (default), batch, catalog or temptable
+	 * @param extractionBatchSize number of procedures retrieved by a query of the batch engine
+	 */
+	public void setExtractionEngine(String extractionEngine, int extractionBatchSize)
+	{
+		this.extractionEngine = extractionEngine;
+		this.extractionBatchSize = extractionBatchSize;
+	}
+
+	/**
+	 * @param parseCache cache of the calls of the bodies parsed previously
+	 */
+	public void setParseCache(SybaseProceduresParseCache parseCache)
+	{
+		this.parseCache = parseCache;
+	}
+
+	/**
+	 * @param deferredParsing true if the bodies are parsed by a separate stage and not while they are read
+	 */
+	public void setDeferredParsing(boolean deferredParsing)
+	{
+		this.deferredParsing = deferredParsing;
+	}
+
+	/**
+	 * @param scriptCharset the character set the SQL files are written with
+	 */
+	public void setScriptCharset(Charset scriptCharset)
+	{
+		this.scriptCharset = scriptCharset;
+	}
+
+	/**
+	 * @param scriptDirectory directory of the SQL files the bodies are compared with as they are read
+	 */
+	public void setScriptDirectory(String scriptDirectory)
+	{
+		this.scriptDirectory = scriptDirectory;
+	}
+
+	/**
+	 * Compare the procedures with the SQL files on the server
+	 * 
+	 * @param outputDir directory of the SQL files
+	 * @param sybaseCharset character set of SYBASE
+	 */
+	public void setServerSideChangeDetection(String outputDir, String sybaseCharset)
+	{
+		this.outputDir = outputDir;
+		this.sybaseCharset = sybaseCharset;
+	}
+
+	/**
+	 * Retrieve only the procedures changed since the previous generation
+	 * 
+	 * @param outputDir directory of the SQL files
+	 * @param incrementalStateFile state file of the incremental extraction
+	 */
+	public void setIncrementalExtraction(String outputDir, File incrementalStateFile)
+	{
+		this.outputDir = outputDir;
+		this.incrementalStateFile = incrementalStateFile;
+	}
+
+	/**
+	 * Save the progress of the generation
+	 * 
+	 * @param checkpointFile checkpoint file
+	 * @param checkpointInterval number of procedures retrieved between two checkpoints
+	 */
+	public void setCheckpointing(File checkpointFile, int checkpointInterval)
+	{
+		this.checkpointFile = checkpointFile;
+		this.checkpointInterval = checkpointInterval;
+	}
+
+	/**
+	 * Create the engine and wrap it with the fetchers configured
+	 * 
+	 * @return the outermost fetcher
+	 * @throws IllegalArgumentException
+	 *             if the extraction engine is unknown
+	 * @throws IOException
+	 *             if the state file of the incremental extraction could not be read
+	 */
+	public SybaseProceduresFetcherI createFetcher() throws IOException
+	{
+		SybaseProceduresFetcherI fetcher = createEngine();
+		fetcher.setParseCache(parseCache);
+		fetcher.setDeferredParsing(deferredParsing);
+		fetcher.setScriptDirectory(scriptDirectory);
+		configure(fetcher);
+
+		if (sybaseCharset != null)
+		{
+			digestFetcher = new DigestSybaseProceduresFetcher(dao, log, fetcher, outputDir, sybaseCharset);
+			configure(digestFetcher);
+			fetcher = digestFetcher;
+		}
+
+		if (incrementalStateFile != null)
+		{
+			incrementalFetcher = new IncrementalSybaseProceduresFetcher(dao, log, fetcher, outputDir, incrementalStateFile);
+			configure(incrementalFetcher);
+			fetcher = incrementalFetcher;
+		}
+
+		if (checkpointFile != null)
+		{
+			checkpointFetcher = new CheckpointSybaseProceduresFetcher(dao, log, fetcher, checkpointFile, checkpointInterval);
+			configure(checkpointFetcher);
+			fetcher = checkpointFetcher;
+		}
+
+		return fetcher;
+	}
+
+	/**
+	 * @return the fetcher comparing the procedures with the SQL files on the server, null if not created
+	 */
+	public DigestSybaseProceduresFetcher getDigestFetcher()
+	{
+		return digestFetcher;
+	}
+
+	/**
+	 * @return the fetcher retrieving only the changed procedures, null if not created
+	 */
+	public IncrementalSybaseProceduresFetcher getIncrementalFetcher()
+	{
+		return incrementalFetcher;
+	}
+
+	/**
+	 * @return the fetcher saving the progress of the generation, null if not created
+	 */
+	public CheckpointSybaseProceduresFetcher getCheckpointFetcher()
+	{
+		return checkpointFetcher;
+	}
+
+	/**
+	 * @return new engine retrieving the procedures
+	 */
+	private SybaseProceduresFetcherI createEngine()
+	{
+		if ("catalog".equalsIgnoreCase(extractionEngine))
+			return new CatalogSybaseProceduresFetcher(dao, log);
+		else if ("temptable".equalsIgnoreCase(extractionEngine))
+			return new TempTableSybaseProceduresFetcher(dao, log);
+		else if ("batch".equalsIgnoreCase(extractionEngine))
+			return new BatchHelpTextSybaseProceduresFetcher(dao, log, extractionBatchSize);
+		else if (extractionEngine == null || "helptext".equalsIgnoreCase(extractionEngine))
+			return new HelpTextSybaseProceduresFetcher(dao, log);
+		else
+			throw new IllegalArgumentException("Unknown extraction engine " + extractionEngine);
+	}
+
+	/**
+	 * Share the registry and the character set of the SQL files with the fetcher
+	 * 
+	 * @param fetcher
+	 *            fetcher to configure
+	 */
+	private void configure(SybaseProceduresFetcherI fetcher)
+	{
+		fetcher.setRegistry(registry);
+		fetcher.setScriptCharset(scriptCharset);
+	}
+
+}
@@ -0,0 +1,87 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.	
+ */
+package com.googlecode.msidor.maven.plugins.sybase.procedures;
+
+import java.nio.charset.Charset;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author Maciej SIDOR
+ *
+ * Interface of the engines retrieving stored procedures from SYBASE through the DAO
+ */
+public interface SybaseProceduresFetcherI
+{
+
+	/**
+	 * Retrieve procedure basic info and its body. Sub-procedure calls are not checked.
+	 * 
+	 * @param procedureName
+	 *            name of procedure to retrieve
+	 * @param dbName
+	 *            name of database of the procedure
+	 * @return Procedure object with its body or null if the procedure does not exist
+	 * @throws SQLException
+	 *             if error occurred during procedure retrieval
+	 */
+	public abstract SybaseProcedure fetchProcedure(String procedureName, String dbName) throws SQLException;
+
+	/**
+	 * Retrieve basic info and body of several procedures at once. Sub-procedure calls are not checked.
+	 * 
+	 * @param procedures
+	 *            database and procedure name pairs of the procedures to retrieve
+	 * @return Procedure objects keyed by database and procedure name joined with ".." as requested. 
+	 *            Procedures that do not exist are mapped to null.
+	 * @throws SQLException
+	 *             if error occurred during procedures retrieval
+	 */
+	public abstract Map<String, SybaseProcedure> fetchProcedures(List<String[]> procedures) throws SQLException;
+
+	/**
+	 * @param registry
+	 *            procedures created during the generation, shared by all the fetchers of the generation
+	 */
+	public abstract void setRegistry(SybaseProceduresRegistry registry);
+
+	/**
+	 * @param parseCache
+	 *            cache of the calls of the bodies parsed previously, null if the bodies are always parsed
+	 */
+	public abstract void setParseCache(SybaseProceduresParseCache parseCache);
+
+	/**
+	 * @param deferredParsing
+	 *            true if the bodies are parsed by a separate stage and not while they are read
+	 */
+	public abstract void setDeferredParsing(boolean deferredParsing);
+
+	/**
+	 * @param scriptCharset
+	 *            the character set the SQL files are written with
+	 */
+	public abstract void setScriptCharset(Charset scriptCharset);
+
+	/**
+	 * @param scriptDirectory
+	 *            directory of the SQL files of the previous generation the bodies are compared with as they are read, 
+	 *            so that the unchanged bodies are not kept on the heap
+	 */
+	public abstract void setScriptDirectory(String scriptDirectory);
+
+}
@@ -15,22 +15,45 @@ limitations under the License.
  */
 package com.googlecode.msidor.maven.plugins.sybase.procedures;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.StringReader;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.Charset;
 import java.security.MessageDigest;
-import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -177,10 +200,479 @@ public class SybaseProceduresGeneratorMojo extends AbstractMojo
 	 */
 	private boolean deleteUnusedSQLFiles = true;
 	
+	/**
+	 * Number of SYBASE connections opened for retrieving the procedures.
+	 * 
+	 * @parameter
+	 */
+	private int sybaseConnectionPoolSize = 1;
+	
+	/**
+	 * Maximum number of SYBASE connections opened on demand in the context
+	 * of each database. If greater than 0, the queries on behalf of a database
+	 * are routed to the connections of this database instead of the shared
+	 * pool (see <i>sybaseConnectionPoolSize</i>) and the procedures split
+	 * among the extraction threads are grouped by database.
+	 * 
+	 * @parameter
+	 */
+	private int sybaseConnectionsPerDatabase = 0;
+	
+	/**
+	 * The remote servers called with four-part names
+	 * ("server.database.owner.procedure") keyed by server name, with their
+	 * connection strings as values. The remote servers are connected with the
+	 * same credentials as the local one. The remote procedures are output and
+	 * reported with their database qualified by the server name
+	 * ("server.database..procedure") and can be configured the same way.
+	 * The calls to servers not configured here are ignored.
+	 * Each batch of procedures of a remote server is retrieved as part of the
+	 * level of the breadth-first traversal it belongs to, so a level waits for
+	 * its slowest server before the next level is requested.
+	 * 
+	 * @parameter
+	 */
+	private Map<String, String> remoteServers = null;
+	
+	/**
+	 * Number of connections opened to each remote server keyed by server
+	 * name (1 if not set).
+	 * 
+	 * @parameter
+	 */
+	private Map<String, String> remoteServerPoolSizes = null;
+	
+	/**
+	 * If true, the number of queries running at once on SYBASE is adapted to
+	 * their latency between <i>minQueryConcurrency</i> and
+	 * <i>maxQueryConcurrency</i>: raised by one while the queries complete
+	 * within <i>queryLatencyTarget</i>, halved as soon as they don't. The
+	 * changes are logged.
+	 * 
+	 * @parameter
+	 */
+	private boolean adaptiveConcurrency = false;
+	
+	/**
+	 * Lower bound (and initial value) of the adaptive query concurrency.
+	 * 
+	 * @parameter
+	 */
+	private int minQueryConcurrency = 1;
+	
+	/**
+	 * Upper bound of the adaptive query concurrency. There is no use setting
+	 * it above the number of connections available.
+	 * 
+	 * @parameter
+	 */
+	private int maxQueryConcurrency = 4;
+	
+	/**
+	 * Query latency in milliseconds above which the adaptive query
+	 * concurrency is lowered.
+	 * 
+	 * @parameter
+	 */
+	private int queryLatencyTarget = 1000;
+	
+	/**
+	 * Maximum number of queries started per second on SYBASE, 0 (default) if
+	 * not capped.
+	 * 
+	 * @parameter
+	 */
+	private int maxQueriesPerSecond = 0;
+	
+	/**
+	 * If true, the procedures retrieved, their calls and the missing
+	 * procedures are saved periodically to the checkpoint file (see
+	 * <i>checkpointFile</i>) so that an interrupted generation resumes where
+	 * it stopped. The checkpoint is discarded if the configuration or the
+	 * server has changed and deleted once all procedures are retrieved.
+	 * 
+	 * @parameter
+	 */
+	private boolean checkpointing = false;
+	
+	/**
+	 * The checkpoint file under "outputDir" directory.
+	 * 
+	 * @parameter
+	 */
+	private String checkpointFile = "sybase-proc-checkpoint.properties";
+	
+	/**
+	 * Minimum time in seconds between two checkpoints.
+	 * 
+	 * @parameter
+	 */
+	private int checkpointInterval = 60;
+	
+	/**
+	 * Number of threads retrieving the procedures concurrently. If greater
+	 * than 1, the procedures of each call graph level are split among the
+	 * threads and fetched in parallel over the connection pool (see
+	 * <i>sybaseConnectionPoolSize</i>).
+	 * 
+	 * @parameter
+	 */
+	private int extractionThreads = 1;
+	
+	/**
+	 * If true, the retrieval is split into two stages running at once: the
+	 * extraction threads (see <i>extractionThreads</i>) only fetch the bodies
+	 * while a separate pool of parse threads (see <i>parseThreads</i>) looks
+	 * for the sub-procedure calls in the bodies fetched. The procedures newly
+	 * found are handed back to the extraction threads as soon as the body
+	 * calling them is parsed, so that the connections and the processors are
+	 * kept busy together. Only used when the calls are found by body scanning
+	 * (see <i>dependencySource</i>).
+	 * 
+	 * @parameter
+	 */
+	private boolean pipelinedParsing = false;
+	
+	/**
+	 * Number of threads parsing the bodies when parsing is pipelined (see
+	 * <i>pipelinedParsing</i>). 0 (default) means one thread per available
+	 * processor.
+	 * 
+	 * @parameter
+	 */
+	private int parseThreads = 0;
+	
+	/**
+	 * The engine retrieving procedures from SYBASE:
+	 * <ul>
+	 * <li><i>helptext</i> (default) - each procedure is retrieved with
+	 * "sp_help" and "sp_helptext"</li>
+	 * <li><i>catalog</i> - all procedures of a database are retrieved at once
+	 * by one query on "sysobjects" and "syscomments" (requires read access to
+	 * the system tables)</li>
+	 * <li><i>batch</i> - procedures are retrieved with "sp_help" and
+	 * "sp_helptext" sending many procedures in one SQL batch (see
+	 * <i>extractionBatchSize</i>)</li>
+	 * <li><i>temptable</i> - the names requested in a database are inserted
+	 * at once into a temp table joined with "sysobjects" and "syscomments",
+	 * all missing procedures are reported at once (requires read access to
+	 * the system tables and the right to create temp tables)</li>
+	 * </ul>
+	 * 
+	 * @parameter
+	 */
+	private String extractionEngine = "helptext";
+	
+	/**
+	 * Maximum number of procedures sent in one SQL batch by the <i>batch</i>
+	 * extraction engine.
+	 * 
+	 * @parameter
+	 */
+	private int extractionBatchSize = 200;
+	
+	/**
+	 * The source of sub-procedure calls:
+	 * <ul>
+	 * <li><i>body</i> (default) - calls are found by scanning each procedure
+	 * body</li>
+	 * <li><i>sysdepends</i> - calls are read from "sysdepends" catalog of each
+	 * database at once so that all procedures needed are known before any body
+	 * is retrieved and can be retrieved in bulk</li>
+	 * </ul>
+	 * 
+	 * @parameter
+	 */
+	private String dependencySource = "body";
+	
+	/**
+	 * If true, the <i>sysdepends</i> dependency source is completed by body
+	 * scanning so that dynamic and cross-database calls missing from
+	 * "sysdepends" are found too.
+	 * 
+	 * @parameter
+	 */
+	private boolean dependencyFallbackToBodyScan = true;
+	
+	/**
+	 * If true, only the procedures that have been recompiled, added or
+	 * dropped since the previous generation are retrieved from SYBASE. The
+	 * unchanged procedures are rebuilt from the state file (see
+	 * <i>incrementalStateFile</i>) and their SQL files. Requires read access
+	 * to "sysobjects".
+	 * 
+	 * @parameter
+	 */
+	private boolean incrementalExtraction = false;
+	
+	/**
+	 * The state file of incremental extraction under "outputDir" directory.
+	 * 
+	 * @parameter
+	 */
+	private String incrementalStateFile = "sybase-proc-state.properties";
+	
+	/**
+	 * If true, SYBASE computes the digest of each procedure text with
+	 * "hashbytes" and the procedure body is transferred only if the digest
+	 * differs from the existing SQL file. Requires read access to
+	 * "sysobjects" and "syscomments" and ASE 15.0.2 or later.
+	 * 
+	 * @parameter
+	 */
+	private boolean serverSideChangeDetection = false;
+	
+	/**
+	 * The character set of the procedure text stored by SYBASE. The SQL files
+	 * are encoded with this character set before being compared with the
+	 * server digests (see <i>serverSideChangeDetection</i>).
+	 * 
+	 * @parameter
+	 */
+	private String sybaseCharset = "ISO-8859-1";
+	
+	/**
+	 * The character set the SQL files are written with and read back with
+	 * (see <i>incrementalExtraction</i> and
+	 * <i>serverSideChangeDetection</i>). The platform default if not set.
+	 * 
+	 * @parameter
+	 */
+	private String scriptEncoding = null;
+	
+	/**
+	 * True (default) if the server compares the database and procedure names
+	 * with case, as with the default binary sort order of SYBASE. Set to false
+	 * for servers with a case insensitive sort order so that the calls of a
+	 * procedure written with another case resolve to the same procedure.
+	 * 
+	 * @parameter
+	 */
+	private boolean caseSensitiveNames = true;
+	
+	/**
+	 * If true, the procedures found missing are persisted in the negative
+	 * cache file (see <i>negativeCacheFile</i>) so that the next generations
+	 * don't query them again until the entry expires.
+	 * 
+	 * @parameter
+	 */
+	private boolean persistentNegativeCache = false;
+	
+	/**
+	 * The negative cache file under "outputDir" directory.
+	 * 
+	 * @parameter
+	 */
+	private String negativeCacheFile = "sybase-proc-missing.properties";
+	
+	/**
+	 * Validity in hours of the entries of the persistent negative cache.
+	 * 
+	 * @parameter
+	 */
+	private int negativeCacheExpiration = 24;
+	
+	/**
+	 * If true, the sub-procedure calls and table references found in each procedure body are
+	 * persisted in the parse cache file (see <i>parseCacheFile</i>) keyed by
+	 * the MD5 digest of the whole body, so that the bodies that have not changed since
+	 * a previous generation are not parsed again.
+	 * 
+	 * @parameter
+	 */
+	private boolean persistentParseCache = false;
+	
+	/**
+	 * The parse cache file under "outputDir" directory.
+	 * 
+	 * @parameter
+	 */
+	private String parseCacheFile = "sybase-proc-calls.cache";
+	
+	/**
+	 * Number of days the entries of the parse cache are kept when their body
+	 * is not met anymore.
+	 * 
+	 * @parameter
+	 */
+	private int parseCacheExpiration = 30;
+	
+	/**
+	 * Size in megabytes of the procedure bodies kept on the heap once their
+	 * calls are known. Past this budget, the bodies are written to a
+	 * memory-mapped spill file in the temporary directory and read back only
+	 * to write their SQL scripts. 0 (default) keeps all the bodies on the
+	 * heap.
+	 * 
+	 * @parameter
+	 */
+	private int bodyHeapBudget = 0;
+	
+	/**
+	 * The form of the procedure bodies kept on the heap once their calls are
+	 * known:
+	 * <ul>
+	 * <li><i>string</i> (default) - the text as retrieved</li>
+	 * <li><i>utf8</i> - UTF-8 bytes, about half the size of the text for
+	 * ASCII bodies</li>
+	 * <li><i>deflate</i> - deflated UTF-8 bytes, inflated only to write the
+	 * SQL scripts</li>
+	 * </ul>
+	 * 
+	 * @parameter
+	 */
+	private String bodyStorage = "string";
+	
+	/**
+	 * True if the tables read and written by the procedures should be
+	 * detected and listed in the HTML report. The tables are found in the
+	 * same pass over the bodies as the sub-procedure calls, temporary tables
+	 * and table variables are ignored. False by default.
+	 * 
+	 * @parameter
+	 */
+	private boolean tableLineage = false;
+	
+	/**
+	 * The order the call graph is traversed in during procedures retrieval:
+	 * <ul>
+	 * <li><i>breadth-first</i> (default) - all procedures of a nested level
+	 * are retrieved at once before the next level</li>
+	 * <li><i>depth-first</i> - the sub-procedures are retrieved before the
+	 * next sibling, the procedures pending are retrieved at once</li>
+	 * <li><i>priority</i> - the pending procedures are retrieved by database
+	 * and procedure name</li>
+	 * </ul>
+	 * The HTML report and the SQL scripts are always generated depth-first.
+	 * 
+	 * @parameter
+	 */
+	private String traversalOrder = "breadth-first";
+	
 	/**
 	 * Default DAO instance
 	 */
 	private SybaseProceduresMojoDAOI dao = new DefaultSybaseProceduresMojoDAO();
+	
+	/**
+	 * Priority of the procedures retrieval: by database and procedure name
+	 */
+	private static final Comparator<String[]> PROCEDURE_NAME_ORDER = new Comparator<String[]>()
+	{
+		@Override
+		public int compare( String[] o1, String[] o2 )
+		{
+			int result = o1[0].compareToIgnoreCase( o2[0] );
+			return result != 0 ? result : o1[1].compareToIgnoreCase( o2[1] );
+		}
+	};
+	
+	/**
+	 * The engine retrieving procedures through the DAO
+	 */
+	private SybaseProceduresFetcherI fetcher = null;
+	
+	/**
+	 * The engine rebuilding unchanged procedures from the state file (only if
+	 * incremental extraction is enabled)
+	 */
+	private IncrementalSybaseProceduresFetcher incrementalFetcher = null;
+	
+	/**
+	 * The engine comparing the server digests with the SQL files (only if
+	 * server side change detection is enabled)
+	 */
+	private DigestSybaseProceduresFetcher digestFetcher = null;
+	
+	/**
+	 * The engine saving and resuming the checkpoints (only if checkpointing
+	 * is enabled)
+	 */
+	private CheckpointSybaseProceduresFetcher checkpointFetcher = null;
+	
+	/**
+	 * Visit order of the call graph during procedures retrieval
+	 */
+	private SybaseProceduresTraversal.Order extractionOrder = SybaseProceduresTraversal.Order.BREADTH_FIRST;
+	
+	/**
+	 * Number of procedure retrievals avoided because the procedure had been requested already
+	 */
+	private AtomicLong fetchesAvoided = new AtomicLong();
+	
+	/**
+	 * Controller of the queries running at once, null if neither adaptive nor
+	 * capped
+	 */
+	private SybaseProceduresConcurrencyController concurrencyController = null;
+	
+	/**
+	 * Procedures known to be missing
+	 */
+	private SybaseProceduresNegativeCache negativeCache = null;
+	
+	/**
+	 * Calls of the bodies parsed by previous generations, null if not
+	 * persisted
+	 */
+	private SybaseProceduresParseCache parseCache = null;
+	
+	/**
+	 * Store of the bodies out of the heap, null if all the bodies are kept on
+	 * the heap
+	 */
+	private SybaseProceduresSpillStore spillStore = null;
+	
+	/**
+	 * True if the bodies are kept as bytes, deflated if compressBodies is true
+	 * (see <i>bodyStorage</i>)
+	 */
+	private boolean compactBodies = false;
+	private boolean compressBodies = false;
+	
+	/**
+	 * The character set of the SQL files (see <i>scriptEncoding</i>)
+	 */
+	private Charset scriptCharset = Charset.defaultCharset();
+	
+	/**
+	 * Number of characters of the bodies compacted and number of bytes they
+	 * take on the heap
+	 */
+	private AtomicLong compactedChars = new AtomicLong();
+	private AtomicLong compactedBytes = new AtomicLong();
+	
+	/**
+	 * Threads retrieving the procedures (only if more than one extraction
+	 * thread is configured)
+	 */
+	private ExecutorService fetchExecutor = null;
+	
+	/**
+	 * Procedures created during this execution
+	 */
+	private SybaseProceduresRegistry registry = null;
+	
+	/**
+	 * Call graph of the procedures retrieved
+	 */
+	private SybaseProceduresGraph graph = new SybaseProceduresGraph();
+	
+	/**
+	 * Time spent fetching the procedures
+	 */
+	private SybaseProceduresStageTime fetchStage = new SybaseProceduresStageTime();
+	
+	/**
+	 * Time spent looking for the calls in the bodies
+	 */
+	private SybaseProceduresStageTime parseStage = new SybaseProceduresStageTime();
+	
+	/**
+	 * Number of procedures parsed by one task of the parse stage at most
+	 */
+	private static final int PARSE_TASK_SIZE = 4;
 
 	/**
 	 * The implementation of "generate-sql" goal method.
@@ -295,26 +787,195 @@ public class SybaseProceduresGeneratorMojo extends AbstractMojo
 	            }
 	        }
 
-        /********************************************************************
-         * Connecting to SYBASE
-         ********************************************************************/        
-        
-        try
-        {        	
-            getLog().info( "Connecting to SYBASE..." );
-            dao.connectToSybase(syabseDriverVersion, syabseUser, sybasePassword, connectionString);
-
-        }
-        catch(ClassNotFoundException cnfe)
+        //route the queries on behalf of remote databases to their servers
+        if ( remoteServers != null && !remoteServers.isEmpty() )
         {
-        	throw new MojoExecutionException( "Could not instanciate sybase driver. Check if your driver is set correctly for this plugin and if you are using the correct driver version", cnfe );
-        }
-        catch ( Exception e )
-        {
-            throw new MojoExecutionException( "Could not establish a SYBASE connection", e );
-        }
-
-        /********************************************************************
+            Map<String, Integer> poolSizes = new HashMap<String, Integer>();
+            if ( remoteServerPoolSizes != null )
+            {
+                for ( Map.Entry<String, String> poolSize : remoteServerPoolSizes.entrySet() )
+                {
+                    try
+                    {
+                        poolSizes.put( poolSize.getKey(), Integer.valueOf( poolSize.getValue().trim() ) );
+                    }
+                    catch ( NumberFormatException e )
+                    {
+                        throw new MojoExecutionException( "Pool size of server " + poolSize.getKey() + " configured incorrectly" );
+                    }
+                }
+            }
+            
+            //the remote servers are accessed with the same kind of DAO as the local one
+            final Class<? extends SybaseProceduresMojoDAOI> daoClass = dao.getClass();
+            SybaseProceduresMojoDAOFactoryI daoFactory = new SybaseProceduresMojoDAOFactoryI()
+            {
+                @Override
+                public SybaseProceduresMojoDAOI createDAO( String server ) throws Exception
+                {
+                    try
+                    {
+                        return daoClass.getDeclaredConstructor().newInstance();
+                    }
+                    catch ( InvocationTargetException e )
+                    {
+                        throw new Exception( "Could not create the DAO of server " + server, e.getCause() );
+                    }
+                    catch ( ReflectiveOperationException e )
+                    {
+                        throw new Exception( "Could not create the DAO of server " + server + ", " + daoClass.getName() + " has no accessible constructor without arguments", e );
+                    }
+                }
+            };
+            
+            getLog().info( "Remote servers: " + remoteServers.keySet() );
+            dao = new MultiServerSybaseProceduresMojoDAO( dao, remoteServers, poolSizes, daoFactory );
+        }
+        
+        //pass the queries through the concurrency controller if required
+        if ( adaptiveConcurrency || maxQueriesPerSecond > 0 )
+        {
+            if ( adaptiveConcurrency )
+                concurrencyController = new SybaseProceduresConcurrencyController( minQueryConcurrency, maxQueryConcurrency, queryLatencyTarget, maxQueriesPerSecond, getLog() );
+            else
+                concurrencyController = new SybaseProceduresConcurrencyController( Integer.MAX_VALUE, Integer.MAX_VALUE, 0, maxQueriesPerSecond, getLog() );
+            
+            dao = new ThrottledSybaseProceduresMojoDAO( dao, concurrencyController );
+        }
+
+        //all the engines of this execution share the procedures created and their names
+        registry = new SybaseProceduresRegistry( new SybaseProceduresNameTable( caseSensitiveNames ) );
+        registry.makeCurrent();
+        SybaseProceduresFetcherFactory fetcherFactory = new SybaseProceduresFetcherFactory( dao, getLog(), registry );
+        fetcherFactory.setExtractionEngine( extractionEngine, extractionBatchSize );
+        
+        //the unchanged bodies are left in their SQL files instead of the heap
+        fetcherFactory.setScriptDirectory( outputDir );
+        
+        if ( scriptEncoding != null )
+        {
+            try
+            {
+                scriptCharset = Charset.forName( scriptEncoding );
+            }
+            catch ( IllegalArgumentException e )
+            {
+                throw new MojoExecutionException( "Unknown script encoding " + scriptEncoding, e );
+            }
+        }
+        fetcherFactory.setScriptCharset( scriptCharset );
+        
+        if ( persistentParseCache )
+        {
+            try
+            {
+                parseCache = new SybaseProceduresParseCache( new File( outputDirFile, parseCacheFile ), parseCacheExpiration );
+            }
+            catch ( IOException e )
+            {
+                throw new MojoExecutionException( "Could not read the parse cache file", e );
+            }
+            
+            if ( parseCache.isOutdated() )
+                getLog().info( "Parse cache written by another parser version, all the bodies will be parsed again" );
+            
+            fetcherFactory.setParseCache( parseCache );
+        }
+        
+        //the bodies are parsed by the parse stage, not by the extraction threads
+        fetcherFactory.setDeferredParsing( pipelinedParsing );
+        
+        if ( "deflate".equalsIgnoreCase( bodyStorage ) )
+        {
+            compactBodies = true;
+            compressBodies = true;
+        }
+        else if ( "utf8".equalsIgnoreCase( bodyStorage ) )
+            compactBodies = true;
+        else if ( bodyStorage != null && !"string".equalsIgnoreCase( bodyStorage ) )
+            throw new MojoExecutionException( "Unknown body storage " + bodyStorage );
+        
+        if ( "depth-first".equalsIgnoreCase( traversalOrder ) )
+            extractionOrder = SybaseProceduresTraversal.Order.DEPTH_FIRST;
+        else if ( "priority".equalsIgnoreCase( traversalOrder ) )
+            extractionOrder = SybaseProceduresTraversal.Order.PRIORITY;
+        else if ( traversalOrder == null || "breadth-first".equalsIgnoreCase( traversalOrder ) )
+            extractionOrder = SybaseProceduresTraversal.Order.BREADTH_FIRST;
+        else
+            throw new MojoExecutionException( "Unknown traversal order " + traversalOrder );
+        
+        if ( serverSideChangeDetection )
+            fetcherFactory.setServerSideChangeDetection( outputDir, sybaseCharset );
+        
+        if ( incrementalExtraction )
+            fetcherFactory.setIncrementalExtraction( outputDir, new File( outputDirFile, incrementalStateFile ) );
+        
+        if ( checkpointing )
+            fetcherFactory.setCheckpointing( new File( outputDirFile, checkpointFile ), checkpointInterval );
+        
+        try
+        {
+            fetcher = fetcherFactory.createFetcher();
+        }
+        catch ( IllegalArgumentException e )
+        {
+            throw new MojoExecutionException( e.getMessage(), e );
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Could not read the incremental extraction state file", e );
+        }
+        
+        digestFetcher = fetcherFactory.getDigestFetcher();
+        incrementalFetcher = fetcherFactory.getIncrementalFetcher();
+        checkpointFetcher = fetcherFactory.getCheckpointFetcher();
+
+        try
+        {
+            if ( persistentNegativeCache )
+                negativeCache = new SybaseProceduresNegativeCache( new File( outputDirFile, negativeCacheFile ), negativeCacheExpiration );
+            else
+                negativeCache = new SybaseProceduresNegativeCache();
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Could not read the negative cache file", e );
+        }
+
+        if ( bodyHeapBudget > 0 )
+        {
+            try
+            {
+                File spillFile = File.createTempFile( "sybase-proc-bodies", ".spill" );
+                spillFile.deleteOnExit();
+                spillStore = new SybaseProceduresSpillStore( spillFile, bodyHeapBudget * 1024L * 1024L );
+            }
+            catch ( IOException e )
+            {
+                throw new MojoExecutionException( "Could not create the body spill file", e );
+            }
+        }
+
+        /********************************************************************
+         * Connecting to SYBASE
+         ********************************************************************/        
+        
+        try
+        {        	
+            getLog().info( "Connecting to SYBASE..." );
+            dao.connectToSybase(syabseDriverVersion, syabseUser, sybasePassword, connectionString, sybaseConnectionPoolSize, sybaseConnectionsPerDatabase);
+
+        }
+        catch(ClassNotFoundException cnfe)
+        {
+        	throw new MojoExecutionException( "Could not instanciate sybase driver. Check if your driver is set correctly for this plugin and if you are using the correct driver version", cnfe );
+        }
+        catch ( Exception e )
+        {
+            throw new MojoExecutionException( "Could not establish a SYBASE connection", e );
+        }
+
+        /********************************************************************
          * Check the procedures
          ********************************************************************/      
         //this collection stores all procedures that have been configured and have been successfully retrieved from SYABSE
@@ -323,7 +984,8 @@ public class SybaseProceduresGeneratorMojo extends AbstractMojo
         {
             getLog().info( "Checking procedures..." );
 
-            //go through all configured procedures
+            //split all configured procedures by database and procedure name
+            List<String[]> proceduresToFetch = new ArrayList<String[]>();
             for ( String procedureToCheck : proceduresToCheck )
             {
                 //split procedure configuration by database and procedure name
@@ -336,26 +998,102 @@ public class SybaseProceduresGeneratorMojo extends AbstractMojo
                     String procName = procedureToCheck.substring( index + 2 );
                     String dbName = procedureToCheck.substring( 0, index );
 
-                    //check the procedure
-                    SybaseProcedure proc = checkProcedure( procName, dbName );
-
-                    //add to top level procedures if the procedure was found
-                    if ( proc != null )
-                        topLevelProcedures.add( proc );
-
+                    proceduresToFetch.add( new String[] { dbName, procName } );
                 }
                 else
                     throw new MojoExecutionException( "Procedure " + procedureToCheck + " configured incorrectly" );
 
             }
 
+            //resume the checkpoint of the interrupted generation if any
+            if ( checkpointFetcher != null )
+                checkpointFetcher.resume( getConfigurationFingerprint() );
+
+            if ( extractionThreads > 1 )
+            {
+                getLog().info( "Retrieving procedures with " + extractionThreads + " threads over " + sybaseConnectionPoolSize + " connection(s)" );
+                fetchExecutor = Executors.newFixedThreadPool( extractionThreads );
+            }
+
+            if ( "sysdepends".equalsIgnoreCase( dependencySource ) )
+            {
+                //resolve the calls from the catalog and retrieve the procedures in bulk
+                topLevelProcedures.addAll( checkProceduresWithSysdepends( proceduresToFetch ) );
+            }
+            else if ( pipelinedParsing )
+            {
+                //fetch and parse the procedures in separate stages running at once
+                topLevelProcedures.addAll( checkProceduresPipelined( proceduresToFetch ) );
+            }
+            else
+            {
+                //check all the procedures level by level
+                topLevelProcedures.addAll( checkProcedures( proceduresToFetch ) );
+            }
+
+            //all the procedures have been retrieved
+            if ( checkpointFetcher != null )
+                checkpointFetcher.discard();
+
+            if ( digestFetcher != null )
+                getLog().info( digestFetcher.getUnchangedCount() + " procedures have the same text as their SQL files" );
+            
+            getLog().info( fetchesAvoided.get() + " procedure retrievals avoided by the procedures requested already" );
+            
+            getLog().info( negativeCache.getMissingCount() + " missing procedures, " + negativeCache.getSavedLookups() + " lookups saved by the negative cache" );
+            
+            getLog().info( graph.getProcedureCount() + " procedures linked by " + graph.getEdgeCount() + " distinct calls (" + graph.getCallCount() + " calls in the bodies)" );
+            
+            if ( tableLineage )
+                getLog().info( graph.getTableCount() + " tables referenced by " + graph.getTableEdgeCount() + " distinct table accesses" );
+            
+            if ( spillStore != null )
+                getLog().info( spillStore.getSpilledCount() + " procedure bodies spilled (" + spillStore.getSpilledBytes() / 1024 + " KB), " 
+                                + spillStore.getHeapBytes() / 1024 + " KB kept on the heap" );
+            
+            if ( compactBodies )
+                getLog().info( "Procedure bodies of " + compactedChars.get() / 1024 + " K characters kept in " + compactedBytes.get() / 1024 + " KB" );
+            
+            getLog().info( "Fetch stage: " + fetchStage.getProcedures() + " procedures in " + fetchStage.getTasks() + " tasks, " + fetchStage.getBusyTime() + " ms busy" );
+            getLog().info( "Parse stage: " + parseStage.getProcedures() + " procedures in " + parseStage.getTasks() + " tasks, " + parseStage.getBusyTime() + " ms busy" );
+            
+            if ( parseCache != null )
+                getLog().info( parseCache.getHits() + " procedure bodies found in the parse cache, " + parseCache.getMisses() + " parsed" );
+            
+            if ( concurrencyController != null )
+                getLog().info( concurrencyController.getSummary() );
+            
+            //report how the work was spread across the databases
+            Map<String, SybaseProceduresDatabaseUsage> databaseUsage = new TreeMap<String, SybaseProceduresDatabaseUsage>( dao.getDatabaseUsage() );
+            for ( Map.Entry<String, SybaseProceduresDatabaseUsage> usage : databaseUsage.entrySet() )
+            {
+                getLog().info( "Database " + usage.getKey() + ": " + usage.getValue().getQueries() + " queries, " + usage.getValue().getBusyTime() + " ms busy, " 
+                                + usage.getValue().getConnections() + " dedicated connection(s)" );
+            }
+
         }
         catch ( Exception e )
         {
+            //keep what has been retrieved so far for the next generation
+            if ( checkpointFetcher != null )
+            {
+                try
+                {
+                    checkpointFetcher.save();
+                }
+                catch ( IOException ioe )
+                {
+                    getLog().warn( "Could not write the checkpoint: " + ioe.getMessage() );
+                }
+            }
+            
             throw new MojoExecutionException( "Error occurced while checking the procedure details", e );
         }
         finally
         {
+            if ( fetchExecutor != null )
+                fetchExecutor.shutdownNow();
+            
             //try to gently disconnect from SYBASE
             
             try
@@ -390,12 +1128,14 @@ public class SybaseProceduresGeneratorMojo extends AbstractMojo
                 builder.append( "<th>Name</th>");   
                 builder.append( "<th>Database</th>");   
                 builder.append( "<th>Compiled</th>");   
+                if ( tableLineage )
+                    builder.append( "<th>Tables</th>");   
                 builder.append( "</tr>");   
                 
                 //this set keep all procedures names being reported 
                 //so that a sub-procedure is reported only once per top  
                 //level procedure thus avoiding endless looping 
-                HashSet<String> proceduresReported = new HashSet<String>();
+                HashSet<Object> proceduresReported = new HashSet<Object>();
                 
                 //go through all top level procedures            
                 for ( SybaseProcedure procedure : topLevelProcedures )
@@ -403,8 +1143,8 @@ public class SybaseProceduresGeneratorMojo extends AbstractMojo
                     //clear the list of reported procedures for each top level procedure
                     proceduresReported.clear();    
                     
-                    //generate HTML table for top level procedure and all sub-procedures recursively
-                    generateHtml( 0, procedure, proceduresReported, builder );
+                    //generate HTML table for top level procedure and all sub-procedures
+                    generateHtml( procedure, proceduresReported, builder );
                 }
                 builder.append("</table>");
                 
@@ -428,7 +1168,7 @@ public class SybaseProceduresGeneratorMojo extends AbstractMojo
         //this set keeps names of all stored procedure printed/verified so one procedure is printed only once
         //if the SQL file for procedure exists already and hasn't been modified, the files is not overridden.
         //However... 1) the name of the procedure is put on the list 2) all sub-procedures are still being checked recursively
-        HashSet<String> proceduresPrinted = new HashSet<String>();
+        HashSet<Object> proceduresPrinted = new HashSet<Object>();
         try
         {
             getLog().info( "Writing SQL scripts..." );
@@ -436,7 +1176,7 @@ public class SybaseProceduresGeneratorMojo extends AbstractMojo
             //output all the SQL scripts for identified stored procedures
             for ( SybaseProcedure procedure : topLevelProcedures )
             { 
-                //output top level procedure and its all sub procedures recursively unless the procedure has been printed already 
+                //output top level procedure and its all sub procedures unless the procedure has been printed already 
                 writeScript( procedure, proceduresPrinted );
             }
 
@@ -475,7 +1215,8 @@ public class SybaseProceduresGeneratorMojo extends AbstractMojo
                 for ( File fileToCheck : listOfFilesInOutputDir )
                 {
                     //check if file has been printed/verified during the generation 
-                    if(!proceduresPrinted.contains( fileToCheck.getName().toLowerCase() ))
+                    Long scriptKey = findScriptKey( fileToCheck.getName() );
+                    if( scriptKey == null || !proceduresPrinted.contains( scriptKey ))
                     {
                         getLog().debug( "Deleting file "+fileToCheck.getName() );
                         
@@ -491,6 +1232,52 @@ public class SybaseProceduresGeneratorMojo extends AbstractMojo
             }        
         }
 
+        //the bodies are not needed anymore
+        if ( spillStore != null )
+            spillStore.close();
+
+        /********************************************************************
+         * Saving the negative cache
+         ********************************************************************/        
+        try
+        {
+            negativeCache.save();
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Error occurced while writing the negative cache file", e );
+        }
+
+        /********************************************************************
+         * Saving the parse cache
+         ********************************************************************/        
+        if ( parseCache != null )
+        {
+            try
+            {
+                parseCache.save();
+            }
+            catch ( IOException e )
+            {
+                throw new MojoExecutionException( "Error occurced while writing the parse cache file", e );
+            }
+        }
+
+        /********************************************************************
+         * Saving the incremental extraction state
+         ********************************************************************/        
+        if ( incrementalFetcher != null )
+        {
+            try
+            {
+                incrementalFetcher.saveState();
+            }
+            catch ( IOException e )
+            {
+                throw new MojoExecutionException( "Error occurced while writing the incremental extraction state file", e );
+            }
+        }
+
 
     }
 
@@ -504,16 +1291,14 @@ public class SybaseProceduresGeneratorMojo extends AbstractMojo
 	 * <li>Compilation date</li>
 	 * </ol>
 	 * 
-	 * The method is called recursively for all sub-procedures of the main
-	 * procedure.
+	 * The rows are generated for all sub-procedures of the main procedure.
 	 * 
 	 * The "proceduresPrinted" collection contains names of all procedures being
 	 * printed. - if a procedure is already on the list, it is neither printed
 	 * nor checked. - if not, the HTML table row is printed, procedure name is
-	 * added to the list and all its sub-procedures are checked
+	 * added to the list and all its sub-procedures are checked. The call graph
+	 * is traversed depth-first without recursion.
 	 * 
-	 * @param level
-	 *            - the nested level
 	 * @param procedure
 	 *            - the current procedure to check
 	 * @param proceduresPrinted
@@ -524,36 +1309,68 @@ public class SybaseProceduresGeneratorMojo extends AbstractMojo
 	 * @throws Exception
 	 *             - if an error occurred during procedures printing
 	 */
-	private void generateHtml(int level, SybaseProcedure procedure, HashSet<String> proceduresPrinted, StringBuilder sb) throws Exception
+	private void generateHtml(SybaseProcedure procedure, HashSet<Object> proceduresPrinted, final StringBuilder sb) throws Exception
 	{
-
-		// print the procedure only if not yet on the list
-		if (!proceduresPrinted.contains(procedure.getName()))
+		SybaseProceduresTraversal<SybaseProcedure> traversal = new SybaseProceduresTraversal<SybaseProcedure>(SybaseProceduresTraversal.Order.DEPTH_FIRST, new SybaseProceduresVisitorI<SybaseProcedure>()
 		{
-			// add procedure to "already printed"
-			proceduresPrinted.add(procedure.getName());
-
-			// print the row
-			sb.append("<tr>");
-			sb.append("<td>" + level + "</td>");
-			sb.append("<td>" + procedure.getName() + "</td>");
-			sb.append("<td>" + procedure.getDbName() + "</td>");
-			sb.append("<td>" + procedure.getCreationDate() + "</td>");
-			sb.append("</tr>");
+			@Override
+			public Object getKey(SybaseProcedure node)
+			{
+				return Integer.valueOf(node.getNameId());
+			}
 
-			// check all sub procedures recursively
-			for (SybaseProcedure subProcedure : procedure.getProcedures())
+			@Override
+			public List<SybaseProcedure> visit(SybaseProcedure node, int level, SybaseProceduresTraversal<SybaseProcedure> traversal)
 			{
-				generateHtml(level + 1, subProcedure, proceduresPrinted, sb);
+				// print the row
+				sb.append("<tr>");
+				sb.append("<td>" + level + "</td>");
+				sb.append("<td>" + node.getName() + "</td>");
+				sb.append("<td>" + node.getDbName() + "</td>");
+				sb.append("<td>" + node.getCreationDate() + "</td>");
+				if (tableLineage) appendTables(node, sb);
+				sb.append("</tr>");
+
+				// check all sub procedures
+				return node.getProcedures();
 			}
+		});
+
+		traversal.traverse(Collections.singletonList(procedure), proceduresPrinted);
+	}
+
+	/**
+	 * Print the HTML table cell listing the tables referenced by the procedure
+	 * with their kind of access.
+	 * 
+	 * @param procedure
+	 *            - the procedure
+	 * @param sb
+	 *            - output string buffer
+	 */
+	private void appendTables(SybaseProcedure procedure, StringBuilder sb)
+	{
+		sb.append("<td>");
+
+		List<String> tables = procedure.getTables();
+		for (int i = 0; i < tables.size(); i++)
+		{
+			int access = procedure.getTableAccess(i);
 
+			if (i > 0) sb.append("<br/>");
+			sb.append(tables.get(i));
+			if (access == (SybaseProceduresGraph.READ | SybaseProceduresGraph.WRITE)) sb.append(" (read, write)");
+			else if (access == SybaseProceduresGraph.WRITE) sb.append(" (write)");
+			else sb.append(" (read)");
 		}
 
+		sb.append("</td>");
 	}
 
 	/**
 	 * Write SQL script for procedure and all its sub-procedures (unless the
-	 * procedure is on the proceduresPrinted list).
+	 * procedure is on the proceduresPrinted list). The call graph is traversed
+	 * depth-first without recursion.
 	 * 
 	 * @param procedure
 	 *            - procedure to print
@@ -563,209 +1380,1069 @@ public class SybaseProceduresGeneratorMojo extends AbstractMojo
 	 * @throws Exception
 	 *             - if an error occurred during SQL script writing
 	 */
-	private void writeScript(SybaseProcedure procedure, HashSet<String> proceduresPrinted) throws Exception
+	private void writeScript(SybaseProcedure procedure, HashSet<Object> proceduresPrinted) throws Exception
+	{
+		SybaseProceduresTraversal<SybaseProcedure> traversal = new SybaseProceduresTraversal<SybaseProcedure>(SybaseProceduresTraversal.Order.DEPTH_FIRST, new SybaseProceduresVisitorI<SybaseProcedure>()
+		{
+			@Override
+			public Object getKey(SybaseProcedure node)
+			{
+				return Long.valueOf(getScriptKey(node));
+			}
+
+			@Override
+			public List<SybaseProcedure> visit(SybaseProcedure node, int level, SybaseProceduresTraversal<SybaseProcedure> traversal) throws Exception
+			{
+				writeScriptFile(node);
+
+				// even if procedure was not modified (thus not printed) check
+				// all sub-procedures anyway.
+				return node.getProcedures();
+			}
+		});
+
+		traversal.traverse(Collections.singletonList(procedure), proceduresPrinted);
+	}
+
+	/**
+	 * Get the key of the output SQL script of the procedure. The procedures
+	 * which script names only differ by case have the same key, as their
+	 * scripts are the same file on case insensitive file systems.
+	 * 
+	 * @param procedure
+	 *            - the procedure
+	 * @return the key of the SQL script file
+	 */
+	private long getScriptKey(SybaseProcedure procedure)
+	{
+		SybaseProceduresNameTable names = registry.getNames();
+		return SybaseProceduresNameTable.getKey(names.getLowerCaseId(procedure.getDbNameId()), names.getLowerCaseId(procedure.getNameId()));
+	}
+
+	/**
+	 * Get the key of an SQL script file of the output directory
+	 * 
+	 * @param fileName
+	 *            - name of the file
+	 * @return the key of the SQL script file or null if the file is not the
+	 *         script of a procedure met during the generation
+	 */
+	private Long findScriptKey(String fileName)
+	{
+		String scriptName = fileName.toLowerCase();
+		int separator = scriptName.indexOf("..");
+		if (separator < 0 || !scriptName.endsWith(".sql")) return null;
+
+		SybaseProceduresNameTable names = registry.getNames();
+		int dbNameId = names.findId(scriptName.substring(0, separator));
+		int nameId = names.findId(scriptName.substring(separator + 2, scriptName.length() - 4));
+		if (dbNameId < 0 || nameId < 0) return null;
+
+		return Long.valueOf(SybaseProceduresNameTable.getKey(dbNameId, nameId));
+	}
+
+	/**
+	 * Get the output SQL script of the procedure
+	 * 
+	 * @param procedure
+	 *            - the procedure
+	 * @return the SQL script file
+	 */
+	private File getScriptFile(SybaseProcedure procedure)
 	{
+		return new File(outputDir + procedure.getDbName() + ".." + procedure.getName() + ".sql");
+	}
 
+	/**
+	 * Write SQL script for procedure unless the file exists already with the
+	 * same content
+	 * 
+	 * @param procedure
+	 *            - procedure to print
+	 * @throws Exception
+	 *             - if an error occurred during SQL script writing
+	 */
+	private void writeScriptFile(SybaseProcedure procedure) throws Exception
+	{
 		// get the file to the output SQL script
-		File file = new File(outputDir + procedure.getDbName() + ".." + procedure.getName() + ".sql");
+		File file = getScriptFile(procedure);
 
-		// check if file was already printed
-		if (!proceduresPrinted.contains(file.getName().toLowerCase()))
-		{
+		// determine if file should be written
+		boolean canWrite = true;
 
-			// add the file to the list in order to avoid re-printing of the
-			// same procedure
-			proceduresPrinted.add(file.getName().toLowerCase());
+		// the body read from the file has the same text
+		if (procedure.isScriptUpToDate() && file.exists())
+			canWrite = false;
+		// check if file exists and if procedure body has changed
+		else if (file.exists())
+		{
+			// get MD5 checksum of SYBASE procedure body unless computed
+			// already while the body was read
+			String procSum = procedure.getChecksum();
+			if (procSum == null) procSum = createChecksum(new StringReader(procedure.getBody()));
 
-			// determine if file should be written
-			boolean canWrite = true;
+			// read file content and get MD5 checksum
+			Reader fileReader = new InputStreamReader(new FileInputStream(file), scriptCharset);
+			String fileSum = createChecksum(fileReader);
 
-			// check if file exists and if procedure body has changed
-			if (file.exists())
-			{
-				// get MD5 checksum of SYBASE procedure body
-				StringReader reader = new StringReader(procedure.getBody());
-				String procSum = createChecksum(reader);
+			// check if contents are different
+			if (procSum != null && procSum.equals(fileSum)) canWrite = false;
+		}
 
-				// read file content and get MD5 checksum
-				FileReader fileReader = new FileReader(file);
-				String fileSum = createChecksum(fileReader);
+		// if procedure can be written print it out to the SQL file
+		if (canWrite)
+		{
+			getLog().info("Writing file " + file.getName());
 
-				// check if contents are different
-				if (procSum != null && procSum.equals(fileSum)) canWrite = false;
+			SybaseProceduresCompactBody compactBody = procedure.getCompactBody();
+			if (compactBody != null && SybaseProceduresCompactBody.UTF8.equals(scriptCharset))
+			{
+				// the bytes kept are written as they are
+				OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+				compactBody.writeTo(out);
+				out.flush();
+				out.close();
 			}
-
-			// if procedure can be written print it out to the SQL file
-			if (canWrite)
+			else if (compactBody != null)
 			{
-				getLog().info("Writing file " + file.getName());
-				BufferedWriter writer = new BufferedWriter(new FileWriter(file));
-				writer.write(procedure.getBody());
+				// the bytes kept are decoded while written
+				BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), scriptCharset));
+				Reader reader = compactBody.openReader();
+				char[] buffer = new char[8192];
+				int numRead;
+				while ((numRead = reader.read(buffer)) != -1)
+					writer.write(buffer, 0, numRead);
+				reader.close();
 				writer.flush();
 				writer.close();
 			}
 			else
 			{
-				getLog().debug("Skipping file " + file.getName() + " as it exists already and no changes has been found.");
-			}
-
-			// even if procedure was not modified (thus not printed) check all
-			// sub-procedures recursively anyway.
-			for (SybaseProcedure subProcedure : procedure.getProcedures())
-			{
-				writeScript(subProcedure, proceduresPrinted);
+				BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), scriptCharset));
+				writer.write(procedure.getBody());
+				writer.flush();
+				writer.close();
 			}
-
 		}
-
+		else
+		{
+			getLog().debug("Skipping file " + file.getName() + " as it exists already and no changes has been found.");
+		}
 	}
 
 	/**
-	 * Retrieve procedure basic info and its body from SYBASE. Additionally
-	 * detects all sub-procedure calls with "exec" keyword and parses them
-	 * recursively. Ignores commented calls.
+	 * Retrieve procedures basic info and their bodies from SYBASE.
+	 * Additionally detects all sub-procedure calls with "exec" keyword and
+	 * retrieves them. Ignores commented calls.
 	 * 
-	 * @param connection
-	 *            - SQL connection object
-	 * @param procedureName
-	 *            - name of procedure to parse
-	 * @param dbName
-	 *            procedure - name of database to parse
-	 * @return Parsed procedure object
-	 * @throws SQLException
-	 *             if error occurred during procedure parsing unless error code
-	 *             17461 informing that the procedure does not exist
+	 * The call graph is traversed without recursion in the configured order.
+	 * Whenever a procedure not retrieved yet is reached, all the procedures
+	 * pending are retrieved at once (in batch or in parallel if the engine and
+	 * the configuration allow). Breadth-first, all the procedures newly found
+	 * at one level are retrieved at once so that the number of round trips
+	 * grows with the depth of the call graph instead of the number of
+	 * procedures. Once all procedures are retrieved, they are linked to their
+	 * sub-procedures in order of appearance in the body.
+	 * 
+	 * @param proceduresToFetch
+	 *            - database and procedure name pairs of the top level
+	 *            procedures
+	 * @return top level procedures that have been found, in the same order as
+	 *         given
+	 * @throws Exception
+	 *             if error occurred during procedures retrieval
 	 */
-	private SybaseProcedure checkProcedure(String procedureName, String dbName) throws SQLException
+	private List<SybaseProcedure> checkProcedures(List<String[]> proceduresToFetch) throws Exception
 	{
+		// all procedures retrieved keyed by database and procedure name as
+		// called, missing ones are mapped to null
+		final Map<String, SybaseProcedure> procedures = new HashMap<String, SybaseProcedure>();
 
-		try
-		{
-
-			SybaseProcedure procedure = null;
+		// the calls of each procedure retrieved
+		final Map<SybaseProcedure, List<String[]>> calls = new LinkedHashMap<SybaseProcedure, List<String[]>>();
 
-			// prepare and execute the procedure verification statement
-			Statement statement = dao.executeSybaseQuery("exec " + dbName + "..sp_help " + procedureName);
-
-			// get the result
-			statement.getMoreResults();
-			ResultSet rs = statement.getResultSet();
-			if (rs != null && rs.next())
+		SybaseProceduresTraversal<String[]> traversal = new SybaseProceduresTraversal<String[]>(extractionOrder, PROCEDURE_NAME_ORDER, new SybaseProceduresVisitorI<String[]>()
+		{
+			@Override
+			public String getKey(String[] node)
 			{
-				// get the procedure basic info from SYBASE
-				String name = rs.getString("Name");
-				String creationDate = rs.getString("Create_date");
-
-				// close the result set as no longer needed
-				rs.close();
-				statement.close();
-
-				getLog().debug(dbName + ".." + name + " compiled " + creationDate);
-
-				// create the procedure object
-				procedure = new SybaseProcedure(dbName, name, creationDate);
-
-				// prepare and execute the commend to retrieve procedure body
-				Statement stmt = dao.executeSybaseQuery("exec " + dbName + "..sp_helptext " + procedureName);
+				return node[0] + ".." + node[1];
+			}
 
-				// The procedure body is output in several lines.
-				// Those lines must be stick to each other in one variable
-				StringBuilder b = new StringBuilder();
-				boolean firstResult = true;
-				while (stmt.getMoreResults() || stmt.getUpdateCount() != -1)
+			@Override
+			public List<String[]> visit(String[] node, int level, SybaseProceduresTraversal<String[]> traversal) throws Exception
+			{
+				String key = getKey(node);
+				if (!procedures.containsKey(key))
 				{
-					ResultSet rs2 = stmt.getResultSet();
-					if (rs2 != null)
+					// retrieve the procedure together with all the pending
+					// ones not retrieved yet
+					Map<String, String[]> batch = new LinkedHashMap<String, String[]>();
+					batch.put(key, node);
+					for (String[] pending : traversal.getPendingNodes())
 					{
-						while (rs2.next() && !firstResult)
-						{
-							String ligne = rs2.getString(1);
-							b.append(ligne);
-						}
-						rs2.close();
-
-						firstResult = false;
+						String pendingKey = getKey(pending);
+						if (!procedures.containsKey(pendingKey) && !batch.containsKey(pendingKey)) batch.put(pendingKey, pending);
 					}
+
+					getLog().debug("Retrieving " + batch.size() + " procedures from level " + level);
+					procedures.putAll(fetchProcedures(new ArrayList<String[]>(batch.values())));
 				}
 
-				// close the statement as no longer needed
-				stmt.close();
+				SybaseProcedure procedure = procedures.get(key);
+				if (procedure == null || calls.containsKey(procedure)) return null;
 
-				// update procedure object with procedure body
-				String body = b.toString();
-				procedure.setBody(body);
+				long parseStart = System.nanoTime();
+				List<String[]> procedureCalls = findSubProcedureCalls(procedure);
+				calls.put(procedure, procedureCalls);
+				parseStage.record(1, parseStart);
 
-				// check for sub-procedure calls
-				Pattern MY_PATTERN = Pattern.compile("[Ee][Xx][Ee][Cc]((\\s*@[^=]+=\\s*)|(\\s+))([^\\s]+)");
-				Matcher m = MY_PATTERN.matcher(body);
-				while (m.find())
-				{
-					String subProcCall = m.group(4);
+				return procedureCalls;
+			}
+		});
 
-					// check if procedure call is not commented with line
-					// comments "--"
-					int start = m.start();
-					String codeBefore = body.substring(0, start);
-					int lastLineComment = codeBefore.lastIndexOf("--");
-					int lastLineEnd = codeBefore.lastIndexOf("\n");
+		traversal.traverse(proceduresToFetch, new HashSet<Object>());
+		fetchesAvoided.addAndGet(traversal.getSkippedCount());
 
-					// check if procedure call is not in block comment
-					int lastCommentBegin = codeBefore.lastIndexOf("/*");
-					int lastCommentEnd = codeBefore.lastIndexOf("*/");
+		getLog().debug("At most " + traversal.getMaxPending() + " procedures were pending retrieval at once");
 
-					// check if any comments are applied to the procedure call
-					boolean toIgnore = false;
-					if (lastLineEnd < lastLineComment || lastCommentEnd < lastCommentBegin) toIgnore = true;
+		linkProcedures(calls, procedures);
 
-					// if not commented
-					if (!toIgnore)
-					{
-						// extract the procedure and database name from
-						// sub-procedure call
-						String subProcedureDaatabseName = null;
-						String subProcedureName = null;
-						int firstPointIndex = subProcCall.indexOf('.');
-						if (firstPointIndex > 0)
-						{
-							subProcedureDaatabseName = subProcCall.substring(0, firstPointIndex);
-							subProcedureName = subProcCall.substring(subProcCall.lastIndexOf('.') + 1);
-						}
-						else
+		return getTopLevelProcedures(proceduresToFetch, procedures);
+	}
+
+	/**
+	 * Retrieve procedures basic info and their bodies from SYBASE with
+	 * fetching and parsing running at once.
+	 * 
+	 * The extraction threads fetch the procedures in chunks of one database
+	 * each. Every chunk fetched is handed to the parse pool (a fork/join pool
+	 * sized to the processors unless configured otherwise) which looks for the
+	 * sub-procedure calls in the bodies. The procedures called but not
+	 * requested yet are handed back to the extraction threads right away, so
+	 * the next fetches don't wait for the whole level to be parsed. Once all
+	 * procedures are retrieved, they are linked to their sub-procedures in
+	 * order of appearance in the body.
+	 * 
+	 * @param proceduresToFetch
+	 *            - database and procedure name pairs of the top level
+	 *            procedures
+	 * @return top level procedures that have been found, in the same order as
+	 *         given
+	 * @throws Exception
+	 *             if error occurred during procedures retrieval
+	 */
+	@SuppressWarnings("unchecked")
+	private List<SybaseProcedure> checkProceduresPipelined(List<String[]> proceduresToFetch) throws Exception
+	{
+		// all procedures retrieved keyed by database and procedure name as
+		// called, missing ones are mapped to null
+		Map<String, SybaseProcedure> procedures = new HashMap<String, SybaseProcedure>();
+
+		// the calls of each procedure retrieved
+		Map<SybaseProcedure, List<String[]>> calls = new LinkedHashMap<SybaseProcedure, List<String[]>>();
+
+		// the procedures handed to the parse stage
+		Set<SybaseProcedure> parsed = Collections.newSetFromMap(new IdentityHashMap<SybaseProcedure, Boolean>());
+
+		// the procedures handed to the fetch stage
+		Set<String> requested = new HashSet<String>();
+
+		// the tasks of both stages report to this thread once done
+		BlockingQueue<StageTask<?>> completed = new LinkedBlockingQueue<StageTask<?>>();
+		int pending = 0;
+
+		ExecutorService ioWorkers = fetchExecutor != null ? fetchExecutor : Executors.newSingleThreadExecutor();
+		ForkJoinPool parsePool = new ForkJoinPool(parseThreads > 0 ? parseThreads : Runtime.getRuntime().availableProcessors());
+		getLog().info("Parse stage running on " + parsePool.getParallelism() + " thread(s)");
+
+		try
+		{
+			pending += submitFetches(proceduresToFetch, procedures, requested, ioWorkers, completed);
+
+			while (pending > 0)
+			{
+				StageTask<?> task = completed.take();
+				pending--;
+
+				if (task.getStage() == fetchStage)
+				{
+					// hand the procedures fetched to the parse stage
+					final List<SybaseProcedure> toParse = new ArrayList<SybaseProcedure>();
+					for (Map.Entry<String, SybaseProcedure> fetched : getStageResult((StageTask<Map<String, SybaseProcedure>>) task).entrySet())
+					{
+						procedures.put(fetched.getKey(), fetched.getValue());
+
+						if (fetched.getValue() == null) negativeCache.addMissing(fetched.getKey());
+						else if (parsed.add(fetched.getValue())) toParse.add(fetched.getValue());
+					}
+
+					if (toParse.isEmpty()) continue;
+
+					parsePool.execute(new StageTask<Map<SybaseProcedure, List<String[]>>>(parseStage, completed, new Callable<Map<SybaseProcedure, List<String[]>>>()
+					{
+						@Override
+						public Map<SybaseProcedure, List<String[]>> call() throws Exception
 						{
-							subProcedureDaatabseName = dbName;
-							subProcedureName = subProcCall;
+							return new ParseTask(toParse).invoke();
 						}
+					}));
+					pending++;
+				}
+				else
+				{
+					// hand the procedures newly called to the fetch stage
+					List<String[]> toFetch = new ArrayList<String[]>();
+					for (Map.Entry<SybaseProcedure, List<String[]>> procedureCalls : getStageResult((StageTask<Map<SybaseProcedure, List<String[]>>>) task).entrySet())
+					{
+						calls.put(procedureCalls.getKey(), procedureCalls.getValue());
+						toFetch.addAll(procedureCalls.getValue());
+					}
+
+					pending += submitFetches(toFetch, procedures, requested, ioWorkers, completed);
+				}
+			}
+		}
+		finally
+		{
+			parsePool.shutdownNow();
+			if (ioWorkers != fetchExecutor) ioWorkers.shutdownNow();
+		}
+
+		linkProcedures(calls, procedures);
+
+		return getTopLevelProcedures(proceduresToFetch, procedures);
+	}
+
+	/**
+	 * Hand the procedures not requested yet to the fetch stage. The
+	 * procedures known to be missing are not queried.
+	 * 
+	 * @param toFetch
+	 *            - database and procedure name pairs
+	 * @param procedures
+	 *            - all procedures retrieved so far
+	 * @param requested
+	 *            - keys of the procedures requested so far
+	 * @param ioWorkers
+	 *            - the extraction threads
+	 * @param completed
+	 *            - the queue the tasks report to once done
+	 * @return number of tasks submitted
+	 */
+	private int submitFetches(List<String[]> toFetch, Map<String, SybaseProcedure> procedures, Set<String> requested, ExecutorService ioWorkers, BlockingQueue<StageTask<?>> completed)
+	{
+		List<String[]> proceduresToFetch = new ArrayList<String[]>();
+		for (String[] procedure : toFetch)
+		{
+			String key = procedure[0] + ".." + procedure[1];
+			if (!requested.add(key))
+			{
+				fetchesAvoided.incrementAndGet();
+				continue;
+			}
+
+			if (negativeCache.isMissing(key))
+			{
+				getLog().debug(key + " is known to be missing");
+				procedures.put(key, null);
+			}
+			else proceduresToFetch.add(procedure);
+		}
+
+		if (proceduresToFetch.isEmpty()) return 0;
+
+		List<List<String[]>> chunks = splitIntoChunks(proceduresToFetch);
+		for (final List<String[]> chunk : chunks)
+		{
+			ioWorkers.execute(new StageTask<Map<String, SybaseProcedure>>(fetchStage, completed, new Callable<Map<String, SybaseProcedure>>()
+			{
+				@Override
+				public Map<String, SybaseProcedure> call() throws Exception
+				{
+					long fetchStart = System.nanoTime();
+
+					// every procedure requested is reported in the request
+					// order, missing ones mapped to null
+					Map<String, SybaseProcedure> found = fetcher.fetchProcedures(chunk);
+					Map<String, SybaseProcedure> fetched = new LinkedHashMap<String, SybaseProcedure>();
+					for (String[] procedure : chunk)
+					{
+						String key = procedure[0] + ".." + procedure[1];
+						fetched.put(key, found.get(key));
+					}
+
+					fetchStage.record(chunk.size(), fetchStart);
+					return fetched;
+				}
+			}));
+		}
+
+		return chunks.size();
+	}
+
+	/**
+	 * Get the result of a task of a stage
+	 * 
+	 * @param task
+	 *            - the task done
+	 * @return its result
+	 * @throws Exception
+	 *             the exception thrown by the task
+	 */
+	private <V> V getStageResult(StageTask<V> task) throws Exception
+	{
+		try
+		{
+			return task.get();
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof Exception) throw (Exception) e.getCause();
+			throw e;
+		}
+	}
+
+	/**
+	 * Task of a stage timed and reporting to a queue once done
+	 */
+	private static class StageTask<V> extends FutureTask<V>
+	{
+		private SybaseProceduresStageTime stage;
+		private BlockingQueue<StageTask<?>> completed;
+
+		private StageTask(SybaseProceduresStageTime stage, BlockingQueue<StageTask<?>> completed, Callable<V> callable)
+		{
+			super(callable);
+			this.stage = stage;
+			this.completed = completed;
+		}
+
+		private SybaseProceduresStageTime getStage()
+		{
+			return stage;
+		}
+
+		@Override
+		protected void done()
+		{
+			completed.add(this);
+		}
+	}
+
+	/**
+	 * Task of the parse stage finding the calls of several procedures. The
+	 * procedures are split in halves until few enough to be parsed by one
+	 * task.
+	 */
+	private class ParseTask extends RecursiveTask<Map<SybaseProcedure, List<String[]>>>
+	{
+		private static final long serialVersionUID = 1L;
+
+		private List<SybaseProcedure> procedures;
+
+		private ParseTask(List<SybaseProcedure> procedures)
+		{
+			this.procedures = procedures;
+		}
+
+		@Override
+		protected Map<SybaseProcedure, List<String[]>> compute()
+		{
+			Map<SybaseProcedure, List<String[]>> result = new LinkedHashMap<SybaseProcedure, List<String[]>>();
+
+			if (procedures.size() > PARSE_TASK_SIZE)
+			{
+				int middle = procedures.size() / 2;
+				ParseTask second = new ParseTask(procedures.subList(middle, procedures.size()));
+				second.fork();
+				result.putAll(new ParseTask(procedures.subList(0, middle)).compute());
+				result.putAll(second.join());
+				return result;
+			}
 
-						// check if sub-procedure was parsed already
-						SybaseProcedure subProcedure = SybaseProcedure.getExistingProcedure(subProcedureDaatabseName, subProcedureName);
+			long parseStart = System.nanoTime();
+			try
+			{
+				for (SybaseProcedure procedure : procedures)
+					result.put(procedure, findSubProcedureCalls(procedure));
+			}
+			catch (SQLException e)
+			{
+				throw new IllegalStateException(e.getMessage(), e);
+			}
+			parseStage.record(procedures.size(), parseStart);
 
-						// if not, parse it recursively
-						if (subProcedure == null) subProcedure = checkProcedure(subProcedureName, subProcedureDaatabseName);
+			return result;
+		}
+	}
 
-						// if successfully parsed, or already existing, add it
-						// to the sub-procedures list of current procedure
-						if (subProcedure != null) procedure.getProcedures().add(subProcedure);
+	/**
+	 * Retrieve the procedures at once. If more than one extraction thread is
+	 * configured, the procedures are split among the threads in chunks of one
+	 * database each. The procedures
+	 * known to be missing are not queried.
+	 * 
+	 * @param procedures
+	 *            - database and procedure name pairs
+	 * @return Procedure objects keyed by database and procedure name joined
+	 *         with "..", in the order requested. Procedures that do not exist
+	 *         are mapped to null.
+	 * @throws Exception
+	 *             if error occurred during procedures retrieval
+	 */
+	private Map<String, SybaseProcedure> fetchProcedures(List<String[]> procedures) throws Exception
+	{
+		// every procedure requested is entered first so that the result
+		// keeps the request order whatever order the engine reports in
+		Map<String, SybaseProcedure> fetched = new LinkedHashMap<String, SybaseProcedure>();
+
+		// the procedures known to be missing are not queried
+		List<String[]> proceduresToFetch = new ArrayList<String[]>();
+		for (String[] procedure : procedures)
+		{
+			String key = procedure[0] + ".." + procedure[1];
+			fetched.put(key, null);
+			if (negativeCache.isMissing(key))
+			{
+				getLog().debug(key + " is known to be missing");
+			}
+			else proceduresToFetch.add(procedure);
+		}
+
+		if (proceduresToFetch.isEmpty()) return fetched;
+
+		long fetchStart = System.nanoTime();
+
+		if (fetchExecutor == null || proceduresToFetch.size() < 2)
+		{
+			fetched.putAll(fetcher.fetchProcedures(proceduresToFetch));
+		}
+		else
+		{
+			// split the procedures among the threads
+			List<Future<Map<String, SybaseProcedure>>> chunks = new ArrayList<Future<Map<String, SybaseProcedure>>>();
+			for (final List<String[]> chunk : splitIntoChunks(proceduresToFetch))
+			{
+				chunks.add(fetchExecutor.submit(new Callable<Map<String, SybaseProcedure>>()
+				{
+					@Override
+					public Map<String, SybaseProcedure> call() throws Exception
+					{
+						return fetcher.fetchProcedures(chunk);
 					}
-					else getLog().warn("Commented sub procedure call found \"" + subProcCall + "\" in  " + dbName + ".." + procedureName);
+				}));
+			}
+
+			for (Future<Map<String, SybaseProcedure>> chunk : chunks)
+			{
+				try
+				{
+					fetched.putAll(chunk.get());
 				}
+				catch (ExecutionException e)
+				{
+					if (e.getCause() instanceof Exception) throw (Exception) e.getCause();
+					throw e;
+				}
+			}
+		}
 
+		// make sure that every procedure requested is known even if the
+		// engine didn't report it and remember the missing ones
+		for (String[] procedureToFetch : proceduresToFetch)
+		{
+			String key = procedureToFetch[0] + ".." + procedureToFetch[1];
+			if (fetched.get(key) == null)
+			{
+				fetched.put(key, null);
+				negativeCache.addMissing(key);
 			}
+		}
+
+		fetchStage.record(proceduresToFetch.size(), fetchStart);
 
-			return procedure;
+		return fetched;
+	}
+
+	/**
+	 * Split the procedures among the extraction threads in chunks of one
+	 * database each
+	 * 
+	 * @param procedures
+	 *            - database and procedure name pairs
+	 * @return the chunks
+	 */
+	private List<List<String[]>> splitIntoChunks(List<String[]> procedures)
+	{
+		// group the procedures by database so that each chunk works in one
+		// database only
+		Map<String, List<String[]>> proceduresByDatabase = new LinkedHashMap<String, List<String[]>>();
+		for (String[] procedure : procedures)
+		{
+			List<String[]> databaseProcedures = proceduresByDatabase.get(procedure[0]);
+			if (databaseProcedures == null)
+			{
+				databaseProcedures = new ArrayList<String[]>();
+				proceduresByDatabase.put(procedure[0], databaseProcedures);
+			}
+			databaseProcedures.add(procedure);
 		}
-		catch (SQLException sqlException)
+
+		int chunkSize = (procedures.size() + extractionThreads - 1) / extractionThreads;
+		List<List<String[]>> chunks = new ArrayList<List<String[]>>();
+		for (List<String[]> databaseProcedures : proceduresByDatabase.values())
 		{
-			// ignore SQL exception informing that the procedure does not exist
-			if (17461 == sqlException.getErrorCode()) getLog().warn(dbName + ".." + procedureName + " is missing");
-			else throw sqlException;
+			for (int i = 0; i < databaseProcedures.size(); i += chunkSize)
+				chunks.add(databaseProcedures.subList(i, Math.min(i + chunkSize, databaseProcedures.size())));
 		}
-		finally
+
+		return chunks;
+	}
+
+	/**
+	 * Link each procedure with its sub-procedures in order of calls in the
+	 * call graph. A sub-procedure called several times is linked once with the
+	 * number of its calls.
+	 * 
+	 * @param calls
+	 *            - database and procedure name pairs of the calls of each
+	 *            procedure
+	 * @param procedures
+	 *            - all procedures retrieved keyed by database and procedure
+	 *            name joined with "..", missing ones are mapped to null
+	 */
+	private void linkProcedures(Map<SybaseProcedure, List<String[]>> calls, Map<String, SybaseProcedure> procedures)
+	{
+		for (Map.Entry<SybaseProcedure, List<String[]>> procedureCalls : calls.entrySet())
+		{
+			graph.addProcedure(procedureCalls.getKey());
+
+			for (String[] call : procedureCalls.getValue())
+			{
+				SybaseProcedure subProcedure = procedures.get(call[0] + ".." + call[1]);
+
+				// if successfully retrieved add it to the sub-procedures list
+				// of current procedure
+				if (subProcedure != null) graph.addCall(procedureCalls.getKey(), subProcedure);
+				else negativeCache.recordReference();
+			}
+		}
+
+		graph.trim();
+	}
+
+	/**
+	 * Get the top level procedures that have been found
+	 * 
+	 * @param proceduresToFetch
+	 *            - database and procedure name pairs of the top level
+	 *            procedures
+	 * @param procedures
+	 *            - all procedures retrieved keyed by database and procedure
+	 *            name joined with "..", missing ones are mapped to null
+	 * @return top level procedures in the same order as configured
+	 */
+	private List<SybaseProcedure> getTopLevelProcedures(List<String[]> proceduresToFetch, Map<String, SybaseProcedure> procedures)
+	{
+		List<SybaseProcedure> topLevelProcedures = new ArrayList<SybaseProcedure>();
+		for (String[] procedureToFetch : proceduresToFetch)
+		{
+			SybaseProcedure procedure = procedures.get(procedureToFetch[0] + ".." + procedureToFetch[1]);
+			if (procedure != null) topLevelProcedures.add(procedure);
+			else negativeCache.recordReference();
+		}
+
+		return topLevelProcedures;
+	}
+
+	/**
+	 * Get all sub-procedure calls of the procedure. The calls of procedures
+	 * rebuilt from the incremental extraction state or from the checkpoint are
+	 * taken from there, the others are found by body scanning.
+	 * 
+	 * @param procedure
+	 *            - procedure which calls are requested
+	 * @return list of database and procedure name pairs of the called
+	 *         sub-procedures in order of appearance in the body
+	 * @throws SQLException
+	 *             if the calls could not be recorded in the incremental
+	 *             extraction state
+	 */
+	private List<String[]> findSubProcedureCalls(SybaseProcedure procedure) throws SQLException
+	{
+		List<String[]> calls = null;
+		if (incrementalFetcher != null) calls = incrementalFetcher.getRestoredCalls(procedure);
+		if (calls == null && checkpointFetcher != null) calls = checkpointFetcher.getRestoredCalls(procedure);
+		if (calls == null) calls = scanSubProcedureCalls(procedure);
+
+		recordProcedureCalls(procedure, calls);
+
+		return calls;
+	}
+
+	/**
+	 * Record the procedure calls in the checkpoint and in the incremental
+	 * extraction state (if enabled). The body is then spilled out of the heap
+	 * if the heap budget of the bodies is exceeded (if enabled).
+	 * 
+	 * @param procedure
+	 *            - the procedure
+	 * @param calls
+	 *            - database and procedure name pairs of the calls
+	 * @throws SQLException
+	 *             if the calls could not be recorded
+	 */
+	private void recordProcedureCalls(SybaseProcedure procedure, List<String[]> calls) throws SQLException
+	{
+		if (checkpointFetcher != null) checkpointFetcher.recordCalls(procedure, calls);
+
+		if (incrementalFetcher != null)
+		{
+			try
+			{
+				incrementalFetcher.recordProcedure(procedure, calls);
+			}
+			catch (SQLException e)
+			{
+				throw e;
+			}
+			catch (Exception e)
+			{
+				throw new SQLException("Could not record " + procedure.getDbName() + ".." + procedure.getName() + " state: " + e.getMessage());
+			}
+		}
+
+		if (tableLineage) recordTableAccesses(procedure);
+
+		// the body is not needed anymore until its script is written
+		if (spillStore != null)
+		{
+			try
+			{
+				spillStore.retain(procedure);
+			}
+			catch (IOException e)
+			{
+				throw new SQLException("Could not spill " + procedure.getDbName() + ".." + procedure.getName() + " body: " + e.getMessage());
+			}
+		}
+
+		if (compactBodies && !procedure.isSpilled()) compactBody(procedure);
+	}
+
+	/**
+	 * Register the tables referenced by the procedure in the call graph. The
+	 * bodies of procedures rebuilt from the incremental extraction state or
+	 * from the checkpoint are parsed for their tables here.
+	 * 
+	 * @param procedure
+	 *            - the procedure
+	 */
+	private void recordTableAccesses(SybaseProcedure procedure)
+	{
+		List<SybaseProceduresLexer.TableAccess> tableAccesses = procedure.getTableAccesses();
+		if (tableAccesses == null)
+		{
+			String body = procedure.getBody();
+			if (body == null) return;
+
+			parseBody(procedure, body);
+			tableAccesses = procedure.getTableAccesses();
+		}
+
+		String dbName = procedure.getDbName();
+		for (SybaseProceduresLexer.TableAccess tableAccess : tableAccesses)
+		{
+			// "database.owner.table", "database..table", "owner.table" or "table"
+			String[] nameParts = tableAccess.getName().split("\\.", -1);
+			String tableDatabaseName = dbName;
+			if (nameParts.length >= 3 && nameParts[nameParts.length - 3].length() > 0) tableDatabaseName = nameParts[nameParts.length - 3];
+
+			graph.addTableAccess(procedure, tableDatabaseName + ".." + nameParts[nameParts.length - 1], tableAccess.isWrite());
+		}
+	}
+
+	/**
+	 * Keep the body of the procedure on the heap as UTF-8 bytes, deflated if
+	 * configured
+	 * 
+	 * @param procedure
+	 *            - the procedure which calls are known
+	 */
+	private void compactBody(SybaseProcedure procedure)
+	{
+		if (procedure.isKeptInScript()) return;
+
+		String body = procedure.getBody();
+		if (body == null || procedure.getCompactBody() != null) return;
+
+		// the checksum is what tells later whether the script must be written
+		if (procedure.getChecksum() == null)
+		{
+			SybaseProceduresChecksum checksum = new SybaseProceduresChecksum();
+			checksum.update(body);
+			procedure.setChecksum(checksum.getChecksum());
+		}
+
+		SybaseProceduresCompactBody compactBody = procedure.compact(compressBodies);
+		compactedChars.addAndGet(compactBody.getLength());
+		compactedBytes.addAndGet(compactBody.getSize());
+	}
+
+	/**
+	 * Find the sub-procedure calls and the table references of the body in
+	 * the parse cache or parse the body if not found there (or not persisted).
+	 * 
+	 * @param procedure
+	 *            - procedure which body is parsed
+	 * @param body
+	 *            - the body
+	 */
+	private void parseBody(SybaseProcedure procedure, String body)
+	{
+		if (parseCache == null)
+		{
+			SybaseProceduresLexer.parse(procedure, body);
+			return;
+		}
+
+		String digest = procedure.getDigest();
+		if (digest == null)
+		{
+			SybaseProceduresChecksum bodyChecksum = new SybaseProceduresChecksum();
+			bodyChecksum.update(body);
+			digest = bodyChecksum.getDigest();
+			procedure.setDigest(digest);
+			if (procedure.getChecksum() == null) procedure.setChecksum(bodyChecksum.getChecksum());
+		}
+
+		if (!parseCache.restore(digest, procedure))
 		{
+			SybaseProceduresLexer.parse(procedure, body);
+			parseCache.put(digest, procedure);
+		}
+	}
+
+	/**
+	 * Detects all sub-procedure calls with "exec" or "execute" keyword in
+	 * procedure body. Ignores commented calls and calls in string literals.
+	 * 
+	 * @param procedure
+	 *            - procedure which body is parsed
+	 * @return list of database and procedure name pairs of the called
+	 *         sub-procedures in order of appearance in the body
+	 */
+	private List<String[]> scanSubProcedureCalls(SybaseProcedure procedure)
+	{
+		List<String[]> calls = new ArrayList<String[]>();
+
+		String body = procedure.getBody();
+		String dbName = procedure.getDbName();
+
+		// check for sub-procedure calls in one pass over the body unless
+		// found already while the body was read or by a previous generation
+		if (procedure.getCallSites() == null) parseBody(procedure, body);
+		List<SybaseProceduresLexer.CallSite> callSites = procedure.getCallSites();
+
+		for (SybaseProceduresLexer.CallSite callSite : callSites)
+		{
+			String subProcCall = callSite.getName();
+
+			// if not commented
+			if (!callSite.isCommented())
+			{
+				// extract the procedure and database name from
+				// sub-procedure call
+				String[] callParts = subProcCall.split("\\.", -1);
+				String subProcedureDaatabseName = null;
+				String subProcedureName = null;
+				if (callParts.length >= 4 && callParts[0].length() > 0)
+				{
+					// remote call "server.database.owner.procedure"
+					if (remoteServers == null || !remoteServers.containsKey(callParts[0]))
+					{
+						getLog().warn("Call of \"" + subProcCall + "\" in " + dbName + ".." + procedure.getName() + " ignored as server " + callParts[0] + " is not configured");
+						continue;
+					}
+
+					subProcedureDaatabseName = callParts[0] + "." + callParts[1];
+					subProcedureName = callParts[callParts.length - 1];
+				}
+				else if (callParts.length > 1 && callParts[0].length() > 0)
+				{
+					subProcedureDaatabseName = callParts[0];
+					subProcedureName = callParts[callParts.length - 1];
 
+					// the calls of remote procedures stay on their server
+					int serverIndex = dbName.indexOf('.');
+					if (serverIndex > 0) subProcedureDaatabseName = dbName.substring(0, serverIndex + 1) + subProcedureDaatabseName;
+				}
+				else
+				{
+					subProcedureDaatabseName = dbName;
+					subProcedureName = subProcCall;
+				}
+
+				calls.add(new String[] { subProcedureDaatabseName, subProcedureName });
+			}
+			else getLog().warn("Commented sub procedure call found \"" + subProcCall + "\" in  " + dbName + ".." + procedure.getName());
 		}
 
-		return null;
+		return calls;
+	}
 
+	/**
+	 * Retrieve the procedures and all their sub-procedures resolving the calls
+	 * from "sysdepends" catalog.
+	 * 
+	 * The closure of the procedures to retrieve is computed from "sysdepends"
+	 * before any body is retrieved so that all the procedures are retrieved in
+	 * bulk. Unless disabled, the bodies are scanned afterwards to find the
+	 * calls missing from "sysdepends" (dynamic or cross-database calls) and the
+	 * procedures called that way are retrieved the same way, until no new
+	 * procedure is found.
+	 * 
+	 * The calls found in the body keep the body order, the calls found in
+	 * "sysdepends" only are added after them.
+	 * 
+	 * @param proceduresToFetch
+	 *            - database and procedure name pairs of the top level
+	 *            procedures
+	 * @return top level procedures that have been found, in the same order as
+	 *         given
+	 * @throws Exception
+	 *             if error occurred during procedures retrieval
+	 */
+	private List<SybaseProcedure> checkProceduresWithSysdepends(List<String[]> proceduresToFetch) throws Exception
+	{
+		final SysdependsSybaseProceduresDependencies dependencies = new SysdependsSybaseProceduresDependencies(dao, getLog());
+
+		// all procedures retrieved keyed by database and procedure name,
+		// missing ones are mapped to null
+		Map<String, SybaseProcedure> procedures = new LinkedHashMap<String, SybaseProcedure>();
+
+		// the calls of each procedure retrieved
+		Map<SybaseProcedure, List<String[]>> calls = new LinkedHashMap<SybaseProcedure, List<String[]>>();
+
+		int sysdependsEdges = 0;
+		int bodyEdges = 0;
+		int sysdependsOnlyEdges = 0;
+
+		List<String[]> frontier = proceduresToFetch;
+		while (!frontier.isEmpty())
+		{
+			// compute the closure of the frontier through "sysdepends"
+			final Map<String, String[]> closure = new LinkedHashMap<String, String[]>();
+			SybaseProceduresTraversal<String[]> traversal = new SybaseProceduresTraversal<String[]>(SybaseProceduresTraversal.Order.BREADTH_FIRST, new SybaseProceduresVisitorI<String[]>()
+			{
+				@Override
+				public String getKey(String[] node)
+				{
+					return node[0] + ".." + node[1];
+				}
+
+				@Override
+				public List<String[]> visit(String[] node, int level, SybaseProceduresTraversal<String[]> traversal) throws Exception
+				{
+					closure.put(getKey(node), node);
+
+					List<String[]> calledProcedures = new ArrayList<String[]>();
+					for (String calledProcedure : dependencies.getCalledProcedures(node[0], node[1]))
+						calledProcedures.add(new String[] { node[0], calledProcedure });
+
+					return calledProcedures;
+				}
+			});
+			traversal.traverse(frontier, new HashSet<Object>(procedures.keySet()));
+			fetchesAvoided.addAndGet(traversal.getSkippedCount());
+
+			// retrieve all the procedures of the closure at once
+			Map<String, SybaseProcedure> fetched = fetchProcedures(new ArrayList<String[]>(closure.values()));
+			procedures.putAll(fetched);
+
+			// find the calls of each procedure
+			frontier = new ArrayList<String[]>();
+			for (SybaseProcedure procedure : fetched.values())
+			{
+				if (procedure == null) continue;
+
+				List<String> dependsCalls = dependencies.getCalledProcedures(procedure.getDbName(), procedure.getName());
+				List<String[]> procedureCalls = new ArrayList<String[]>();
+
+				// the calls found in the body keep the body order
+				Set<String> foundInBody = new HashSet<String>();
+				if (dependencyFallbackToBodyScan)
+				{
+					long parseStart = System.nanoTime();
+					for (String[] call : scanSubProcedureCalls(procedure))
+					{
+						procedureCalls.add(call);
+						foundInBody.add(call[0] + ".." + call[1]);
+
+						if (call[0].equals(procedure.getDbName()) && dependsCalls.contains(call[1]))
+						{
+							sysdependsEdges++;
+						}
+						else
+						{
+							bodyEdges++;
+							getLog().debug("Call of " + call[0] + ".." + call[1] + " in " + procedure.getDbName() + ".." + procedure.getName() + " found by body scanning");
+						}
+					}
+					parseStage.record(1, parseStart);
+				}
+
+				// the calls missing in the body
+				for (String calledProcedure : dependsCalls)
+				{
+					if (!foundInBody.contains(procedure.getDbName() + ".." + calledProcedure))
+					{
+						procedureCalls.add(new String[] { procedure.getDbName(), calledProcedure });
+						if (dependencyFallbackToBodyScan) sysdependsOnlyEdges++;
+						else sysdependsEdges++;
+					}
+				}
+
+				calls.put(procedure, procedureCalls);
+				recordProcedureCalls(procedure, procedureCalls);
+
+				// the procedures called out of "sysdepends" closure
+				for (String[] call : procedureCalls)
+				{
+					if (!procedures.containsKey(call[0] + ".." + call[1])) frontier.add(call);
+				}
+			}
+		}
+
+		linkProcedures(calls, procedures);
+
+		getLog().info("Calls found in sysdepends: " + sysdependsEdges + ", by body scanning only: " + bodyEdges + ", in sysdepends only: " + sysdependsOnlyEdges);
+
+		return getTopLevelProcedures(proceduresToFetch, procedures);
+	}
+
+	/**
+	 * Get the fingerprint of the configuration affecting the procedures
+	 * retrieved: the procedures configured, the engine, the dependency source
+	 * and the connection.
+	 * 
+	 * @return the fingerprint
+	 * @throws Exception
+	 *             if the fingerprint could not be computed
+	 */
+	private String getConfigurationFingerprint() throws Exception
+	{
+		StringBuilder configuration = new StringBuilder();
+		for (String procedureToCheck : proceduresToCheck)
+			configuration.append(procedureToCheck).append('\n');
+		configuration.append(extractionEngine).append('\n');
+		configuration.append(dependencySource).append('\n');
+		configuration.append(dependencyFallbackToBodyScan).append('\n');
+		configuration.append(connectionString).append('\n');
+		configuration.append(syabseUser).append('\n');
+
+		return createChecksum(new StringReader(configuration.toString()));
 	}
 
 	/**
@@ -777,7 +2454,7 @@ public class SybaseProceduresGeneratorMojo extends AbstractMojo
 	 * @throws Exception
 	 *             occurred while computing checksum
 	 */
-	public String createChecksum(Reader fis) throws Exception
+	public static String createChecksum(Reader fis) throws Exception
 	{
 		byte[] buffer = new byte[1024];
 		char[] bufferStr = new char[1024];
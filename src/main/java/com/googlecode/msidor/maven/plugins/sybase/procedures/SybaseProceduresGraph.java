@@ -0,0 +1,403 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.	
+ */
+package com.googlecode.msidor.maven.plugins.sybase.procedures;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author Maciej SIDOR
+ *
+ * Call graph of the procedures retrieved.
+ * 
+ * <p>
+ * Each procedure gets an int id in order of registration. The calls of each procedure are kept in primitive 
+ * arrays of callee ids, one edge per distinct sub-procedure in order of first call, together with 
+ * the number of times the sub-procedure is called. The sub-procedures list of {@link SybaseProcedure} 
+ * is a view over these arrays.
+ * </p>
+ * 
+ * <p>
+ * The tables referenced by the procedures are the second kind of nodes of the graph: each procedure keeps 
+ * the ids of the distinct tables it references together with the kind of access (read, write or both).
+ * </p>
+ */
+public class SybaseProceduresGraph
+{
+	/**
+	 * Kinds of table access
+	 */
+	public static final int READ = 1;
+	public static final int WRITE = 2;
+
+	/**
+	 * Initial number of edges of a procedure
+	 */
+	private static final int INITIAL_DEGREE = 4;
+
+	/**
+	 * Procedures by id
+	 */
+	private List<SybaseProcedure> procedures = new ArrayList<SybaseProcedure>();
+
+	/**
+	 * Ids by procedure
+	 */
+	private Map<SybaseProcedure, Integer> ids = new IdentityHashMap<SybaseProcedure, Integer>();
+
+	/**
+	 * Callee ids of each procedure in order of first call
+	 */
+	private int[][] callees = new int[16][];
+
+	/**
+	 * Number of calls of each edge
+	 */
+	private int[][] callCounts = new int[16][];
+
+	/**
+	 * Number of edges of each procedure
+	 */
+	private int[] degrees = new int[16];
+
+	/**
+	 * Tables by id and ids by table name
+	 */
+	private List<String> tables = new ArrayList<String>();
+	private Map<String, Integer> tableIds = new HashMap<String, Integer>();
+
+	/**
+	 * Table ids referenced by each procedure in order of first reference
+	 */
+	private int[][] tableTargets = new int[16][];
+
+	/**
+	 * Kind of access of each table edge
+	 */
+	private int[][] tableAccesses = new int[16][];
+
+	/**
+	 * Number of table edges of each procedure
+	 */
+	private int[] tableDegrees = new int[16];
+
+	/**
+	 * Number of distinct table edges
+	 */
+	private int tableEdgeCount = 0;
+
+	/**
+	 * Number of distinct edges and number of calls
+	 */
+	private int edgeCount = 0;
+	private int callCount = 0;
+
+	/**
+	 * Register the procedure in the graph if not registered yet
+	 * 
+	 * @param procedure
+	 *            the procedure
+	 * @return id of the procedure
+	 */
+	public synchronized int addProcedure(SybaseProcedure procedure)
+	{
+		Integer id = ids.get(procedure);
+		if (id != null) return id.intValue();
+
+		int newId = procedures.size();
+		procedures.add(procedure);
+		ids.put(procedure, Integer.valueOf(newId));
+
+		if (newId == degrees.length)
+		{
+			callees = Arrays.copyOf(callees, newId * 2);
+			callCounts = Arrays.copyOf(callCounts, newId * 2);
+			degrees = Arrays.copyOf(degrees, newId * 2);
+			tableTargets = Arrays.copyOf(tableTargets, newId * 2);
+			tableAccesses = Arrays.copyOf(tableAccesses, newId * 2);
+			tableDegrees = Arrays.copyOf(tableDegrees, newId * 2);
+		}
+
+		procedure.setGraph(this, newId);
+		return newId;
+	}
+
+	/**
+	 * Register a call, the edge is created on the first call only
+	 * 
+	 * @param caller
+	 *            the calling procedure
+	 * @param callee
+	 *            the called procedure
+	 */
+	public synchronized void addCall(SybaseProcedure caller, SybaseProcedure callee)
+	{
+		int from = addProcedure(caller);
+		int to = addProcedure(callee);
+		callCount++;
+
+		int degree = degrees[from];
+		int[] targets = callees[from];
+		for (int i = 0; i < degree; i++)
+		{
+			if (targets[i] == to)
+			{
+				callCounts[from][i]++;
+				return;
+			}
+		}
+
+		if (targets == null)
+		{
+			callees[from] = targets = new int[INITIAL_DEGREE];
+			callCounts[from] = new int[INITIAL_DEGREE];
+		}
+		else if (degree == targets.length)
+		{
+			callees[from] = targets = Arrays.copyOf(targets, degree * 2);
+			callCounts[from] = Arrays.copyOf(callCounts[from], degree * 2);
+		}
+
+		targets[degree] = to;
+		callCounts[from][degree] = 1;
+		degrees[from]++;
+		edgeCount++;
+	}
+
+	/**
+	 * Forget all the calls of a procedure, the procedure itself stays in the graph
+	 * 
+	 * @param caller
+	 *            the calling procedure
+	 */
+	public synchronized void removeCalls(SybaseProcedure caller)
+	{
+		Integer id = ids.get(caller);
+		if (id == null) return;
+
+		int from = id.intValue();
+		for (int i = 0; i < degrees[from]; i++)
+			callCount -= callCounts[from][i];
+
+		edgeCount -= degrees[from];
+		degrees[from] = 0;
+	}
+
+	/**
+	 * Register a table reference, the edge is created on the first reference only
+	 * 
+	 * @param procedure
+	 *            the procedure referencing the table
+	 * @param table
+	 *            the table name qualified with its database
+	 * @param write
+	 *            true if the table is written, false if read
+	 */
+	public synchronized void addTableAccess(SybaseProcedure procedure, String table, boolean write)
+	{
+		int from = addProcedure(procedure);
+		int access = write ? WRITE : READ;
+
+		Integer tableId = tableIds.get(table);
+		if (tableId == null)
+		{
+			tableId = Integer.valueOf(tables.size());
+			tables.add(table);
+			tableIds.put(table, tableId);
+		}
+		int to = tableId.intValue();
+
+		int degree = tableDegrees[from];
+		int[] targets = tableTargets[from];
+		for (int i = 0; i < degree; i++)
+		{
+			if (targets[i] == to)
+			{
+				tableAccesses[from][i] |= access;
+				return;
+			}
+		}
+
+		if (targets == null)
+		{
+			tableTargets[from] = targets = new int[INITIAL_DEGREE];
+			tableAccesses[from] = new int[INITIAL_DEGREE];
+		}
+		else if (degree == targets.length)
+		{
+			tableTargets[from] = targets = Arrays.copyOf(targets, degree * 2);
+			tableAccesses[from] = Arrays.copyOf(tableAccesses[from], degree * 2);
+		}
+
+		targets[degree] = to;
+		tableAccesses[from][degree] = access;
+		tableDegrees[from]++;
+		tableEdgeCount++;
+	}
+
+	/**
+	 * Release the unused room of the adjacency arrays once all the calls are registered
+	 */
+	public synchronized void trim()
+	{
+		for (int id = 0; id < procedures.size(); id++)
+		{
+			if (callees[id] != null && callees[id].length > degrees[id])
+			{
+				callees[id] = Arrays.copyOf(callees[id], degrees[id]);
+				callCounts[id] = Arrays.copyOf(callCounts[id], degrees[id]);
+			}
+			if (tableTargets[id] != null && tableTargets[id].length > tableDegrees[id])
+			{
+				tableTargets[id] = Arrays.copyOf(tableTargets[id], tableDegrees[id]);
+				tableAccesses[id] = Arrays.copyOf(tableAccesses[id], tableDegrees[id]);
+			}
+		}
+	}
+
+	/**
+	 * Get the sub-procedures of a procedure
+	 * 
+	 * @param id
+	 *            id of the procedure
+	 * @return read only view of the distinct sub-procedures in order of first call
+	 */
+	public List<SybaseProcedure> getCallees(final int id)
+	{
+		if (degrees[id] == 0) return Collections.emptyList();
+
+		return new AbstractList<SybaseProcedure>()
+		{
+			@Override
+			public SybaseProcedure get(int index)
+			{
+				if (index >= degrees[id]) throw new IndexOutOfBoundsException(String.valueOf(index));
+				return procedures.get(callees[id][index]);
+			}
+
+			@Override
+			public int size()
+			{
+				return degrees[id];
+			}
+		};
+	}
+
+	/**
+	 * Get the number of times a procedure calls one of its sub-procedures
+	 * 
+	 * @param id
+	 *            id of the calling procedure
+	 * @param index
+	 *            index of the sub-procedure in the sub-procedures of the calling procedure
+	 * @return number of calls
+	 */
+	public int getCallCount(int id, int index)
+	{
+		if (index >= degrees[id]) throw new IndexOutOfBoundsException(String.valueOf(index));
+		return callCounts[id][index];
+	}
+
+	/**
+	 * Get the tables referenced by a procedure
+	 * 
+	 * @param id
+	 *            id of the procedure
+	 * @return read only view of the distinct tables in order of first reference
+	 */
+	public List<String> getTables(final int id)
+	{
+		if (tableDegrees[id] == 0) return Collections.emptyList();
+
+		return new AbstractList<String>()
+		{
+			@Override
+			public String get(int index)
+			{
+				if (index >= tableDegrees[id]) throw new IndexOutOfBoundsException(String.valueOf(index));
+				return tables.get(tableTargets[id][index]);
+			}
+
+			@Override
+			public int size()
+			{
+				return tableDegrees[id];
+			}
+		};
+	}
+
+	/**
+	 * Get how a procedure accesses one of its tables
+	 * 
+	 * @param id
+	 *            id of the procedure
+	 * @param index
+	 *            index of the table in the tables of the procedure
+	 * @return combination of {@link #READ} and {@link #WRITE}
+	 */
+	public int getTableAccess(int id, int index)
+	{
+		if (index >= tableDegrees[id]) throw new IndexOutOfBoundsException(String.valueOf(index));
+		return tableAccesses[id][index];
+	}
+
+	/**
+	 * @return number of distinct tables
+	 */
+	public int getTableCount()
+	{
+		return tables.size();
+	}
+
+	/**
+	 * @return number of distinct table edges
+	 */
+	public int getTableEdgeCount()
+	{
+		return tableEdgeCount;
+	}
+
+	/**
+	 * @return number of procedures
+	 */
+	public int getProcedureCount()
+	{
+		return procedures.size();
+	}
+
+	/**
+	 * @return number of distinct edges
+	 */
+	public int getEdgeCount()
+	{
+		return edgeCount;
+	}
+
+	/**
+	 * @return number of calls registered, duplicates included
+	 */
+	public int getCallCount()
+	{
+		return callCount;
+	}
+
+}
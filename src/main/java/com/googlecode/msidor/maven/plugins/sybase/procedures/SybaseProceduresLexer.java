@@ -0,0 +1,635 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.	
+ */
+package com.googlecode.msidor.maven.plugins.sybase.procedures;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author Maciej SIDOR
+ *
+ * Single-pass T-SQL lexer detecting the stored procedure calls ("exec" and "execute") of a procedure body.
+ * 
+ * <p>
+ * The lexer is a state machine reading each character once. It keeps track of line comments, 
+ * nested block comments, string literals and quoted identifiers so that the calls inside string literals 
+ * are ignored and the calls inside comments are reported as commented. 
+ * The text can be given in several chunks: the state is kept from one chunk to the next.
+ * </p>
+ * 
+ * <p>
+ * The following calls are detected: <code>exec proc</code>, <code>execute db..proc</code>, 
+ * <code>exec @status = db.owner.proc</code>, <code>exec [db]..[proc]</code>. The dynamic calls 
+ * (<code>exec @procVariable</code>, <code>exec ('...')</code>) are not procedure calls and are skipped.
+ * </p>
+ * 
+ * <p>
+ * In the same pass, the tables referenced by the code (not by the comments) are detected: the tables read 
+ * after <code>from</code> (including the comma separated lists) and <code>join</code>, the tables written after 
+ * <code>insert [into]</code>, <code>select ... into</code>, <code>update</code>, <code>delete [from]</code> and 
+ * <code>truncate table</code>. Temporary tables and variables are skipped, as well as the columns of 
+ * <code>for update of</code> in cursor declarations.
+ * </p>
+ */
+public class SybaseProceduresLexer
+{
+	/**
+	 * A procedure call found in the text
+	 */
+	public static class CallSite
+	{
+		private String name;
+		private int offset;
+		private boolean commented;
+
+		CallSite(String name, int offset, boolean commented)
+		{
+			this.name = name;
+			this.offset = offset;
+			this.commented = commented;
+		}
+
+		/**
+		 * @return the called procedure name as written, possibly qualified, without the quotes of quoted identifiers
+		 */
+		public String getName()
+		{
+			return name;
+		}
+
+		/**
+		 * @return offset of the "exec" keyword in the text
+		 */
+		public int getOffset()
+		{
+			return offset;
+		}
+
+		/**
+		 * @return true if the call is commented out
+		 */
+		public boolean isCommented()
+		{
+			return commented;
+		}
+	}
+
+	/**
+	 * Version of the call detection. Must be incremented whenever the calls or the tables found in a text change 
+	 * so that the calls cached by previous generations are not used anymore.
+	 */
+	public static final int VERSION = 3;
+
+	/**
+	 * A table reference found in the text
+	 */
+	public static class TableAccess
+	{
+		private String name;
+		private int offset;
+		private boolean write;
+
+		TableAccess(String name, int offset, boolean write)
+		{
+			this.name = name;
+			this.offset = offset;
+			this.write = write;
+		}
+
+		/**
+		 * @return the table name as written, possibly qualified, without the quotes of quoted identifiers
+		 */
+		public String getName()
+		{
+			return name;
+		}
+
+		/**
+		 * @return offset of the table name in the text
+		 */
+		public int getOffset()
+		{
+			return offset;
+		}
+
+		/**
+		 * @return true if the table is written, false if read
+		 */
+		public boolean isWrite()
+		{
+			return write;
+		}
+	}
+
+	/**
+	 * Lexical states
+	 */
+	private static final int CODE = 0;
+	private static final int LINE_COMMENT = 1;
+	private static final int BLOCK_COMMENT = 2;
+	private static final int STRING = 3;
+	private static final int QUOTED_IDENTIFIER = 4;
+	private static final int BRACKET_IDENTIFIER = 5;
+
+	/**
+	 * Call detection states
+	 */
+	private static final int IDLE = 0;
+	private static final int EXPECT_TARGET = 1;
+	private static final int EXPECT_ASSIGNMENT = 2;
+
+	/**
+	 * Table detection states
+	 */
+	private static final int TABLE_IDLE = 0;
+	private static final int EXPECT_READ = 1;
+	private static final int EXPECT_WRITE = 2;
+	private static final int AFTER_INSERT = 3;
+	private static final int AFTER_DELETE = 4;
+	private static final int AFTER_UPDATE = 5;
+	private static final int AFTER_TRUNCATE = 6;
+	private static final int FROM_LIST = 7;
+	private static final int AFTER_FOR = 8;
+	private static final int FOR_UPDATE = 9;
+	private static final int EXPECT_COLUMN = 10;
+	private static final int AFTER_COLUMN = 11;
+
+	/**
+	 * Current lexical state
+	 */
+	private int state = CODE;
+
+	/**
+	 * Depth of nested block comments
+	 */
+	private int commentDepth = 0;
+
+	/**
+	 * Previous character if it may start or end a two-character sequence, 0 otherwise
+	 */
+	private char previous = 0;
+
+	/**
+	 * True if the closing quote of a string or quoted identifier has been read and may be doubled
+	 */
+	private boolean closingQuote = false;
+
+	/**
+	 * The word being read
+	 */
+	private StringBuilder word = new StringBuilder();
+
+	/**
+	 * Offset of the first character of the word being read
+	 */
+	private int wordOffset = -1;
+
+	/**
+	 * Call detection state of the code and of the comments
+	 */
+	private int codeCallState = IDLE;
+	private int commentCallState = IDLE;
+
+	/**
+	 * Offset of the "exec" keyword of the call being detected in the code and in the comments
+	 */
+	private int codeCallOffset = -1;
+	private int commentCallOffset = -1;
+
+	/**
+	 * Number of characters read
+	 */
+	private int offset = 0;
+
+	/**
+	 * Calls found
+	 */
+	private List<CallSite> calls = new ArrayList<CallSite>();
+
+	/**
+	 * Table detection state of the code
+	 */
+	private int tableState = TABLE_IDLE;
+
+	/**
+	 * True if the alias of the last table of a "from" list has been read
+	 */
+	private boolean aliasRead = false;
+
+	/**
+	 * Tables found
+	 */
+	private List<TableAccess> tables = new ArrayList<TableAccess>();
+
+	/**
+	 * Find all procedure calls of the text
+	 * 
+	 * @param text
+	 *            the text to read
+	 * @return the calls in order of appearance
+	 */
+	public static List<CallSite> scan(CharSequence text)
+	{
+		SybaseProceduresLexer lexer = new SybaseProceduresLexer();
+		lexer.feed(text);
+		return lexer.finish();
+	}
+
+	/**
+	 * Find all procedure calls and table references of the procedure body and set them to the procedure
+	 * 
+	 * @param procedure
+	 *            the procedure
+	 * @param body
+	 *            the body of the procedure
+	 */
+	public static void parse(SybaseProcedure procedure, CharSequence body)
+	{
+		SybaseProceduresLexer lexer = new SybaseProceduresLexer();
+		lexer.feed(body);
+		procedure.setCallSites(lexer.finish());
+		procedure.setTableAccesses(lexer.getTableAccesses());
+	}
+
+	/**
+	 * Read the next chunk of the text
+	 * 
+	 * @param chunk
+	 *            the chunk
+	 */
+	public void feed(CharSequence chunk)
+	{
+		int length = chunk.length();
+		for (int i = 0; i < length; i++)
+		{
+			read(chunk.charAt(i));
+			offset++;
+		}
+	}
+
+	/**
+	 * End the text
+	 * 
+	 * @return the calls found in order of appearance
+	 */
+	public List<CallSite> finish()
+	{
+		endWord();
+		return calls;
+	}
+
+	/**
+	 * @return the table references found in order of appearance, complete once the text is ended
+	 */
+	public List<TableAccess> getTableAccesses()
+	{
+		return tables;
+	}
+
+	/**
+	 * Read one character
+	 * 
+	 * @param c
+	 *            the character
+	 */
+	private void read(char c)
+	{
+		// the closing quote followed by another quote is an escaped quote
+		if (closingQuote)
+		{
+			closingQuote = false;
+			if ((state == STRING && c == '\'') || (state == QUOTED_IDENTIFIER && c == '"') || (state == BRACKET_IDENTIFIER && c == ']'))
+			{
+				if (state != STRING) word.append(c);
+				return;
+			}
+
+			state = CODE;
+		}
+
+		switch (state)
+		{
+			case CODE:
+				readCode(c);
+				break;
+
+			case LINE_COMMENT:
+				if (c == '\n')
+				{
+					endWord();
+					commentCallState = IDLE;
+					state = CODE;
+				}
+				else readCommentCharacter(c);
+				break;
+
+			case BLOCK_COMMENT:
+				if (previous == '/' && c == '*')
+				{
+					commentDepth++;
+					previous = 0;
+				}
+				else if (previous == '*' && c == '/')
+				{
+					previous = 0;
+					if (--commentDepth == 0)
+					{
+						endWord();
+						commentCallState = IDLE;
+						state = CODE;
+					}
+				}
+				else
+				{
+					previous = (c == '/' || c == '*') ? c : 0;
+					readCommentCharacter(c);
+				}
+				break;
+
+			case STRING:
+				if (c == '\'') closingQuote = true;
+				break;
+
+			case QUOTED_IDENTIFIER:
+				if (c == '"') closingQuote = true;
+				else word.append(c);
+				break;
+
+			case BRACKET_IDENTIFIER:
+				if (c == ']') closingQuote = true;
+				else word.append(c);
+				break;
+		}
+	}
+
+	/**
+	 * Read one character of the code
+	 * 
+	 * @param c
+	 *            the character
+	 */
+	private void readCode(char c)
+	{
+		// comment starts
+		if (previous == '-' && c == '-')
+		{
+			previous = 0;
+			endWord();
+			state = LINE_COMMENT;
+			return;
+		}
+		if (previous == '/' && c == '*')
+		{
+			previous = 0;
+			endWord();
+			commentDepth = 1;
+			state = BLOCK_COMMENT;
+			return;
+		}
+		previous = (c == '-' || c == '/') ? c : 0;
+
+		if (c == '\'')
+		{
+			endWord();
+			codeCallState = IDLE;
+			tableState = TABLE_IDLE;
+			state = STRING;
+		}
+		else if (c == '"' || c == '[')
+		{
+			// the quoted identifier is a part of the word
+			if (wordOffset < 0) wordOffset = offset;
+			state = c == '"' ? QUOTED_IDENTIFIER : BRACKET_IDENTIFIER;
+		}
+		else if (isWordCharacter(c))
+		{
+			if (wordOffset < 0) wordOffset = offset;
+			word.append(c);
+		}
+		else
+		{
+			endWord();
+
+			if (!Character.isWhitespace(c) && c != '-' && c != '/' && c != '*')
+			{
+				// "exec @status = proc"
+				if (c == '=' && codeCallState == EXPECT_ASSIGNMENT) codeCallState = EXPECT_TARGET;
+				else codeCallState = IDLE;
+
+				// "from table1 alias1, table2" and "for update of column1, column2"
+				if (c == ',' && tableState == FROM_LIST) tableState = EXPECT_READ;
+				else if (c == ',' && tableState == AFTER_COLUMN) tableState = EXPECT_COLUMN;
+				else tableState = TABLE_IDLE;
+			}
+		}
+	}
+
+	/**
+	 * Read one character of a comment
+	 * 
+	 * @param c
+	 *            the character
+	 */
+	private void readCommentCharacter(char c)
+	{
+		if (isWordCharacter(c))
+		{
+			if (wordOffset < 0) wordOffset = offset;
+			word.append(c);
+		}
+		else
+		{
+			endWord();
+
+			if (!Character.isWhitespace(c))
+			{
+				if (c == '=' && commentCallState == EXPECT_ASSIGNMENT) commentCallState = EXPECT_TARGET;
+				else if (c != '-' && c != '/' && c != '*') commentCallState = IDLE;
+			}
+		}
+	}
+
+	/**
+	 * End the word being read and check if it is a part of a call
+	 */
+	private void endWord()
+	{
+		if (wordOffset < 0) return;
+
+		String token = word.toString();
+		int tokenOffset = wordOffset;
+		word.setLength(0);
+		wordOffset = -1;
+
+		boolean commented = state == LINE_COMMENT || state == BLOCK_COMMENT;
+		int callState = commented ? commentCallState : codeCallState;
+		int callOffset = commented ? commentCallOffset : codeCallOffset;
+
+		if (token.equalsIgnoreCase("exec") || token.equalsIgnoreCase("execute"))
+		{
+			callState = EXPECT_TARGET;
+			callOffset = tokenOffset;
+		}
+		else if (callState == EXPECT_TARGET && token.startsWith("@"))
+		{
+			// either the status of the call or a dynamic call
+			callState = EXPECT_ASSIGNMENT;
+		}
+		else if (callState == EXPECT_TARGET && token.length() > 0)
+		{
+			calls.add(new CallSite(token, callOffset, commented));
+			callState = IDLE;
+		}
+		else callState = IDLE;
+
+		if (commented)
+		{
+			commentCallState = callState;
+			commentCallOffset = callOffset;
+		}
+		else
+		{
+			codeCallState = callState;
+			codeCallOffset = callOffset;
+
+			detectTable(token, tokenOffset);
+		}
+	}
+
+	/**
+	 * Check if the word of the code is a part of a table reference
+	 * 
+	 * @param token
+	 *            the word
+	 * @param tokenOffset
+	 *            offset of the word
+	 */
+	private void detectTable(String token, int tokenOffset)
+	{
+		if (token.equalsIgnoreCase("from"))
+		{
+			// "delete from table" writes the table
+			tableState = tableState == AFTER_DELETE ? EXPECT_WRITE : EXPECT_READ;
+			return;
+		}
+		if (token.equalsIgnoreCase("join"))
+		{
+			tableState = EXPECT_READ;
+			return;
+		}
+		if (token.equalsIgnoreCase("into"))
+		{
+			tableState = EXPECT_WRITE;
+			return;
+		}
+		if (token.equalsIgnoreCase("insert"))
+		{
+			tableState = AFTER_INSERT;
+			return;
+		}
+		if (token.equalsIgnoreCase("delete"))
+		{
+			tableState = AFTER_DELETE;
+			return;
+		}
+		if (token.equalsIgnoreCase("update"))
+		{
+			// "for update" locks the rows of a cursor, it doesn't name a table
+			tableState = tableState == AFTER_FOR ? FOR_UPDATE : AFTER_UPDATE;
+			return;
+		}
+		if (token.equalsIgnoreCase("for"))
+		{
+			tableState = AFTER_FOR;
+			return;
+		}
+		if (token.equalsIgnoreCase("truncate"))
+		{
+			tableState = AFTER_TRUNCATE;
+			return;
+		}
+
+		switch (tableState)
+		{
+			case AFTER_TRUNCATE:
+				tableState = token.equalsIgnoreCase("table") ? EXPECT_WRITE : TABLE_IDLE;
+				break;
+
+			case AFTER_UPDATE:
+				// "update statistics", "update index statistics", "update all statistics"
+				if (token.equalsIgnoreCase("statistics") || token.equalsIgnoreCase("index") || token.equalsIgnoreCase("all")) tableState = TABLE_IDLE;
+				else addTable(token, tokenOffset, true);
+				break;
+
+			case AFTER_INSERT:
+			case AFTER_DELETE:
+			case EXPECT_WRITE:
+				addTable(token, tokenOffset, true);
+				break;
+
+			case EXPECT_READ:
+				addTable(token, tokenOffset, false);
+				break;
+
+			case AFTER_FOR:
+				tableState = TABLE_IDLE;
+				break;
+
+			case FOR_UPDATE:
+				// "for update of column1, column2"
+				tableState = token.equalsIgnoreCase("of") ? EXPECT_COLUMN : TABLE_IDLE;
+				break;
+
+			case EXPECT_COLUMN:
+				tableState = AFTER_COLUMN;
+				break;
+
+			case AFTER_COLUMN:
+				tableState = TABLE_IDLE;
+				break;
+
+			case FROM_LIST:
+				// the alias of the table, possibly after "as"
+				if (token.equalsIgnoreCase("as")) break;
+				if (aliasRead) tableState = TABLE_IDLE;
+				else aliasRead = true;
+				break;
+		}
+	}
+
+	/**
+	 * Register the table unless it is a temporary table or a variable
+	 */
+	private void addTable(String token, int tokenOffset, boolean write)
+	{
+		if (token.length() > 0 && token.charAt(0) != '@' && token.charAt(0) != '#') tables.add(new TableAccess(token, tokenOffset, write));
+
+		// the tables read may be followed by other tables separated by commas
+		tableState = write ? TABLE_IDLE : FROM_LIST;
+		aliasRead = false;
+	}
+
+	/**
+	 * @param c
+	 *            character
+	 * @return true if the character can be a part of a (qualified) name
+	 */
+	private static boolean isWordCharacter(char c)
+	{
+		return Character.isLetterOrDigit(c) || c == '_' || c == '@' || c == '#' || c == '$' || c == '.';
+	}
+
+}
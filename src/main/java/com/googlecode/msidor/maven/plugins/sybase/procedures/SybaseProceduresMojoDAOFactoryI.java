@@ -0,0 +1,37 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.	
+ */
+package com.googlecode.msidor.maven.plugins.sybase.procedures;
+
+/**
+ * @author Maciej SIDOR
+ *
+ * Factory of the DAOs of the remote servers
+ */
+public interface SybaseProceduresMojoDAOFactoryI
+{
+
+	/**
+	 * Create the DAO of a remote server, not connected yet
+	 * 
+	 * @param server
+	 *            name of the server
+	 * @return the DAO
+	 * @throws Exception
+	 *             if the DAO could not be created
+	 */
+	public abstract SybaseProceduresMojoDAOI createDAO(String server) throws Exception;
+
+}
@@ -19,6 +19,7 @@ import java.net.MalformedURLException;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.HashMap;
+import java.util.Map;
 
 import org.apache.xmlrpc.XmlRpcException;
 
@@ -86,6 +87,32 @@ public interface SybaseProceduresMojoDAOI
 	 */
 	public abstract void connectToSybase(String syabseDriver, String syabseUser, String sybasePassword, String connectionString) throws Exception;
 
+	/**
+	 * Connect to Sybase databse opening a pool of connections.
+	 * Each query borrows one connection from the pool until its statement is closed with closeSybaseStatement.
+	 * @param syabseDriverVersion Sybase driver version
+	 * @param syabseUser Sybase user 
+	 * @param sybasePassword Sybase password
+	 * @param connectionString Sybase connection string
+	 * @param connectionPoolSize number of connections to open
+	 * @throws Exception
+	 */
+	public abstract void connectToSybase(String syabseDriver, String syabseUser, String sybasePassword, String connectionString, int connectionPoolSize) throws Exception;
+
+	/**
+	 * Connect to Sybase databse opening a pool of connections.
+	 * Additionally, up to connectionsPerDatabase connections are opened on demand in the context of each database 
+	 * and the queries on behalf of a database are routed to them.
+	 * @param syabseDriverVersion Sybase driver version
+	 * @param syabseUser Sybase user 
+	 * @param sybasePassword Sybase password
+	 * @param connectionString Sybase connection string
+	 * @param connectionPoolSize number of connections to open
+	 * @param connectionsPerDatabase maximum number of connections per database, 0 to use the shared pool for all queries
+	 * @throws Exception
+	 */
+	public abstract void connectToSybase(String syabseDriver, String syabseUser, String sybasePassword, String connectionString, int connectionPoolSize, int connectionsPerDatabase) throws Exception;
+
 	/**
 	 * Disconnect from Sybase
 	 * @throws SQLException
@@ -100,4 +127,33 @@ public interface SybaseProceduresMojoDAOI
 	 */
 	public abstract Statement executeSybaseQuery(String query) throws SQLException;
 
+	/**
+	 * Execute Sybase query on behalf of the database
+	 * @param dbName database the query works on
+	 * @param Sybase query
+	 * @return
+	 * @throws SQLException
+	 */
+	public abstract Statement executeSybaseQuery(String dbName, String query) throws SQLException;
+
+	/**
+	 * Close the statement returned by executeSybaseQuery and give its connection back to the pool
+	 * @param statement statement to close
+	 * @throws SQLException
+	 */
+	public abstract void closeSybaseStatement(Statement statement) throws SQLException;
+
+	/**
+	 * Get the usage statistics of each database the queries have been executed on behalf of
+	 * @return usage statistics keyed by database name
+	 */
+	public abstract Map<String, SybaseProceduresDatabaseUsage> getDatabaseUsage();
+
+	/**
+	 * Get the time the last query executed by the current thread got its connection, 
+	 * so that the time spent waiting for a connection can be told from the time spent on the server
+	 * @return time in milliseconds or 0 if unknown
+	 */
+	public abstract long getLastQueryStart();
+
 }
\ No newline at end of file
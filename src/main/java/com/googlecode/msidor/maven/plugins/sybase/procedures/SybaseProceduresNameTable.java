@@ -0,0 +1,188 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.	
+ */
+package com.googlecode.msidor.maven.plugins.sybase.procedures;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @author Maciej SIDOR
+ *
+ * Table of the database and procedure names met during one generation.
+ * 
+ * <p>
+ * Each name gets an int id once. The names that only differ by case get the same id unless the server 
+ * compares names with case (the default sort order of SYBASE). The first spelling met is kept as 
+ * the name of the id. Lookups of a spelling met already don't lock and don't allocate.
+ * </p>
+ */
+public class SybaseProceduresNameTable
+{
+	/**
+	 * Ids keyed by spelling
+	 */
+	private Map<String, Integer> spellings = new ConcurrentHashMap<String, Integer>();
+
+	/**
+	 * Ids keyed by normalized name
+	 */
+	private Map<String, Integer> normalizedNames = new HashMap<String, Integer>();
+
+	/**
+	 * Names by id
+	 */
+	private volatile String[] names = new String[64];
+
+	/**
+	 * Id of the lower case name of each id, -1 if not computed yet
+	 */
+	private int[] lowerCaseIds = new int[64];
+
+	/**
+	 * Number of ids
+	 */
+	private int size = 0;
+
+	/**
+	 * True if the names that only differ by case are different names
+	 */
+	private boolean caseSensitive;
+
+	/**
+	 * @param caseSensitive
+	 *            true if the names that only differ by case are different names
+	 */
+	public SybaseProceduresNameTable(boolean caseSensitive)
+	{
+		this.caseSensitive = caseSensitive;
+	}
+
+	/**
+	 * Get the id of the name, the name is registered if met for the first time
+	 * 
+	 * @param name
+	 *            the name
+	 * @return id of the name
+	 */
+	public int getId(String name)
+	{
+		Integer id = spellings.get(name);
+		if (id != null) return id.intValue();
+
+		return register(name);
+	}
+
+	/**
+	 * Get the id of the name if met already
+	 * 
+	 * @param name
+	 *            the name
+	 * @return id of the name or -1 if never met
+	 */
+	public int findId(String name)
+	{
+		Integer id = spellings.get(name);
+		if (id != null) return id.intValue();
+
+		synchronized (this)
+		{
+			id = normalizedNames.get(normalize(name));
+			return id != null ? id.intValue() : -1;
+		}
+	}
+
+	/**
+	 * @param id
+	 *            id of the name
+	 * @return the first spelling of the name
+	 */
+	public String getName(int id)
+	{
+		return names[id];
+	}
+
+	/**
+	 * Get the id of the lower case name, as used to name the files on case insensitive file systems
+	 * 
+	 * @param id
+	 *            id of the name
+	 * @return id of the lower case name
+	 */
+	public synchronized int getLowerCaseId(int id)
+	{
+		if (lowerCaseIds[id] < 0) lowerCaseIds[id] = getId(names[id].toLowerCase(Locale.ENGLISH));
+		return lowerCaseIds[id];
+	}
+
+	/**
+	 * Join the ids of a database and of a procedure
+	 * 
+	 * @param dbNameId
+	 *            id of the database name
+	 * @param nameId
+	 *            id of the procedure name
+	 * @return key of the procedure
+	 */
+	public static long getKey(int dbNameId, int nameId)
+	{
+		return ((long) dbNameId << 32) | (nameId & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * @return number of distinct names
+	 */
+	public synchronized int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Register a spelling not met yet
+	 */
+	private synchronized int register(String name)
+	{
+		String normalizedName = normalize(name);
+		Integer id = normalizedNames.get(normalizedName);
+		if (id == null)
+		{
+			if (size == names.length)
+			{
+				lowerCaseIds = Arrays.copyOf(lowerCaseIds, size * 2);
+				names = Arrays.copyOf(names, size * 2);
+			}
+
+			lowerCaseIds[size] = -1;
+			names[size] = name;
+			id = Integer.valueOf(size++);
+			normalizedNames.put(normalizedName, id);
+		}
+
+		spellings.put(name, id);
+		return id.intValue();
+	}
+
+	/**
+	 * Name compared according to the case sensitivity of the server
+	 */
+	private String normalize(String name)
+	{
+		return caseSensitive ? name : name.toLowerCase(Locale.ENGLISH);
+	}
+
+}
@@ -0,0 +1,196 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.	
+ */
+package com.googlecode.msidor.maven.plugins.sybase.procedures;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Maciej SIDOR
+ *
+ * Cache of procedures that do not exist.
+ * 
+ * <p>
+ * Once a procedure is known to be missing, all further calls of this procedure are resolved 
+ * without querying SYBASE again. Optionally, the missing procedures are persisted in a file 
+ * so that the next generations don't query them either until the entry expires.
+ * </p>
+ */
+public class SybaseProceduresNegativeCache
+{
+	/**
+	 * Time of detection of each missing procedure keyed by database and procedure name
+	 */
+	private Map<String, Long> missingProcedures = new ConcurrentHashMap<String, Long>();
+
+	/**
+	 * Number of references to missing procedures
+	 */
+	private AtomicInteger references = new AtomicInteger();
+
+	/**
+	 * Number of missing procedures that have been queried during the current generation
+	 */
+	private AtomicInteger queried = new AtomicInteger();
+
+	/**
+	 * The file persisting the cache or null if the cache is kept for the current generation only
+	 */
+	private File cacheFile = null;
+
+	/**
+	 * Validity of persisted entries in milliseconds
+	 */
+	private long expiration = 0;
+
+	/**
+	 * Cache kept for the current generation only
+	 */
+	public SybaseProceduresNegativeCache()
+	{
+
+	}
+
+	/**
+	 * Cache persisted in a file
+	 * 
+	 * @param cacheFile
+	 *            the file persisting the cache
+	 * @param expirationHours
+	 *            validity of persisted entries in hours
+	 * @throws IOException
+	 *             if the file could not be read
+	 */
+	public SybaseProceduresNegativeCache(File cacheFile, int expirationHours) throws IOException
+	{
+		this.cacheFile = cacheFile;
+		this.expiration = expirationHours * 3600000L;
+
+		if (cacheFile.exists())
+		{
+			Properties properties = new Properties();
+			InputStream in = new FileInputStream(cacheFile);
+			try
+			{
+				properties.load(in);
+			}
+			finally
+			{
+				in.close();
+			}
+
+			long now = System.currentTimeMillis();
+			for (String key : properties.stringPropertyNames())
+			{
+				try
+				{
+					Long detectionTime = Long.valueOf(properties.getProperty(key));
+					if (now - detectionTime.longValue() < expiration) missingProcedures.put(key, detectionTime);
+				}
+				catch (NumberFormatException e)
+				{
+					// ignore corrupted entry, the procedure will be queried again
+				}
+			}
+		}
+	}
+
+	/**
+	 * Check if the procedure is known to be missing
+	 * 
+	 * @param key
+	 *            database and procedure name joined with ".."
+	 * @return true if the procedure is known to be missing
+	 */
+	public boolean isMissing(String key)
+	{
+		return missingProcedures.containsKey(key);
+	}
+
+	/**
+	 * Register the procedure that has been queried and found missing
+	 * 
+	 * @param key
+	 *            database and procedure name joined with ".."
+	 */
+	public void addMissing(String key)
+	{
+		if (!missingProcedures.containsKey(key))
+		{
+			missingProcedures.put(key, Long.valueOf(System.currentTimeMillis()));
+			queried.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Count a reference (configuration entry or sub-procedure call) to a missing procedure. 
+	 * Every reference but the one that queried the procedure is a lookup saved by the cache.
+	 */
+	public void recordReference()
+	{
+		references.incrementAndGet();
+	}
+
+	/**
+	 * Write the cache to its file if the cache is persistent
+	 * 
+	 * @throws IOException
+	 *             if the file could not be written
+	 */
+	public void save() throws IOException
+	{
+		if (cacheFile == null) return;
+
+		Properties properties = new Properties();
+		for (Map.Entry<String, Long> entry : missingProcedures.entrySet())
+			properties.setProperty(entry.getKey(), entry.getValue().toString());
+
+		OutputStream out = new FileOutputStream(cacheFile);
+		try
+		{
+			properties.store(out, "sybase-proc-maven-plugin missing procedures");
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	/**
+	 * @return number of procedures known to be missing
+	 */
+	public int getMissingCount()
+	{
+		return missingProcedures.size();
+	}
+
+	/**
+	 * @return number of lookups that didn't query SYBASE thanks to the cache
+	 */
+	public int getSavedLookups()
+	{
+		return Math.max(0, references.get() - queried.get());
+	}
+
+}
@@ -0,0 +1,319 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.	
+ */
+package com.googlecode.msidor.maven.plugins.sybase.procedures;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Maciej SIDOR
+ *
+ * Persistent cache of the sub-procedure calls and table references found in the procedure bodies.
+ * 
+ * <p>
+ * The calls and table references are keyed by the MD5 digest of the whole body ({@link SybaseProceduresChecksum#getDigest()}), 
+ * so a body already parsed by a previous generation is not parsed again. The cache file is a binary file written 
+ * in a given format for the version of the lexer ({@link SybaseProceduresLexer#VERSION}): a cache written in another 
+ * format or by another version is discarded. 
+ * Entries that have not been used for the configured number of days are dropped when the cache is saved.
+ * </p>
+ */
+public class SybaseProceduresParseCache
+{
+	/**
+	 * Identifies the cache files
+	 */
+	private static final int MAGIC = 0x53504331;
+
+	/**
+	 * Version of the file format. The files of the first formats held the lexer version in its place, 
+	 * they were keyed by the checksum of the bodies, which leaves part of the text out.
+	 */
+	private static final int FORMAT = 3;
+
+	/**
+	 * One day in milliseconds
+	 */
+	private static final long DAY = 86400000L;
+
+	/**
+	 * Calls, table references and day of last use of a body
+	 */
+	private static class Entry
+	{
+		private List<SybaseProceduresLexer.CallSite> callSites;
+		private List<SybaseProceduresLexer.TableAccess> tableAccesses;
+		private int lastUse;
+
+		private Entry(List<SybaseProceduresLexer.CallSite> callSites, List<SybaseProceduresLexer.TableAccess> tableAccesses, int lastUse)
+		{
+			this.callSites = callSites;
+			this.tableAccesses = tableAccesses;
+			this.lastUse = lastUse;
+		}
+	}
+
+	/**
+	 * Entries keyed by body digest
+	 */
+	private Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+	/**
+	 * The file persisting the cache
+	 */
+	private File cacheFile = null;
+
+	/**
+	 * Number of days an unused entry is kept
+	 */
+	private int expiration = 0;
+
+	/**
+	 * Current day since epoch
+	 */
+	private int today = (int) (System.currentTimeMillis() / DAY);
+
+	/**
+	 * True if the file has been written by another version of the lexer
+	 */
+	private boolean outdated = false;
+
+	/**
+	 * Bodies found in the cache and bodies parsed during the current generation
+	 */
+	private AtomicInteger hits = new AtomicInteger();
+	private AtomicInteger misses = new AtomicInteger();
+
+	/**
+	 * Cache persisted in a file
+	 * 
+	 * @param cacheFile
+	 *            the file persisting the cache
+	 * @param expirationDays
+	 *            number of days an unused entry is kept
+	 * @throws IOException
+	 *             if the file could not be read
+	 */
+	public SybaseProceduresParseCache(File cacheFile, int expirationDays) throws IOException
+	{
+		this.cacheFile = cacheFile;
+		this.expiration = expirationDays;
+
+		if (!cacheFile.exists()) return;
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile), 65536));
+		try
+		{
+			if (in.readInt() != MAGIC || in.readInt() != FORMAT || in.readInt() != SybaseProceduresLexer.VERSION)
+			{
+				outdated = true;
+				return;
+			}
+
+			int count = in.readInt();
+			byte[] digest = new byte[16];
+			for (int i = 0; i < count; i++)
+			{
+				in.readFully(digest);
+				int lastUse = in.readInt();
+				int callCount = in.readUnsignedShort();
+
+				List<SybaseProceduresLexer.CallSite> callSites = new ArrayList<SybaseProceduresLexer.CallSite>(callCount);
+				for (int j = 0; j < callCount; j++)
+					callSites.add(new SybaseProceduresLexer.CallSite(in.readUTF(), in.readInt(), in.readBoolean()));
+
+				int tableCount = in.readUnsignedShort();
+				List<SybaseProceduresLexer.TableAccess> tableAccesses = new ArrayList<SybaseProceduresLexer.TableAccess>(tableCount);
+				for (int j = 0; j < tableCount; j++)
+					tableAccesses.add(new SybaseProceduresLexer.TableAccess(in.readUTF(), in.readInt(), in.readBoolean()));
+
+				entries.put(toHex(digest), new Entry(Collections.unmodifiableList(callSites), Collections.unmodifiableList(tableAccesses), lastUse));
+			}
+		}
+		catch (EOFException e)
+		{
+			// truncated file, the entries read so far are kept
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	/**
+	 * Set the calls and table references of a body parsed previously to the procedure
+	 * 
+	 * @param digest
+	 *            digest of the whole body
+	 * @param procedure
+	 *            the procedure of the body
+	 * @return true if the body is in the cache, false if it must be parsed
+	 */
+	public boolean restore(String digest, SybaseProcedure procedure)
+	{
+		Entry entry = entries.get(digest);
+		if (entry == null) return false;
+
+		entry.lastUse = today;
+		hits.incrementAndGet();
+		procedure.setCallSites(entry.callSites);
+		procedure.setTableAccesses(entry.tableAccesses);
+		return true;
+	}
+
+	/**
+	 * Register the calls and table references of a body just parsed
+	 * 
+	 * @param digest
+	 *            digest of the whole body
+	 * @param procedure
+	 *            the procedure of the body with its calls and table references set
+	 */
+	public void put(String digest, SybaseProcedure procedure)
+	{
+		List<SybaseProceduresLexer.CallSite> callSites = procedure.getCallSites();
+		List<SybaseProceduresLexer.TableAccess> tableAccesses = procedure.getTableAccesses();
+
+		// the numbers of calls and tables are stored on two bytes
+		if (callSites.size() > 0xFFFF || tableAccesses.size() > 0xFFFF) return;
+
+		entries.put(digest, new Entry(Collections.unmodifiableList(new ArrayList<SybaseProceduresLexer.CallSite>(callSites)),
+				Collections.unmodifiableList(new ArrayList<SybaseProceduresLexer.TableAccess>(tableAccesses)), today));
+		misses.incrementAndGet();
+	}
+
+	/**
+	 * Write the cache to its file dropping the expired entries
+	 * 
+	 * @throws IOException
+	 *             if the file could not be written
+	 */
+	public void save() throws IOException
+	{
+		List<Map.Entry<String, Entry>> kept = new ArrayList<Map.Entry<String, Entry>>(entries.size());
+		for (Map.Entry<String, Entry> entry : entries.entrySet())
+			if (today - entry.getValue().lastUse <= expiration) kept.add(entry);
+
+		File tempFile = new File(cacheFile.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 65536));
+		try
+		{
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT);
+			out.writeInt(SybaseProceduresLexer.VERSION);
+			out.writeInt(kept.size());
+
+			for (Map.Entry<String, Entry> entry : kept)
+			{
+				out.write(fromHex(entry.getKey()));
+				out.writeInt(entry.getValue().lastUse);
+				out.writeShort(entry.getValue().callSites.size());
+
+				for (SybaseProceduresLexer.CallSite callSite : entry.getValue().callSites)
+				{
+					out.writeUTF(callSite.getName());
+					out.writeInt(callSite.getOffset());
+					out.writeBoolean(callSite.isCommented());
+				}
+
+				out.writeShort(entry.getValue().tableAccesses.size());
+				for (SybaseProceduresLexer.TableAccess tableAccess : entry.getValue().tableAccesses)
+				{
+					out.writeUTF(tableAccess.getName());
+					out.writeInt(tableAccess.getOffset());
+					out.writeBoolean(tableAccess.isWrite());
+				}
+			}
+		}
+		finally
+		{
+			out.close();
+		}
+
+		if (cacheFile.exists() && !cacheFile.delete()) throw new IOException("Could not replace " + cacheFile);
+		if (!tempFile.renameTo(cacheFile)) throw new IOException("Could not rename " + tempFile + " to " + cacheFile);
+	}
+
+	/**
+	 * @return true if the cache file has been discarded as written by another version of the lexer
+	 */
+	public boolean isOutdated()
+	{
+		return outdated;
+	}
+
+	/**
+	 * @return number of bodies in the cache
+	 */
+	public int size()
+	{
+		return entries.size();
+	}
+
+	/**
+	 * @return number of bodies whose calls and table references have been found in the cache
+	 */
+	public int getHits()
+	{
+		return hits.get();
+	}
+
+	/**
+	 * @return number of bodies parsed during the current generation
+	 */
+	public int getMisses()
+	{
+		return misses.get();
+	}
+
+	/**
+	 * Hexadecimal representation of a digest
+	 */
+	private static String toHex(byte[] digest)
+	{
+		StringBuilder result = new StringBuilder(digest.length * 2);
+		for (byte b : digest)
+			result.append(Integer.toString((b & 0xff) + 0x100, 16).substring(1));
+
+		return result.toString();
+	}
+
+	/**
+	 * Digest of its hexadecimal representation
+	 */
+	private static byte[] fromHex(String digest)
+	{
+		byte[] result = new byte[16];
+		for (int i = 0; i < 16; i++)
+			result[i] = (byte) Integer.parseInt(digest.substring(i * 2, i * 2 + 2), 16);
+
+		return result;
+	}
+
+}
@@ -0,0 +1,151 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.	
+ */
+package com.googlecode.msidor.maven.plugins.sybase.procedures;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * @author Maciej SIDOR
+ *
+ * Procedures created during one generation.
+ * 
+ * <p>
+ * Each procedure is created once per generation whatever the number of threads retrieving it: 
+ * the lookups don't lock and the creation is atomic. The procedures are keyed by the ids of their 
+ * database and procedure names in the name table of the generation, so the names are compared 
+ * according to the case sensitivity of the server. A new registry is used by each execution 
+ * of the plugin so that nothing is kept from one execution to the next.
+ * </p>
+ */
+public class SybaseProceduresRegistry
+{
+	/**
+	 * Registry of the execution running in the thread and the threads it started. 
+	 * Only weakly referenced so that the registry is not kept once the execution is over.
+	 */
+	private static final InheritableThreadLocal<WeakReference<SybaseProceduresRegistry>> current = new InheritableThreadLocal<WeakReference<SybaseProceduresRegistry>>();
+
+	/**
+	 * Procedures keyed by the ids of their database and procedure names
+	 */
+	private ConcurrentMap<Long, SybaseProcedure> procedures = new ConcurrentHashMap<Long, SybaseProcedure>();
+
+	/**
+	 * Names of the procedures and databases
+	 */
+	private SybaseProceduresNameTable names;
+
+	/**
+	 * Registry comparing the names with case
+	 */
+	public SybaseProceduresRegistry()
+	{
+		this(new SybaseProceduresNameTable(true));
+	}
+
+	/**
+	 * @param names
+	 *            names of the procedures and databases of the generation
+	 */
+	public SybaseProceduresRegistry(SybaseProceduresNameTable names)
+	{
+		this.names = names;
+	}
+
+	/**
+	 * Get the procedure created already
+	 * 
+	 * @param dbName
+	 *            procedure database name
+	 * @param name
+	 *            procedure name
+	 * @return the procedure or null if not created yet
+	 */
+	public SybaseProcedure get(String dbName, String name)
+	{
+		int dbNameId = names.findId(dbName);
+		int nameId = names.findId(name);
+		if (dbNameId < 0 || nameId < 0) return null;
+
+		return procedures.get(Long.valueOf(SybaseProceduresNameTable.getKey(dbNameId, nameId)));
+	}
+
+	/**
+	 * Get the procedure or create it if not created yet
+	 * 
+	 * @param dbName
+	 *            procedure database name
+	 * @param name
+	 *            procedure name
+	 * @param creationDate
+	 *            compilation date used if the procedure is created
+	 * @return the only procedure of that name in the generation
+	 */
+	public SybaseProcedure getOrCreate(String dbName, String name, String creationDate)
+	{
+		int dbNameId = names.getId(dbName);
+		int nameId = names.getId(name);
+		Long key = Long.valueOf(SybaseProceduresNameTable.getKey(dbNameId, nameId));
+
+		SybaseProcedure procedure = procedures.get(key);
+		if (procedure != null) return procedure;
+
+		// the names are shared by all the procedures of the generation
+		procedure = new SybaseProcedure(names.getName(dbNameId), names.getName(nameId), creationDate);
+		procedure.setNameIds(dbNameId, nameId);
+		SybaseProcedure existing = procedures.putIfAbsent(key, procedure);
+
+		return existing != null ? existing : procedure;
+	}
+
+	/**
+	 * Make this registry the one of the execution running in the current thread. 
+	 * The threads started afterwards by the current thread use it as well, 
+	 * unlike the threads of the pools created beforehand such as the common ForkJoin pool.
+	 */
+	void makeCurrent()
+	{
+		current.set(new WeakReference<SybaseProceduresRegistry>(this));
+	}
+
+	/**
+	 * @return registry of the execution running in the current thread or null if none
+	 */
+	static SybaseProceduresRegistry getCurrent()
+	{
+		WeakReference<SybaseProceduresRegistry> reference = current.get();
+		return reference != null ? reference.get() : null;
+	}
+
+	/**
+	 * @return names of the procedures and databases of the generation
+	 */
+	public SybaseProceduresNameTable getNames()
+	{
+		return names;
+	}
+
+	/**
+	 * @return number of procedures created
+	 */
+	public int size()
+	{
+		return procedures.size();
+	}
+
+}
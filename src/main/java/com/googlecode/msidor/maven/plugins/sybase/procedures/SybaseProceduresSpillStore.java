@@ -0,0 +1,239 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.	
+ */
+package com.googlecode.msidor.maven.plugins.sybase.procedures;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author Maciej SIDOR
+ *
+ * Memory-mapped file keeping the procedure bodies out of the heap.
+ * 
+ * <p>
+ * Once the calls of a procedure are known, its body is only needed again to write its SQL script. 
+ * The bodies are kept on the heap as long as their total size stays within the heap budget; 
+ * past the budget, the bodies are appended to the spill file and the procedures only keep 
+ * their offset, length and checksum. The file is mapped in segments and deleted when the store is closed.
+ * </p>
+ */
+public class SybaseProceduresSpillStore
+{
+	/**
+	 * Size in bytes of the mapped segments
+	 */
+	private static final int SEGMENT_SIZE = 1 << 26;
+
+	/**
+	 * The spill file
+	 */
+	private File file;
+
+	/**
+	 * The spill file opened
+	 */
+	private RandomAccessFile randomAccessFile;
+
+	/**
+	 * The mapped segments in file order
+	 */
+	private List<MappedByteBuffer> segments = new ArrayList<MappedByteBuffer>();
+
+	/**
+	 * Number of bytes written
+	 */
+	private long size = 0;
+
+	/**
+	 * Size in bytes of the bodies allowed to stay on the heap
+	 */
+	private long heapBudget;
+
+	/**
+	 * Size in bytes of the bodies kept on the heap
+	 */
+	private long heapBytes = 0;
+
+	/**
+	 * Number of bodies spilled
+	 */
+	private int spilledCount = 0;
+
+	/**
+	 * Open the store
+	 * 
+	 * @param file
+	 *            the spill file, overwritten
+	 * @param heapBudget
+	 *            size in bytes of the bodies allowed to stay on the heap
+	 * @throws IOException
+	 *             if the file could not be opened
+	 */
+	public SybaseProceduresSpillStore(File file, long heapBudget) throws IOException
+	{
+		this.file = file;
+		this.heapBudget = heapBudget;
+
+		randomAccessFile = new RandomAccessFile(file, "rw");
+		randomAccessFile.setLength(0);
+	}
+
+	/**
+	 * Keep the body of the procedure on the heap if the budget allows, spill it otherwise
+	 * 
+	 * @param procedure
+	 *            the procedure which calls are known
+	 * @throws IOException
+	 *             if the body could not be written
+	 */
+	public synchronized void retain(SybaseProcedure procedure) throws IOException
+	{
+		if (procedure.isKeptInScript()) return;
+
+		String body = procedure.getBody();
+		if (body == null || procedure.isSpilled()) return;
+
+		long bodyBytes = 2L * body.length();
+		if (heapBytes + bodyBytes <= heapBudget)
+		{
+			heapBytes += bodyBytes;
+			return;
+		}
+
+		// the checksum is what tells later whether the script must be written
+		if (procedure.getChecksum() == null)
+		{
+			SybaseProceduresChecksum checksum = new SybaseProceduresChecksum();
+			checksum.update(body);
+			procedure.setChecksum(checksum.getChecksum());
+		}
+
+		long offset = size;
+		write(body);
+		procedure.spill(this, offset, body.length());
+		spilledCount++;
+	}
+
+	/**
+	 * Read a body back
+	 * 
+	 * @param offset
+	 *            offset of the body in the file
+	 * @param length
+	 *            number of characters of the body
+	 * @return the body
+	 */
+	public synchronized String read(long offset, int length)
+	{
+		char[] body = new char[length];
+		int read = 0;
+		while (read < length)
+		{
+			long position = offset + 2L * read;
+			ByteBuffer segment = segments.get((int) (position / SEGMENT_SIZE)).duplicate();
+			segment.position((int) (position % SEGMENT_SIZE));
+
+			CharBuffer chars = segment.asCharBuffer();
+			int count = Math.min(length - read, chars.remaining());
+			chars.get(body, read, count);
+			read += count;
+		}
+
+		return new String(body);
+	}
+
+	/**
+	 * Close the store and delete the spill file
+	 */
+	public synchronized void close()
+	{
+		segments.clear();
+		try
+		{
+			randomAccessFile.close();
+		}
+		catch (IOException e)
+		{
+			// nothing more to do with the file
+		}
+
+		// the file may stay mapped until the segments are garbage collected
+		if (!file.delete()) file.deleteOnExit();
+	}
+
+	/**
+	 * @return number of bodies spilled
+	 */
+	public synchronized int getSpilledCount()
+	{
+		return spilledCount;
+	}
+
+	/**
+	 * @return size in bytes of the bodies spilled
+	 */
+	public synchronized long getSpilledBytes()
+	{
+		return size;
+	}
+
+	/**
+	 * @return size in bytes of the bodies kept on the heap
+	 */
+	public synchronized long getHeapBytes()
+	{
+		return heapBytes;
+	}
+
+	/**
+	 * @return the spill file
+	 */
+	public File getFile()
+	{
+		return file;
+	}
+
+	/**
+	 * Append the body to the file, mapping new segments as needed
+	 */
+	private void write(String body) throws IOException
+	{
+		int written = 0;
+		while (written < body.length())
+		{
+			int segmentIndex = (int) (size / SEGMENT_SIZE);
+			if (segmentIndex == segments.size())
+				segments.add(randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, (long) segmentIndex * SEGMENT_SIZE, SEGMENT_SIZE));
+
+			ByteBuffer segment = segments.get(segmentIndex).duplicate();
+			segment.position((int) (size % SEGMENT_SIZE));
+
+			CharBuffer chars = segment.asCharBuffer();
+			int count = Math.min(body.length() - written, chars.remaining());
+			chars.put(body, written, written + count);
+			written += count;
+			size += 2L * count;
+		}
+	}
+
+}
@@ -0,0 +1,83 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.	
+ */
+package com.googlecode.msidor.maven.plugins.sybase.procedures;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author Maciej SIDOR
+ *
+ * Time spent by one stage of the procedures retrieval (fetching or parsing) 
+ * summed over all the tasks of the stage whatever the thread they ran on.
+ */
+public class SybaseProceduresStageTime
+{
+	/**
+	 * Number of tasks
+	 */
+	private AtomicInteger tasks = new AtomicInteger();
+
+	/**
+	 * Number of procedures processed by the tasks
+	 */
+	private AtomicInteger procedures = new AtomicInteger();
+
+	/**
+	 * Time spent in the tasks in milliseconds
+	 */
+	private AtomicLong busyTime = new AtomicLong();
+
+	/**
+	 * Record a task of the stage
+	 * 
+	 * @param procedureCount
+	 *            number of procedures processed by the task
+	 * @param start
+	 *            start time of the task in nanoseconds as given by System.nanoTime()
+	 */
+	public void record(int procedureCount, long start)
+	{
+		tasks.incrementAndGet();
+		procedures.addAndGet(procedureCount);
+		busyTime.addAndGet((System.nanoTime() - start) / 1000000L);
+	}
+
+	/**
+	 * @return number of tasks
+	 */
+	public int getTasks()
+	{
+		return tasks.get();
+	}
+
+	/**
+	 * @return number of procedures processed by the tasks
+	 */
+	public int getProcedures()
+	{
+		return procedures.get();
+	}
+
+	/**
+	 * @return time spent in the tasks in milliseconds
+	 */
+	public long getBusyTime()
+	{
+		return busyTime.get();
+	}
+
+}
@@ -0,0 +1,289 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.	
+ */
+package com.googlecode.msidor.maven.plugins.sybase.procedures;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Set;
+
+/**
+ * @author Maciej SIDOR
+ *
+ * Iterative traversal engine of the procedures call graph.
+ * 
+ * <p>
+ * The nodes waiting to be visited are kept in an explicit work-queue instead of the call stack
+ * so that the call chains of any depth can be traversed. Each node is visited once per set of
+ * visited keys. The visit order is one of:
+ * <ul>
+ * <li>{@link Order#DEPTH_FIRST} - the children of a node are visited, in order, before its next sibling. 
+ *     Same order as the recursive traversal.</li>
+ * <li>{@link Order#BREADTH_FIRST} - all the nodes of a level are visited before the next level</li>
+ * <li>{@link Order#PRIORITY} - the pending nodes are visited according to the comparator given</li>
+ * </ul>
+ * The pending work is bounded by the number of nodes rather than by the depth of the calls: the depth-first 
+ * stack holds at most one frame per distinct node and the other queues hold each node at most once.
+ * </p>
+ * 
+ * @param <T> type of the nodes traversed
+ */
+public class SybaseProceduresTraversal<T>
+{
+	/**
+	 * Visit order of the nodes
+	 */
+	public static enum Order
+	{
+		DEPTH_FIRST, BREADTH_FIRST, PRIORITY
+	}
+
+	/**
+	 * Node waiting to be visited with its level
+	 */
+	private static class Entry<T>
+	{
+		private T node;
+		private int level;
+
+		private Entry(T node, int level)
+		{
+			this.node = node;
+			this.level = level;
+		}
+	}
+
+	/**
+	 * Depth-first stack frame: the children of a visited node and the index of the next child to visit
+	 */
+	private static class Frame<T>
+	{
+		private List<T> nodes;
+		private int level;
+		private int index = 0;
+
+		private Frame(List<T> nodes, int level)
+		{
+			this.nodes = nodes;
+			this.level = level;
+		}
+	}
+
+	/**
+	 * The visit order
+	 */
+	private Order order;
+
+	/**
+	 * The visitor
+	 */
+	private SybaseProceduresVisitorI<T> visitor;
+
+	/**
+	 * Nodes waiting to be visited in breadth-first and priority order
+	 */
+	private Queue<Entry<T>> queue;
+
+	/**
+	 * Stack of the depth-first order
+	 */
+	private LinkedList<Frame<T>> frames = new LinkedList<Frame<T>>();
+
+	/**
+	 * The maximum number of nodes or frames waiting at once
+	 */
+	private int maxPending = 0;
+
+	/**
+	 * The number of nodes reached again and skipped because their keys were visited or queued already
+	 */
+	private int skippedCount = 0;
+
+	/**
+	 * Create depth-first or breadth-first traversal
+	 * 
+	 * @param order
+	 *            the visit order, {@link Order#PRIORITY} requires a comparator
+	 * @param visitor
+	 *            the visitor
+	 */
+	public SybaseProceduresTraversal(Order order, SybaseProceduresVisitorI<T> visitor)
+	{
+		this(order, null, visitor);
+	}
+
+	/**
+	 * Create the traversal
+	 * 
+	 * @param order
+	 *            the visit order
+	 * @param priority
+	 *            comparator of the pending nodes, the lowest is visited first. Used by {@link Order#PRIORITY} only.
+	 * @param visitor
+	 *            the visitor
+	 */
+	public SybaseProceduresTraversal(Order order, final Comparator<T> priority, SybaseProceduresVisitorI<T> visitor)
+	{
+		this.order = order;
+		this.visitor = visitor;
+
+		if (order == Order.PRIORITY)
+		{
+			if (priority == null) throw new IllegalArgumentException("Priority order requires a comparator");
+
+			queue = new PriorityQueue<Entry<T>>(16, new Comparator<Entry<T>>()
+			{
+				@Override
+				public int compare(Entry<T> o1, Entry<T> o2)
+				{
+					return priority.compare(o1.node, o2.node);
+				}
+			});
+		}
+		else queue = new ArrayDeque<Entry<T>>();
+	}
+
+	/**
+	 * Traverse the nodes reachable from the roots. The nodes which keys are already in the visited set are skipped.
+	 * 
+	 * @param roots
+	 *            the roots, visited at level 0
+	 * @param visited
+	 *            the keys of the nodes visited, updated during the traversal
+	 * @throws Exception
+	 *             if the visitor failed
+	 */
+	public void traverse(List<T> roots, Set<Object> visited) throws Exception
+	{
+		if (order == Order.DEPTH_FIRST) traverseDepthFirst(roots, visited);
+		else traverseQueue(roots, visited);
+	}
+
+	/**
+	 * Depth-first traversal. The node is checked when reached so that the visit order is exactly the one of the
+	 * recursive traversal.
+	 */
+	private void traverseDepthFirst(List<T> roots, Set<Object> visited) throws Exception
+	{
+		frames.clear();
+		frames.addFirst(new Frame<T>(roots, 0));
+
+		while (!frames.isEmpty())
+		{
+			Frame<T> frame = frames.getFirst();
+			if (frame.index >= frame.nodes.size())
+			{
+				frames.removeFirst();
+				continue;
+			}
+
+			T node = frame.nodes.get(frame.index++);
+			if (!visited.add(visitor.getKey(node)))
+			{
+				skippedCount++;
+				continue;
+			}
+
+			List<T> children = visitor.visit(node, frame.level, this);
+			if (children != null && !children.isEmpty())
+			{
+				frames.addFirst(new Frame<T>(children, frame.level + 1));
+				maxPending = Math.max(maxPending, frames.size());
+			}
+		}
+	}
+
+	/**
+	 * Breadth-first or priority traversal. The node is checked when queued so that each node is queued once.
+	 */
+	private void traverseQueue(List<T> roots, Set<Object> visited) throws Exception
+	{
+		queue.clear();
+		for (T root : roots)
+			enqueue(root, 0, visited);
+
+		while (!queue.isEmpty())
+		{
+			Entry<T> entry = queue.poll();
+
+			List<T> children = visitor.visit(entry.node, entry.level, this);
+			if (children != null)
+			{
+				for (T child : children)
+					enqueue(child, entry.level + 1, visited);
+			}
+		}
+	}
+
+	/**
+	 * Queue the node unless already visited or queued
+	 */
+	private void enqueue(T node, int level, Set<Object> visited)
+	{
+		if (visited.add(visitor.getKey(node)))
+		{
+			queue.add(new Entry<T>(node, level));
+			maxPending = Math.max(maxPending, queue.size());
+		}
+		else skippedCount++;
+	}
+
+	/**
+	 * Get the nodes waiting to be visited. In depth-first order, the nodes may have been visited already through
+	 * another path and will be skipped when reached.
+	 * 
+	 * @return the pending nodes in no particular order
+	 */
+	public List<T> getPendingNodes()
+	{
+		List<T> pending = new ArrayList<T>();
+
+		if (order == Order.DEPTH_FIRST)
+		{
+			for (Frame<T> frame : frames)
+				pending.addAll(frame.nodes.subList(frame.index, frame.nodes.size()));
+		}
+		else
+		{
+			for (Entry<T> entry : queue)
+				pending.add(entry.node);
+		}
+
+		return pending;
+	}
+
+	/**
+	 * @return the maximum number of pending nodes (or depth-first frames) reached during the traversals
+	 */
+	public int getMaxPending()
+	{
+		return maxPending;
+	}
+
+	/**
+	 * @return the number of nodes reached again during the traversals and skipped because their keys were 
+	 *         visited or queued already
+	 */
+	public int getSkippedCount()
+	{
+		return skippedCount;
+	}
+
+}
@@ -0,0 +1,54 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.	
+ */
+package com.googlecode.msidor.maven.plugins.sybase.procedures;
+
+import java.util.List;
+
+/**
+ * @author Maciej SIDOR
+ *
+ * Callback of the traversal engine invoked once per node reached
+ * 
+ * @param <T> type of the nodes traversed
+ */
+public interface SybaseProceduresVisitorI<T>
+{
+
+	/**
+	 * Get the key identifying the node. A node is visited only once per set of visited keys.
+	 * 
+	 * @param node
+	 *            the node
+	 * @return key of the node, compared with equals
+	 */
+	public abstract Object getKey(T node);
+
+	/**
+	 * Visit the node
+	 * 
+	 * @param node
+	 *            the node to visit
+	 * @param level
+	 *            the nested level of the node (the roots are at level 0)
+	 * @param traversal
+	 *            the traversal calling the visitor
+	 * @return the child nodes to traverse, in order
+	 * @throws Exception
+	 *             if the node could not be visited. The traversal is stopped.
+	 */
+	public abstract List<T> visit(T node, int level, SybaseProceduresTraversal<T> traversal) throws Exception;
+
+}
@@ -0,0 +1,188 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.	
+ */
+package com.googlecode.msidor.maven.plugins.sybase.procedures;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * @author Maciej SIDOR
+ *
+ * Reads the procedure call edges from the "sysdepends" catalog.
+ * 
+ * <p>
+ * The edges of a database are read with one query the first time a procedure of this database is requested.
+ * Concurrent requests for the same database wait for the same reading, the readings of different databases run concurrently.
+ * Only the calls between procedures of the same database are recorded by SYBASE, 
+ * dynamic and cross-database calls have to be found by body scanning.
+ * </p>
+ */
+public class SysdependsSybaseProceduresDependencies
+{
+	/**
+	 * DAO used to query SYBASE
+	 */
+	private SybaseProceduresMojoDAOI dao = null;
+
+	/**
+	 * MOJO logger
+	 */
+	private Log log = null;
+
+	/**
+	 * The readings of the edges of each database keyed by database name. 
+	 * Each reading gives the procedures called by each procedure keyed by calling procedure name.
+	 */
+	private ConcurrentMap<String, FutureTask<Map<String, List<String>>>> databases = new ConcurrentHashMap<String, FutureTask<Map<String, List<String>>>>();
+
+	/**
+	 * @param dao DAO used to query SYBASE
+	 * @param log MOJO logger
+	 */
+	public SysdependsSybaseProceduresDependencies(SybaseProceduresMojoDAOI dao, Log log)
+	{
+		this.dao = dao;
+		this.log = log;
+	}
+
+	/**
+	 * Get the names of procedures called by the procedure as recorded in "sysdepends"
+	 * 
+	 * @param dbName
+	 *            database name
+	 * @param procedureName
+	 *            calling procedure name
+	 * @return names of called procedures of the same database
+	 * @throws SQLException
+	 *             if error occurred while reading the catalog
+	 */
+	public List<String> getCalledProcedures(String dbName, String procedureName) throws SQLException
+	{
+		List<String> calledProcedures = getDatabaseDependencies(dbName).get(procedureName);
+		if (calledProcedures == null) return Collections.emptyList();
+
+		return calledProcedures;
+	}
+
+	/**
+	 * Get the procedure call edges of the database reading them unless done already.
+	 * Concurrent requests for the same database wait for the same reading.
+	 * 
+	 * @param dbName
+	 *            database name
+	 * @return names of called procedures keyed by calling procedure name
+	 * @throws SQLException
+	 *             if error occurred while reading the catalog
+	 */
+	private Map<String, List<String>> getDatabaseDependencies(final String dbName) throws SQLException
+	{
+		FutureTask<Map<String, List<String>>> reading = new FutureTask<Map<String, List<String>>>(new Callable<Map<String, List<String>>>()
+		{
+			@Override
+			public Map<String, List<String>> call() throws Exception
+			{
+				return readDependencies(dbName);
+			}
+		});
+
+		FutureTask<Map<String, List<String>>> existingReading = databases.putIfAbsent(dbName, reading);
+		if (existingReading == null)
+			reading.run();
+		else
+			reading = existingReading;
+
+		try
+		{
+			return reading.get();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while reading " + dbName + " dependencies");
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof SQLException) throw (SQLException) e.getCause();
+			throw new SQLException("Could not read " + dbName + " dependencies: " + e.getCause());
+		}
+	}
+
+	/**
+	 * Read all the procedure call edges of the database
+	 * 
+	 * @param dbName
+	 *            database name
+	 * @return names of called procedures keyed by calling procedure name
+	 * @throws SQLException
+	 *             if error occurred while reading the catalog
+	 */
+	private Map<String, List<String>> readDependencies(String dbName) throws SQLException
+	{
+		log.info("Reading " + dbName + " dependencies...");
+
+		Map<String, List<String>> edges = new HashMap<String, List<String>>();
+		int count = 0;
+
+		Statement statement = dao.executeSybaseQuery(dbName, "select distinct o.name caller, r.name callee from " + dbName + "..sysdepends d, " + dbName + "..sysobjects o, " + dbName + "..sysobjects r" 
+				+ " where d.id = o.id and d.depid = r.id and o.type = 'P' and r.type = 'P' order by o.name, r.name");
+		try
+		{
+			// skip update counts up to the result set
+			ResultSet rs = statement.getResultSet();
+			while (rs == null && (statement.getMoreResults() || statement.getUpdateCount() != -1))
+				rs = statement.getResultSet();
+
+			if (rs != null)
+			{
+				while (rs.next())
+				{
+					String caller = rs.getString("caller");
+					List<String> calledProcedures = edges.get(caller);
+					if (calledProcedures == null)
+					{
+						calledProcedures = new ArrayList<String>();
+						edges.put(caller, calledProcedures);
+					}
+					calledProcedures.add(rs.getString("callee"));
+					count++;
+				}
+				rs.close();
+			}
+		}
+		finally
+		{
+			dao.closeSybaseStatement(statement);
+		}
+
+		log.debug(count + " dependencies found in " + dbName);
+
+		return edges;
+	}
+
+}
@@ -0,0 +1,244 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.	
+ */
+package com.googlecode.msidor.maven.plugins.sybase.procedures;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * @author Maciej SIDOR
+ *
+ * Engine retrieving the requested stored procedures through a session temp table joined with "sysobjects" 
+ * and "syscomments" catalogs.
+ * 
+ * <p>
+ * All names requested in a database are inserted by groups in one SQL batch into a temp table of its own which is then joined 
+ * with the catalog, so the compilation dates and the bodies of all of them come back in one ordered stream 
+ * together with the list of the names that do not exist. 
+ * Unlike the catalog sweep, only the requested procedures are transferred, which suits very large configured 
+ * lists covering a small part of big databases. It requires the read access to the system tables and 
+ * the right to create temp tables.
+ * </p>
+ * 
+ * <p>
+ * A name qualified with the owner is looked up as is, an unqualified one is resolved like SYBASE does 
+ * to the procedure of the current user, otherwise to the one of "dbo". 
+ * The compilation dates have the format of "sp_help".
+ * </p>
+ */
+public class TempTableSybaseProceduresFetcher extends AbstractSybaseProceduresFetcher
+{
+	/**
+	 * Name prefix of the session temp tables
+	 */
+	private static final String TEMP_TABLE = "#sybproc_requested";
+
+	/**
+	 * Number of names inserted in the temp table by one statement
+	 */
+	private static final int INSERT_GROUP_SIZE = 50;
+
+	/**
+	 * Number of the temp tables created so far, each batch has its own table
+	 */
+	private AtomicInteger tableCount = new AtomicInteger();
+
+	/**
+	 * Label of the first column of the result set with the procedure bodies
+	 */
+	private static final String MARKER_PROCEDURES = "sybproc_requested";
+
+	/**
+	 * Label of the first column of the result set with the missing procedures
+	 */
+	private static final String MARKER_MISSING = "sybproc_missing";
+
+	/**
+	 * @param dao DAO used to query SYBASE
+	 * @param log MOJO logger
+	 */
+	public TempTableSybaseProceduresFetcher(SybaseProceduresMojoDAOI dao, Log log)
+	{
+		super(dao, log);
+	}
+
+	/**
+	 * Retrieve procedure basic info and its body. Sub-procedure calls are not checked.
+	 * 
+	 * @param procedureName
+	 *            name of procedure to retrieve
+	 * @param dbName
+	 *            name of database of the procedure
+	 * @return Procedure object with its body or null if the procedure does not exist
+	 * @throws SQLException
+	 *             if error occurred during procedure retrieval
+	 */
+	@Override
+	public SybaseProcedure fetchProcedure(String procedureName, String dbName) throws SQLException
+	{
+		List<String[]> procedures = Collections.singletonList(new String[] { dbName, procedureName });
+		return fetchProcedures(procedures).get(dbName + ".." + procedureName);
+	}
+
+	/**
+	 * Retrieve basic info and body of several procedures with one SQL batch per database.
+	 * 
+	 * @param procedures
+	 *            database and procedure name pairs of the procedures to retrieve
+	 * @return Procedure objects keyed by database and procedure name joined with ".." as requested. 
+	 *            Procedures that do not exist are mapped to null.
+	 * @throws SQLException
+	 *             if error occurred during procedures retrieval
+	 */
+	@Override
+	public Map<String, SybaseProcedure> fetchProcedures(List<String[]> procedures) throws SQLException
+	{
+		Map<String, SybaseProcedure> result = new LinkedHashMap<String, SybaseProcedure>();
+
+		// distinct procedure names grouped by database
+		Map<String, List<String>> namesByDatabase = new LinkedHashMap<String, List<String>>();
+		for (String[] procedure : procedures)
+		{
+			String key = procedure[0] + ".." + procedure[1];
+			if (result.containsKey(key)) continue;
+			result.put(key, null);
+
+			List<String> names = namesByDatabase.get(procedure[0]);
+			if (names == null)
+			{
+				names = new ArrayList<String>();
+				namesByDatabase.put(procedure[0], names);
+			}
+			names.add(procedure[1]);
+		}
+
+		for (Map.Entry<String, List<String>> database : namesByDatabase.entrySet())
+			fetchDatabaseProcedures(database.getKey(), database.getValue(), result);
+
+		return result;
+	}
+
+	/**
+	 * Retrieve the procedures of one database with one SQL batch
+	 * 
+	 * @param dbName
+	 *            name of database
+	 * @param names
+	 *            distinct names of the procedures to retrieve
+	 * @param result
+	 *            procedures found keyed by database and procedure name
+	 * @throws SQLException
+	 *             if error occurred during the batch execution
+	 */
+	private void fetchDatabaseProcedures(String dbName, List<String> names, Map<String, SybaseProcedure> result) throws SQLException
+	{
+		log.debug("Retrieving " + names.size() + " procedures of " + dbName + " through a temp table");
+
+		// the name is unique so the table left by a failed batch on the same connection 
+		// does not prevent the creation, which SYBASE checks when the whole batch is compiled
+		String table = TEMP_TABLE + tableCount.incrementAndGet();
+
+		StringBuilder batch = new StringBuilder();
+		batch.append("create table ").append(table).append(" (requested varchar(255) not null, owner varchar(30) null, name varchar(255) not null, id int null)\n");
+		for (int i = 0; i < names.size(); i++)
+		{
+			String name = names.get(i);
+			int dot = name.lastIndexOf('.');
+			String owner = dot < 0 ? "convert(varchar(30), null)" : "'" + name.substring(0, dot).replace("'", "''") + "'";
+
+			// the names are inserted by groups of selects joined with "union all"
+			batch.append(i % INSERT_GROUP_SIZE == 0 ? "insert into " + table + " " : " union all ");
+			batch.append("select '").append(name.replace("'", "''")).append("', ").append(owner)
+					.append(", '").append(name.substring(dot + 1).replace("'", "''")).append("', null");
+			if (i % INSERT_GROUP_SIZE == INSERT_GROUP_SIZE - 1 || i == names.size() - 1) batch.append("\n");
+		}
+		// the procedure of the owner or of "dbo", then the one of the current user for the unqualified names
+		batch.append("update ").append(table).append(" set id = o.id from ").append(table).append(", ").append(dbName).append("..sysobjects o")
+				.append(" where o.name = ").append(table).append(".name and o.type = 'P' and user_name(o.uid) = isnull(").append(table).append(".owner, 'dbo')\n");
+		batch.append("update ").append(table).append(" set id = o.id from ").append(table).append(", ").append(dbName).append("..sysobjects o")
+				.append(" where o.name = ").append(table).append(".name and o.type = 'P' and o.uid = user_id() and ").append(table).append(".owner is null\n");
+		batch.append("select r.requested ").append(MARKER_PROCEDURES).append(", ").append(CATALOG_COLUMNS).append(", c.text from ").append(table).append(" r, ")
+				.append(dbName).append("..sysobjects o, ").append(dbName).append("..syscomments c")
+				.append(" where o.id = r.id and c.id = o.id order by r.requested, c.number, c.colid2, c.colid\n");
+		batch.append("select r.requested ").append(MARKER_MISSING).append(" from ").append(table).append(" r where r.id is null\n");
+		batch.append("drop table ").append(table).append("\n");
+
+		List<String> missing = new ArrayList<String>();
+
+		Statement statement = dao.executeSybaseQuery(dbName, batch.toString());
+		try
+		{
+			ResultSet rs = nextResultSet(statement, true);
+			while (rs != null)
+			{
+				String label = rs.getMetaData().getColumnLabel(1);
+				if (MARKER_PROCEDURES.equalsIgnoreCase(label))
+				{
+					// the rows of the same requested procedure follow each other
+					// so the body is complete as soon as the requested name changes
+					String currentName = null;
+					SybaseProcedure procedure = null;
+					SybaseProceduresBodyReader body = createBodyReader(null);
+
+					while (rs.next())
+					{
+						String name = rs.getString(MARKER_PROCEDURES);
+						if (!name.equals(currentName))
+						{
+							if (procedure != null) body.complete(procedure);
+
+							currentName = name;
+							procedure = createProcedure(dbName, name, rs.getString("crdate"));
+							result.put(dbName + ".." + name, procedure);
+							body = createBodyReader(procedure);
+
+							log.debug(dbName + ".." + name + " compiled " + procedure.getCreationDate());
+						}
+
+						body.read(rs.getString("text"));
+					}
+
+					if (procedure != null) body.complete(procedure);
+				}
+				else if (MARKER_MISSING.equalsIgnoreCase(label))
+				{
+					while (rs.next())
+						missing.add(rs.getString(MARKER_MISSING));
+				}
+
+				rs.close();
+				rs = nextResultSet(statement, false);
+			}
+		}
+		finally
+		{
+			dao.closeSybaseStatement(statement);
+		}
+
+		// all the missing procedures are known at once
+		if (!missing.isEmpty()) log.warn(missing.size() + " procedures of " + dbName + " are missing: " + missing);
+	}
+
+}
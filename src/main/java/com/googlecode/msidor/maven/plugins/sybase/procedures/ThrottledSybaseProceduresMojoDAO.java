@@ -0,0 +1,233 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.	
+ */
+package com.googlecode.msidor.maven.plugins.sybase.procedures;
+
+import java.net.MalformedURLException;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransactionRollbackException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.apache.xmlrpc.XmlRpcException;
+
+/**
+ * @author Maciej SIDOR
+ *
+ * DAO for Sybase MOJOs passing the queries through a concurrency controller. 
+ * A query holds its slot from its execution until its statement is closed. 
+ * Its latency is measured from the time it got its connection until its statement is closed, 
+ * so that the wait for a connection of the pool is not taken for the server being slow. 
+ * Only the connection, timeout and deadlock errors tell the controller the server is overloaded: 
+ * the other errors, such as a missing procedure, are outcomes of the query like any other.
+ */
+public class ThrottledSybaseProceduresMojoDAO implements SybaseProceduresMojoDAOI
+{
+	/**
+	 * SYBASE error of a transaction chosen as deadlock victim
+	 */
+	private static final int DEADLOCK_ERROR = 1205;
+
+	/**
+	 * The DAO executing the queries
+	 */
+	private SybaseProceduresMojoDAOI dao;
+
+	/**
+	 * The concurrency controller
+	 */
+	private SybaseProceduresConcurrencyController controller;
+
+	/**
+	 * Start time of the queries which statements are still open
+	 */
+	private Map<Statement, Long> runningQueries = Collections.synchronizedMap(new IdentityHashMap<Statement, Long>());
+
+	/**
+	 * @param dao DAO executing the queries
+	 * @param controller concurrency controller
+	 */
+	public ThrottledSybaseProceduresMojoDAO(SybaseProceduresMojoDAOI dao, SybaseProceduresConcurrencyController controller)
+	{
+		this.dao = dao;
+		this.controller = controller;
+	}
+
+	@Override
+	public void updateConfluencePage(Object cookie, HashMap<Object, Object> page, HashMap<Object, Object> pageUpdateOptions) throws XmlRpcException
+	{
+		dao.updateConfluencePage(cookie, page, pageUpdateOptions);
+	}
+
+	@Override
+	public HashMap<Object, Object> getConfluencePage(Object cookie, String confluencePageID) throws XmlRpcException
+	{
+		return dao.getConfluencePage(cookie, confluencePageID);
+	}
+
+	@Override
+	public Object authenticateToConfluence(String confleunceUser, String confluencePassword) throws XmlRpcException
+	{
+		return dao.authenticateToConfluence(confleunceUser, confluencePassword);
+	}
+
+	@Override
+	public void initializeXmlRpcClient(String confluenceServer) throws MalformedURLException
+	{
+		dao.initializeXmlRpcClient(confluenceServer);
+	}
+
+	@Override
+	public void connectToSybase(String syabseDriver, String syabseUser, String sybasePassword, String connectionString) throws Exception
+	{
+		dao.connectToSybase(syabseDriver, syabseUser, sybasePassword, connectionString);
+	}
+
+	@Override
+	public void connectToSybase(String syabseDriver, String syabseUser, String sybasePassword, String connectionString, int connectionPoolSize) throws Exception
+	{
+		dao.connectToSybase(syabseDriver, syabseUser, sybasePassword, connectionString, connectionPoolSize);
+	}
+
+	@Override
+	public void connectToSybase(String syabseDriver, String syabseUser, String sybasePassword, String connectionString, int connectionPoolSize, int connectionsPerDatabase) throws Exception
+	{
+		dao.connectToSybase(syabseDriver, syabseUser, sybasePassword, connectionString, connectionPoolSize, connectionsPerDatabase);
+	}
+
+	@Override
+	public void dropSybaseConnection() throws SQLException
+	{
+		dao.dropSybaseConnection();
+	}
+
+	@Override
+	public Statement executeSybaseQuery(String query) throws SQLException
+	{
+		return executeSybaseQuery(null, query);
+	}
+
+	/**
+	 * Execute Sybase query once the controller allows it
+	 * @param dbName database the query works on
+	 * @param Sybase query
+	 * @return
+	 * @throws SQLException
+	 */
+	@Override
+	public Statement executeSybaseQuery(String dbName, String query) throws SQLException
+	{
+		long start;
+		try
+		{
+			start = controller.acquire();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for a query slot");
+		}
+
+		Statement statement = null;
+		try
+		{
+			statement = dbName == null ? dao.executeSybaseQuery(query) : dao.executeSybaseQuery(dbName, query);
+		}
+		catch (SQLException e)
+		{
+			controller.release(getQueryStart(start), isOverload(e));
+			throw e;
+		}
+
+		start = getQueryStart(start);
+
+		// without statement there is nothing left to wait for
+		if (statement == null)
+			controller.release(start, false);
+		else
+			runningQueries.put(statement, Long.valueOf(start));
+
+		return statement;
+	}
+
+	/**
+	 * Close the statement and give its slot back to the controller
+	 * @param statement statement to close
+	 * @throws SQLException
+	 */
+	@Override
+	public void closeSybaseStatement(Statement statement) throws SQLException
+	{
+		Long start = statement == null ? null : runningQueries.remove(statement);
+		try
+		{
+			dao.closeSybaseStatement(statement);
+		}
+		finally
+		{
+			if (start != null)
+				controller.release(start.longValue(), false);
+		}
+	}
+
+	@Override
+	public Map<String, SybaseProceduresDatabaseUsage> getDatabaseUsage()
+	{
+		return dao.getDatabaseUsage();
+	}
+
+	@Override
+	public long getLastQueryStart()
+	{
+		return dao.getLastQueryStart();
+	}
+
+	/**
+	 * Get the time the query just executed by the current thread got its connection
+	 * @param acquired time the query got its slot
+	 * @return time in milliseconds, not before the slot was acquired
+	 */
+	private long getQueryStart(long acquired)
+	{
+		return Math.max(acquired, dao.getLastQueryStart());
+	}
+
+	/**
+	 * Check if the error tells that the server is overloaded: the connection is lost or refused, 
+	 * the query timed out or the transaction was chosen as deadlock victim
+	 * @param e the error
+	 * @return true if the server is overloaded
+	 */
+	static boolean isOverload(SQLException e)
+	{
+		if (e instanceof SQLTimeoutException || e instanceof SQLTransactionRollbackException 
+				|| e instanceof SQLTransientConnectionException || e instanceof SQLNonTransientConnectionException)
+			return true;
+
+		if (e.getErrorCode() == DEADLOCK_ERROR)
+			return true;
+
+		// connection exceptions (08), timeouts (HYT) and the jConnect I/O and timeout states (JZ006, JZ0T)
+		String state = e.getSQLState();
+		return state != null && (state.startsWith("08") || state.startsWith("HYT") || state.equals("JZ006") || state.startsWith("JZ0T"));
+	}
+
+}
@@ -0,0 +1,131 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.	
+ */
+package com.googlecode.msidor.maven.plugins.sybase.procedures;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+/**
+ * @author Maciej SIDOR
+ * 
+ * Split of the requested procedures into batches of one database
+ */
+public class BatchHelpTextSybaseProceduresFetcherTestCase extends TestCase
+{
+
+	/**
+	 * Database and SQL of the batches sent
+	 */
+	private List<String[]> batches = null;
+
+	private BatchHelpTextSybaseProceduresFetcher fetcher = null;
+
+	/** {@inheritDoc} */
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+
+		batches = new ArrayList<String[]>();
+
+		// every batch is recorded and answers no result
+		SybaseProceduresMojoDAOMockup dao = new SybaseProceduresMojoDAOMockup()
+		{
+			@Override
+			public Statement executeSybaseQuery(String dbName, String query) throws SQLException
+			{
+				batches.add(new String[] { dbName, query });
+				return new StatementMockup();
+			}
+		};
+
+		fetcher = new BatchHelpTextSybaseProceduresFetcher(dao, new SystemStreamLog(), 2);
+		fetcher.setRegistry(new SybaseProceduresRegistry());
+	}
+
+	/**
+	 * Count the procedures retrieved by a batch
+	 * @param batch the batch
+	 * @return number of procedures
+	 */
+	private static int countProcedures(String batch)
+	{
+		int count = 0;
+		for (int index = batch.indexOf("..sp_helptext "); index >= 0; index = batch.indexOf("..sp_helptext ", index + 1))
+			count++;
+
+		return count;
+	}
+
+	/**
+	 * Each batch holds at most the batch size of distinct procedures of one database
+	 * @throws Exception if any
+	 */
+	public void testSplitByDatabaseAndSize() throws Exception
+	{
+		fetcher.fetchProcedures(Arrays.asList(new String[] { "db1", "p1" }, new String[] { "db2", "p2" }, new String[] { "db1", "p3" }, 
+				new String[] { "db1", "p1" }, new String[] { "db1", "p4" }, new String[] { "db1", "p5" }, new String[] { "db2", "p6" }));
+
+		assertEquals(3, batches.size());
+
+		assertEquals("db1", batches.get(0)[0]);
+		assertEquals(2, countProcedures(batches.get(0)[1]));
+		assertTrue(batches.get(0)[1].contains("db1..sp_helptext p1\n"));
+		assertTrue(batches.get(0)[1].contains("db1..sp_helptext p3\n"));
+
+		assertEquals("db1", batches.get(1)[0]);
+		assertEquals(2, countProcedures(batches.get(1)[1]));
+		assertTrue(batches.get(1)[1].contains("db1..sp_helptext p4\n"));
+		assertTrue(batches.get(1)[1].contains("db1..sp_helptext p5\n"));
+
+		assertEquals("db2", batches.get(2)[0]);
+		assertEquals(2, countProcedures(batches.get(2)[1]));
+		assertFalse(batches.get(2)[1].contains("db1.."));
+	}
+
+	/**
+	 * The procedures missing from the batch results are reported missing in the request order
+	 * @throws Exception if any
+	 */
+	public void testMissingProcedures() throws Exception
+	{
+		Map<String, SybaseProcedure> result = fetcher.fetchProcedures(Arrays.asList(new String[] { "db1", "p2" }, new String[] { "db1", "p1" }, new String[] { "db2", "p3" }));
+
+		assertEquals(Arrays.asList("db1..p2", "db1..p1", "db2..p3"), new ArrayList<String>(result.keySet()));
+		for (SybaseProcedure procedure : result.values())
+			assertNull(procedure);
+	}
+
+	/**
+	 * The quotes of the procedure keys are escaped
+	 * @throws Exception if any
+	 */
+	public void testQuotedKeys() throws Exception
+	{
+		fetcher.fetchProcedures(Arrays.asList(new String[] { "db1", "p'1" }, new String[] { "db1", "p2" }));
+
+		assertEquals(1, batches.size());
+		assertTrue(batches.get(0)[1].contains("object_id('db1..p''1')"));
+	}
+
+}
@@ -0,0 +1,149 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.	
+ */
+package com.googlecode.msidor.maven.plugins.sybase.procedures;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+/**
+ * @author Maciej SIDOR
+ * 
+ * Procedures of the catalog sweep keyed by owner and name
+ */
+public class CatalogSybaseProceduresFetcherTestCase extends TestCase
+{
+
+	/**
+	 * Queries sent
+	 */
+	private List<String> queries = null;
+
+	private CatalogSybaseProceduresFetcher fetcher = null;
+
+	/** {@inheritDoc} */
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+
+		queries = new ArrayList<String>();
+
+		// the sweep answers the only procedure dbo.p1
+		SybaseProceduresMojoDAOMockup dao = new SybaseProceduresMojoDAOMockup()
+		{
+			@Override
+			public Statement executeSybaseQuery(String dbName, String query) throws SQLException
+			{
+				queries.add(query);
+
+				StatementMockup statement = new StatementMockup();
+				statement.addResultSet(createRow("p1", "dbo", false, "create procedure p1 as select 1"));
+				return statement;
+			}
+		};
+
+		fetcher = new CatalogSybaseProceduresFetcher(dao, new SystemStreamLog());
+		fetcher.setRegistry(new SybaseProceduresRegistry());
+	}
+
+	/**
+	 * Create a catalog row
+	 * @param name procedure name
+	 * @param owner procedure owner
+	 * @param own true if owned by the current user
+	 * @param text procedure text
+	 * @return the row
+	 */
+	private static ResultSetMockup createRow(String name, String owner, boolean own, String text)
+	{
+		ResultSetMockup row = new ResultSetMockup()
+		{
+			@Override
+			public int getInt(String columnLabel) throws SQLException
+			{
+				return Integer.parseInt(getString(columnLabel));
+			}
+		};
+
+		row.addValue("id", "1");
+		row.addValue("name", name);
+		row.addValue("owner", owner);
+		row.addValue("own", own ? "1" : "0");
+		row.addValue("crdate", "Sep 23 2014 11:10AM");
+		row.addValue("text", text);
+
+		return row;
+	}
+
+	/**
+	 * The procedure is found with and without its owner, with its body both times
+	 * @throws Exception if any
+	 */
+	public void testOwnerKeys() throws Exception
+	{
+		SybaseProcedure unqualified = fetcher.fetchProcedure("p1", "db1");
+		SybaseProcedure qualified = fetcher.fetchProcedure("dbo.p1", "db1");
+
+		assertEquals(1, queries.size());
+		assertTrue(queries.get(0).contains("user_name(o.uid) owner"));
+
+		assertEquals("create procedure p1 as select 1", unqualified.getBody());
+		assertEquals("create procedure p1 as select 1", qualified.getBody());
+		assertEquals("Sep 23 2014 11:10AM", qualified.getCreationDate());
+
+		assertNull(fetcher.fetchProcedure("user1.p1", "db1"));
+	}
+
+	/**
+	 * The compilation date is formatted by the query like "sp_help" does
+	 * @throws Exception if any
+	 */
+	public void testCreationDateFormat() throws Exception
+	{
+		fetcher.fetchProcedure("p1", "db1");
+
+		assertTrue(queries.get(0).contains("convert(varchar(26), o.crdate) crdate"));
+	}
+
+	/**
+	 * The unqualified name is resolved to the procedure of the current user, otherwise to the one of "dbo"
+	 * @throws Exception if any
+	 */
+	public void testUnqualifiedNameResolution() throws Exception
+	{
+		Map<String, String> entries = new HashMap<String, String>();
+
+		AbstractSybaseProceduresFetcher.putCatalogEntry(entries, createRow("p1", "dbo", false, ""), "dbo.p1");
+		AbstractSybaseProceduresFetcher.putCatalogEntry(entries, createRow("p1", "user1", true, ""), "user1.p1");
+		AbstractSybaseProceduresFetcher.putCatalogEntry(entries, createRow("p2", "user1", true, ""), "user1.p2");
+		AbstractSybaseProceduresFetcher.putCatalogEntry(entries, createRow("p2", "dbo", false, ""), "dbo.p2");
+		AbstractSybaseProceduresFetcher.putCatalogEntry(entries, createRow("p3", "user2", false, ""), "user2.p3");
+
+		assertEquals("user1.p1", entries.get("p1"));
+		assertEquals("user1.p2", entries.get("p2"));
+		assertEquals("dbo.p2", entries.get("dbo.p2"));
+		assertNull(entries.get("p3"));
+		assertEquals("user2.p3", entries.get("user2.p3"));
+	}
+
+}
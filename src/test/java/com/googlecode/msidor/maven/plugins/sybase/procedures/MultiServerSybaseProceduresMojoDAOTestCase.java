@@ -0,0 +1,139 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.	
+ */
+package com.googlecode.msidor.maven.plugins.sybase.procedures;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * @author Maciej SIDOR
+ * 
+ * Routing of the queries between the local server and the remote servers
+ */
+public class MultiServerSybaseProceduresMojoDAOTestCase extends TestCase
+{
+
+	private SybaseProceduresMojoDAOMockup localDao = null;
+	private SybaseProceduresMojoDAOMockup remoteDao = null;
+	private List<String> createdServers = null;
+	private MultiServerSybaseProceduresMojoDAO dao = null;
+
+	/** {@inheritDoc} */
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+
+		localDao = new SybaseProceduresMojoDAOMockup();
+		remoteDao = new SybaseProceduresMojoDAOMockup();
+		createdServers = new ArrayList<String>();
+
+		Map<String, String> servers = new HashMap<String, String>();
+		servers.put("srv2", "jdbc:sybase:Tds:srv2:5000");
+
+		dao = new MultiServerSybaseProceduresMojoDAO(localDao, servers, new HashMap<String, Integer>(), new SybaseProceduresMojoDAOFactoryI()
+		{
+			@Override
+			public SybaseProceduresMojoDAOI createDAO(String server)
+			{
+				createdServers.add(server);
+				return remoteDao;
+			}
+		});
+	}
+
+	/**
+	 * The DAOs of the remote servers are created by the factory when connecting
+	 * @throws Exception if any
+	 */
+	public void testRemoteDAOCreatedWhenConnecting() throws Exception
+	{
+		assertTrue(createdServers.isEmpty());
+
+		dao.connectToSybase("jConnect", "user", "password", "jdbc:sybase:Tds:srv1:5000", 2, 0);
+
+		assertEquals(1, createdServers.size());
+		assertEquals("srv2", createdServers.get(0));
+	}
+
+	/**
+	 * A query on behalf of "server.db" is sent to the server with "server.db.." rewritten to "db.."
+	 * @throws Exception if any
+	 */
+	public void testRemoteQueryRewritten() throws Exception
+	{
+		ResultSetMockup rs = new ResultSetMockup();
+		rs.addValue("", "remote text");
+		remoteDao.addQueryResult("exec db1..sp_helptext proc1", rs);
+
+		dao.connectToSybase("jConnect", "user", "password", "jdbc:sybase:Tds:srv1:5000", 2, 0);
+
+		Statement statement = dao.executeSybaseQuery("srv2.db1", "exec srv2.db1..sp_helptext proc1");
+		assertNotNull("the query should have been rewritten for the remote server", statement);
+		assertTrue(statement.getMoreResults());
+		assertEquals("remote text", statement.getResultSet().getString(1));
+		dao.closeSybaseStatement(statement);
+
+		// the local server does not know the remote databases
+		assertNull(localDao.executeSybaseQuery("exec srv2.db1..sp_helptext proc1"));
+	}
+
+	/**
+	 * A query on behalf of a local database is sent to the local server unchanged
+	 * @throws Exception if any
+	 */
+	public void testLocalQueryUnchanged() throws Exception
+	{
+		ResultSetMockup rs = new ResultSetMockup();
+		rs.addValue("", "local text");
+		localDao.addQueryResult("exec db1..sp_helptext proc1", rs);
+
+		dao.connectToSybase("jConnect", "user", "password", "jdbc:sybase:Tds:srv1:5000", 2, 0);
+
+		Statement statement = dao.executeSybaseQuery("db1", "exec db1..sp_helptext proc1");
+		assertNotNull(statement);
+		assertTrue(statement.getMoreResults());
+		assertEquals("local text", statement.getResultSet().getString(1));
+		dao.closeSybaseStatement(statement);
+
+		assertNull(remoteDao.executeSybaseQuery("exec db1..sp_helptext proc1"));
+	}
+
+	/**
+	 * A query on behalf of a server not configured fails
+	 * @throws Exception if any
+	 */
+	public void testUnknownServer() throws Exception
+	{
+		dao.connectToSybase("jConnect", "user", "password", "jdbc:sybase:Tds:srv1:5000", 2, 0);
+
+		try
+		{
+			dao.executeSybaseQuery("srv3.db1", "exec srv3.db1..sp_helptext proc1");
+			fail("srv3 is not configured");
+		}
+		catch (SQLException e)
+		{
+			assertTrue(e.getMessage().indexOf("srv3") >= 0);
+		}
+	}
+
+}
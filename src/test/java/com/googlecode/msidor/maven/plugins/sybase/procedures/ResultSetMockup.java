@@ -511,6 +511,20 @@ public class ResultSetMockup implements ResultSet
 		return null;
 	}
 
+	@Override
+	public <T> T getObject(int columnIndex, Class<T> type) throws SQLException
+	{
+		//nothing to do
+		return null;
+	}
+
+	@Override
+	public <T> T getObject(String columnLabel, Class<T> type) throws SQLException
+	{
+		//nothing to do
+		return null;
+	}
+
 	@Override
 	public Ref getRef(int columnIndex) throws SQLException
 	{
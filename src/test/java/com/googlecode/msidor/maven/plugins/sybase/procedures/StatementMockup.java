@@ -346,6 +346,20 @@ public class StatementMockup implements Statement
 
 	}
 
+	@Override
+	public void closeOnCompletion() throws SQLException
+	{
+		//nothing to do
+
+	}
+
+	@Override
+	public boolean isCloseOnCompletion() throws SQLException
+	{
+		//nothing to do
+		return false;
+	}
+
 
 
 }
@@ -0,0 +1,177 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.	
+ */
+package com.googlecode.msidor.maven.plugins.sybase.procedures;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+import junit.framework.TestCase;
+
+/**
+ * @author Maciej SIDOR
+ * 
+ * Reading of the bodies row by row compared with the SQL scripts of the previous generation
+ */
+public class SybaseProceduresBodyReaderTestCase extends TestCase
+{
+
+	private static final String[] ROWS = { "create proc p as\n", "exec db..sub1\n", "select \u00e9 from t1" };
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private File script = null;
+
+	/** {@inheritDoc} */
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+
+		script = File.createTempFile("db..p", ".sql");
+	}
+
+	/** {@inheritDoc} */
+	protected void tearDown() throws Exception
+	{
+		script.delete();
+
+		super.tearDown();
+	}
+
+	/**
+	 * Write the SQL script
+	 * @param text the script text
+	 * @throws Exception if any
+	 */
+	private void writeScript(String text) throws Exception
+	{
+		Writer writer = new OutputStreamWriter(new FileOutputStream(script), UTF8);
+		writer.write(text);
+		writer.close();
+	}
+
+	/**
+	 * Read the rows compared with the SQL script
+	 * @param rows the rows of the body
+	 * @return the procedure read
+	 */
+	private SybaseProcedure read(String... rows)
+	{
+		SybaseProceduresBodyReader reader = new SybaseProceduresBodyReader();
+		reader.compareWith(script, UTF8);
+		for (String row : rows)
+			reader.read(row);
+
+		SybaseProcedure procedure = new SybaseProcedure("db", "p", "");
+		reader.complete(procedure);
+		return procedure;
+	}
+
+	/**
+	 * The body with the same text as the script is left in the script, with its checksum and its calls
+	 * @throws Exception if any
+	 */
+	public void testUnchangedBodyKeptInScript() throws Exception
+	{
+		String text = ROWS[0] + ROWS[1] + ROWS[2];
+		writeScript(text);
+
+		SybaseProcedure procedure = read(ROWS);
+
+		assertTrue(procedure.isKeptInScript());
+		assertTrue(procedure.isScriptUpToDate());
+		assertEquals(text, procedure.getBody());
+		assertEquals(SybaseProceduresGeneratorMojo.createChecksum(new StringReader(text)), procedure.getChecksum());
+		assertEquals(SybaseProceduresChecksum.digest(text), procedure.getDigest());
+		assertEquals("db..sub1", procedure.getCallSites().get(0).getName());
+	}
+
+	/**
+	 * The body differing from the script is buffered from the part of the script matched so far
+	 * @throws Exception if any
+	 */
+	public void testChangedBodyBuffered() throws Exception
+	{
+		writeScript(ROWS[0] + "exec db..sub2\n" + ROWS[2]);
+
+		SybaseProcedure procedure = read(ROWS);
+
+		assertFalse(procedure.isKeptInScript());
+		assertFalse(procedure.isScriptUpToDate());
+		assertEquals(ROWS[0] + ROWS[1] + ROWS[2], procedure.getBody());
+	}
+
+	/**
+	 * The body shorter or longer than the script is buffered
+	 * @throws Exception if any
+	 */
+	public void testDifferentLengths() throws Exception
+	{
+		writeScript(ROWS[0] + ROWS[1] + ROWS[2] + "\n");
+		SybaseProcedure procedure = read(ROWS);
+		assertFalse(procedure.isKeptInScript());
+		assertEquals(ROWS[0] + ROWS[1] + ROWS[2], procedure.getBody());
+
+		writeScript(ROWS[0]);
+		procedure = read(ROWS);
+		assertFalse(procedure.isKeptInScript());
+		assertEquals(ROWS[0] + ROWS[1] + ROWS[2], procedure.getBody());
+	}
+
+	/**
+	 * The body left to the parse stage is read and digested without being parsed
+	 * @throws Exception if any
+	 */
+	public void testParsingLeftToParseStage() throws Exception
+	{
+		String text = ROWS[0] + ROWS[1] + ROWS[2];
+
+		SybaseProceduresBodyReader reader = new SybaseProceduresBodyReader(false);
+		for (String row : ROWS)
+			reader.read(row);
+
+		SybaseProcedure procedure = new SybaseProcedure("db", "p", "");
+		reader.complete(procedure);
+
+		assertNull(procedure.getCallSites());
+		assertNull(procedure.getTableAccesses());
+		assertEquals(text, procedure.getBody());
+		assertEquals(SybaseProceduresGeneratorMojo.createChecksum(new StringReader(text)), procedure.getChecksum());
+		assertEquals(SybaseProceduresChecksum.digest(text), procedure.getDigest());
+
+		SybaseProceduresLexer.parse(procedure, procedure.getBody());
+		assertEquals("db..sub1", procedure.getCallSites().get(0).getName());
+		assertEquals("t1", procedure.getTableAccesses().get(0).getName());
+	}
+
+	/**
+	 * Without a script, the body is buffered as it is read
+	 * @throws Exception if any
+	 */
+	public void testNoScript() throws Exception
+	{
+		script.delete();
+
+		SybaseProcedure procedure = read(ROWS);
+
+		assertFalse(procedure.isKeptInScript());
+		assertEquals(ROWS[0] + ROWS[1] + ROWS[2], procedure.getBody());
+	}
+
+}
@@ -0,0 +1,130 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.	
+ */
+package com.googlecode.msidor.maven.plugins.sybase.procedures;
+
+import java.io.StringReader;
+import java.security.MessageDigest;
+
+import junit.framework.TestCase;
+
+/**
+ * @author Maciej SIDOR
+ * 
+ * Checksum and digest of a text given in chunks
+ */
+public class SybaseProceduresChecksumTestCase extends TestCase
+{
+
+	/**
+	 * Build a text of the given length repeating the pattern
+	 * @param pattern the pattern
+	 * @param length length of the text
+	 * @return the text
+	 */
+	private static String buildText(String pattern, int length)
+	{
+		StringBuilder text = new StringBuilder(length);
+		while (text.length() < length)
+			text.append(pattern.charAt(text.length() % pattern.length()));
+
+		return text.toString();
+	}
+
+	/**
+	 * Compute the checksum of the text given in chunks
+	 * @param text the text
+	 * @param chunkSize size of the chunks
+	 * @return the checksum
+	 */
+	private static SybaseProceduresChecksum checksum(String text, int chunkSize)
+	{
+		SybaseProceduresChecksum checksum = new SybaseProceduresChecksum();
+		for (int i = 0; i < text.length(); i += chunkSize)
+			checksum.update(text.substring(i, Math.min(text.length(), i + chunkSize)));
+
+		return checksum;
+	}
+
+	/**
+	 * Hexadecimal MD5 of the UTF-8 bytes of the text
+	 * @param text the text
+	 * @return the MD5
+	 * @throws Exception if any
+	 */
+	private static String md5(String text) throws Exception
+	{
+		StringBuilder result = new StringBuilder();
+		for (byte b : MessageDigest.getInstance("MD5").digest(text.getBytes("UTF-8")))
+			result.append(Integer.toString((b & 0xff) + 0x100, 16).substring(1));
+
+		return result.toString();
+	}
+
+	/**
+	 * The checksum is the one of createChecksum whatever the chunks
+	 * @throws Exception if any
+	 */
+	public void testChecksumCompatibleWithCreateChecksum() throws Exception
+	{
+		for (int length : new int[] { 0, 1, 1023, 1024, 1025, 2500 })
+		{
+			String text = buildText("create proc p as\nexec sub\n", length);
+			String expected = SybaseProceduresGeneratorMojo.createChecksum(new StringReader(text));
+
+			assertEquals(expected, checksum(text, 7).getChecksum());
+			assertEquals(expected, checksum(text, 1024).getChecksum());
+			assertEquals(expected, checksum(text, Math.max(1, length)).getChecksum());
+		}
+	}
+
+	/**
+	 * The digest is the MD5 of the UTF-8 bytes of the whole text, even if a surrogate pair is split by a block
+	 * @throws Exception if any
+	 */
+	public void testDigestOfWholeText() throws Exception
+	{
+		String text = buildText("select 'caf\u00e9' ", 1023) + "\ud83d\ude00" + buildText("-- \u20ac\n", 1500);
+
+		assertEquals(md5(text), checksum(text, 13).getDigest());
+		assertEquals(md5(text), checksum(text, 1023).getDigest());
+		assertEquals(md5(text), SybaseProceduresChecksum.digest(text));
+	}
+
+	/**
+	 * Two bodies differing in the part createChecksum leaves out share the checksum but not the digest
+	 */
+	public void testDigestTellsBodiesWithSameChecksum()
+	{
+		String body = buildText("a", 1024);
+		String changedBody = body.substring(0, 600) + "b" + body.substring(601);
+
+		assertEquals(checksum(body, 1024).getChecksum(), checksum(changedBody, 1024).getChecksum());
+		assertFalse(checksum(body, 1024).getDigest().equals(checksum(changedBody, 1024).getDigest()));
+	}
+
+	/**
+	 * The results are kept once the text is ended
+	 */
+	public void testResultsKept()
+	{
+		SybaseProceduresChecksum checksum = checksum("exec proc", 4);
+
+		String digest = checksum.getDigest();
+		assertEquals(checksum.getChecksum(), checksum.getChecksum());
+		assertEquals(digest, checksum.getDigest());
+	}
+
+}
@@ -0,0 +1,101 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.	
+ */
+package com.googlecode.msidor.maven.plugins.sybase.procedures;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * @author Maciej SIDOR
+ * 
+ * Bodies kept as UTF-8 or deflated bytes
+ */
+public class SybaseProceduresCompactBodyTestCase extends TestCase
+{
+
+	/**
+	 * Build a body repeating its lines
+	 * @param lines number of lines
+	 * @return the body
+	 */
+	private static String buildBody(int lines)
+	{
+		StringBuilder body = new StringBuilder("create proc p as\n");
+		for (int i = 0; i < lines; i++)
+			body.append("select 'caf\u00e9 \u20ac \ud83d\ude00' from t").append(i % 7).append("\n");
+
+		return body.toString();
+	}
+
+	/**
+	 * The body is decoded, read and written as it was, compressed or not
+	 * @throws Exception if any
+	 */
+	public void testRoundTrip() throws Exception
+	{
+		String body = buildBody(500);
+		byte[] utf8 = body.getBytes("UTF-8");
+
+		for (boolean compress : new boolean[] { false, true })
+		{
+			SybaseProceduresCompactBody compactBody = new SybaseProceduresCompactBody(body, compress);
+
+			assertEquals(body, compactBody.decode());
+			assertEquals(body.length(), compactBody.getLength());
+
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			compactBody.writeTo(out);
+			assertTrue(Arrays.equals(utf8, out.toByteArray()));
+		}
+	}
+
+	/**
+	 * The deflated bytes are kept only if smaller
+	 * @throws Exception if any
+	 */
+	public void testCompressionKeptIfSmaller() throws Exception
+	{
+		String body = buildBody(500);
+		assertEquals(body.getBytes("UTF-8").length, new SybaseProceduresCompactBody(body, false).getSize());
+		assertTrue(new SybaseProceduresCompactBody(body, true).getSize() < body.getBytes("UTF-8").length / 4);
+
+		String shortBody = "exec p";
+		SybaseProceduresCompactBody compactBody = new SybaseProceduresCompactBody(shortBody, true);
+		assertEquals(shortBody.length(), compactBody.getSize());
+		assertEquals(shortBody, compactBody.decode());
+	}
+
+	/**
+	 * A compacted procedure keeps its checksum and gives its body back
+	 */
+	public void testCompactedProcedure()
+	{
+		String body = buildBody(10);
+		SybaseProcedure procedure = new SybaseProcedure("db", "p", "");
+		procedure.setBody(body);
+		procedure.setChecksum("checksum");
+
+		assertNotNull(procedure.compact(true));
+		assertNotNull(procedure.getCompactBody());
+		assertEquals("checksum", procedure.getChecksum());
+		assertEquals(body, procedure.getBody());
+
+		assertNull(new SybaseProcedure("db", "nobody", "").compact(true));
+	}
+
+}
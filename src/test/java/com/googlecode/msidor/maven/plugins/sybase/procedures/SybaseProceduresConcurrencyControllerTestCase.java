@@ -0,0 +1,159 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.	
+ */
+package com.googlecode.msidor.maven.plugins.sybase.procedures;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+/**
+ * @author Maciej SIDOR
+ * 
+ * Adaptation of the number of queries running at once to the query latency and spacing of the queries
+ */
+public class SybaseProceduresConcurrencyControllerTestCase extends TestCase
+{
+
+	/**
+	 * Run a query completed within the latency target or failing
+	 * @param controller the controller
+	 * @param failed true if the query fails
+	 * @throws Exception if any
+	 */
+	private void runQuery(SybaseProceduresConcurrencyController controller, boolean failed) throws Exception
+	{
+		controller.release(controller.acquire(), failed);
+	}
+
+	/**
+	 * Without latency target, the limit is the upper bound and does not change
+	 * @throws Exception if any
+	 */
+	public void testFixedLimit() throws Exception
+	{
+		SybaseProceduresConcurrencyController controller = new SybaseProceduresConcurrencyController(1, 4, 0, 0, new SystemStreamLog());
+
+		runQuery(controller, true);
+		runQuery(controller, false);
+
+		assertEquals("Query concurrency ranged from 4 to 4 and ended at 4 after 0 change(s), 0 queries delayed by the rate cap", controller.getSummary());
+	}
+
+	/**
+	 * The limit starts at the lower bound and is raised by one once as many queries as the limit complete in time
+	 * @throws Exception if any
+	 */
+	public void testAdditiveIncrease() throws Exception
+	{
+		SybaseProceduresConcurrencyController controller = new SybaseProceduresConcurrencyController(1, 3, 60000, 0, new SystemStreamLog());
+
+		runQuery(controller, false);
+		assertTrue(controller.getSummary(), controller.getSummary().contains("ended at 2 after 1 change(s)"));
+
+		runQuery(controller, false);
+		assertTrue(controller.getSummary(), controller.getSummary().contains("ended at 2 after 1 change(s)"));
+		runQuery(controller, false);
+		assertTrue(controller.getSummary(), controller.getSummary().contains("ended at 3 after 2 change(s)"));
+
+		// the upper bound is never exceeded
+		for (int i = 0; i < 6; i++)
+			runQuery(controller, false);
+		assertEquals("Query concurrency ranged from 1 to 3 and ended at 3 after 2 change(s), 0 queries delayed by the rate cap", controller.getSummary());
+	}
+
+	/**
+	 * The limit is halved by a failing query started under the current limit, down to the lower bound
+	 * @throws Exception if any
+	 */
+	public void testMultiplicativeDecrease() throws Exception
+	{
+		SybaseProceduresConcurrencyController controller = new SybaseProceduresConcurrencyController(1, 4, 60000, 0, new SystemStreamLog());
+
+		for (int i = 0; i < 6; i++)
+			runQuery(controller, false);
+		assertTrue(controller.getSummary(), controller.getSummary().contains("ended at 4 after 3 change(s)"));
+
+		long first = controller.acquire();
+		long second = controller.acquire();
+
+		controller.release(first, true);
+		assertTrue(controller.getSummary(), controller.getSummary().contains("ended at 2 after 4 change(s)"));
+
+		// the query started before the decrease has been accounted already
+		controller.release(second - 1, true);
+		assertTrue(controller.getSummary(), controller.getSummary().contains("ended at 2 after 4 change(s)"));
+
+		runQuery(controller, true);
+		runQuery(controller, true);
+		assertEquals("Query concurrency ranged from 1 to 4 and ended at 1 after 5 change(s), 0 queries delayed by the rate cap", controller.getSummary());
+	}
+
+	/**
+	 * A query waits until the number of queries running is below the limit
+	 * @throws Exception if any
+	 */
+	public void testAcquireWaitsForLimit() throws Exception
+	{
+		final SybaseProceduresConcurrencyController controller = new SybaseProceduresConcurrencyController(1, 1, 0, 0, new SystemStreamLog());
+		final CountDownLatch acquired = new CountDownLatch(1);
+
+		long start = controller.acquire();
+
+		Thread thread = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				try
+				{
+					controller.release(controller.acquire(), false);
+					acquired.countDown();
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		thread.start();
+
+		assertFalse(acquired.await(200, TimeUnit.MILLISECONDS));
+
+		controller.release(start, false);
+		assertTrue(acquired.await(10, TimeUnit.SECONDS));
+		thread.join();
+	}
+
+	/**
+	 * The queries are spaced by the rate cap
+	 * @throws Exception if any
+	 */
+	public void testRateCap() throws Exception
+	{
+		SybaseProceduresConcurrencyController controller = new SybaseProceduresConcurrencyController(1, 4, 0, 10, new SystemStreamLog());
+
+		long start = System.nanoTime();
+		for (int i = 0; i < 3; i++)
+			runQuery(controller, false);
+		long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+		assertTrue("Queries started after " + elapsed + " ms", elapsed >= 190);
+		assertTrue(controller.getSummary(), controller.getSummary().endsWith(", 2 queries delayed by the rate cap"));
+	}
+
+}
@@ -0,0 +1,198 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.	
+ */
+package com.googlecode.msidor.maven.plugins.sybase.procedures;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * @author Maciej SIDOR
+ * 
+ * Edges and weights of the int-indexed call graph
+ */
+public class SybaseProceduresGraphTestCase extends TestCase
+{
+
+	private SybaseProceduresGraph graph = null;
+
+	/** {@inheritDoc} */
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+
+		graph = new SybaseProceduresGraph();
+	}
+
+	/**
+	 * The repeated calls make one edge weighted by the number of calls, the sub-procedures keep the order of first call
+	 */
+	public void testDeduplicatedWeightedCalls()
+	{
+		SybaseProcedure caller = new SybaseProcedure("db", "caller", "");
+		SybaseProcedure sub1 = new SybaseProcedure("db", "sub1", "");
+		SybaseProcedure sub2 = new SybaseProcedure("db", "sub2", "");
+
+		graph.addCall(caller, sub2);
+		graph.addCall(caller, sub1);
+		graph.addCall(caller, sub2);
+		graph.addCall(caller, sub2);
+
+		assertEquals(Arrays.asList(sub2, sub1), caller.getProcedures());
+		assertEquals(3, caller.getCallCount(0));
+		assertEquals(1, caller.getCallCount(1));
+		assertTrue(sub1.getProcedures().isEmpty());
+
+		assertEquals(3, graph.getProcedureCount());
+		assertEquals(2, graph.getEdgeCount());
+		assertEquals(4, graph.getCallCount());
+	}
+
+	/**
+	 * A procedure is registered once
+	 */
+	public void testProcedureRegisteredOnce()
+	{
+		SybaseProcedure procedure = new SybaseProcedure("db", "p", "");
+
+		int id = graph.addProcedure(procedure);
+		assertEquals(id, graph.addProcedure(procedure));
+		assertEquals(1, graph.getProcedureCount());
+	}
+
+	/**
+	 * The adjacency arrays grow with the procedures and the edges and are trimmed without losing any edge
+	 */
+	public void testGrowthAndTrim()
+	{
+		SybaseProcedure root = new SybaseProcedure("db", "root", "");
+		SybaseProcedure[] subs = new SybaseProcedure[100];
+		for (int i = 0; i < subs.length; i++)
+		{
+			subs[i] = new SybaseProcedure("db", "sub" + i, "");
+			graph.addCall(root, subs[i]);
+			if (i > 0) graph.addCall(subs[i - 1], subs[i]);
+		}
+
+		graph.trim();
+
+		assertEquals(101, graph.getProcedureCount());
+		assertEquals(199, graph.getEdgeCount());
+		assertEquals(Arrays.asList(subs), root.getProcedures());
+		for (int i = 0; i < subs.length - 1; i++)
+			assertEquals(Arrays.asList(subs[i + 1]), subs[i].getProcedures());
+
+		graph.addCall(root, subs[0]);
+		assertEquals(2, root.getCallCount(0));
+	}
+
+	/**
+	 * The references to the same table are merged into one edge reading and/or writing it
+	 */
+	public void testTableAccesses()
+	{
+		SybaseProcedure procedure = new SybaseProcedure("db", "p", "");
+		SybaseProcedure other = new SybaseProcedure("db", "other", "");
+
+		graph.addTableAccess(procedure, "db..t1", false);
+		graph.addTableAccess(procedure, "db..t2", true);
+		graph.addTableAccess(procedure, "db..t1", true);
+		graph.addTableAccess(procedure, "db..t2", true);
+		graph.addTableAccess(other, "db..t2", false);
+
+		assertEquals(Arrays.asList("db..t1", "db..t2"), procedure.getTables());
+		assertEquals(SybaseProceduresGraph.READ | SybaseProceduresGraph.WRITE, procedure.getTableAccess(0));
+		assertEquals(SybaseProceduresGraph.WRITE, procedure.getTableAccess(1));
+		assertEquals(Arrays.asList("db..t2"), other.getTables());
+		assertEquals(SybaseProceduresGraph.READ, other.getTableAccess(0));
+
+		assertEquals(2, graph.getTableCount());
+		assertEquals(3, graph.getTableEdgeCount());
+	}
+
+	/**
+	 * The deprecated setter registers the calls in a graph of the procedure's own, replacing the calls set previously
+	 */
+	@SuppressWarnings("deprecation")
+	public void testDeprecatedSetProcedures()
+	{
+		SybaseProcedure caller = new SybaseProcedure("db", "caller", "");
+		SybaseProcedure sub1 = new SybaseProcedure("db", "sub1", "");
+		SybaseProcedure sub2 = new SybaseProcedure("db", "sub2", "");
+
+		caller.setProcedures(Arrays.asList(sub1, sub2, sub1));
+		assertEquals(Arrays.asList(sub1, sub2), caller.getProcedures());
+		assertEquals(2, caller.getCallCount(0));
+
+		// the calls set again replace the previous ones
+		caller.setProcedures(Arrays.asList(sub2));
+		assertEquals(Arrays.asList(sub2), caller.getProcedures());
+		assertEquals(1, caller.getCallCount(0));
+
+		graph.addCall(new SybaseProcedure("db", "other", ""), sub1);
+		try
+		{
+			new SybaseProcedure("db", "third", "").setProcedures(Arrays.asList(sub1));
+			fail("Sub procedure of another graph accepted");
+		}
+		catch (IllegalArgumentException e)
+		{
+			// expected
+		}
+	}
+
+	/**
+	 * The calls removed are not counted anymore and the procedure can call again
+	 */
+	public void testRemoveCalls()
+	{
+		SybaseProcedure caller = new SybaseProcedure("db", "caller", "");
+		SybaseProcedure sub = new SybaseProcedure("db", "sub", "");
+		graph.addCall(caller, sub);
+		graph.addCall(caller, sub);
+		graph.addCall(sub, caller);
+
+		graph.removeCalls(caller);
+		assertTrue(caller.getProcedures().isEmpty());
+		assertEquals(1, graph.getEdgeCount());
+		assertEquals(1, graph.getCallCount());
+		assertEquals(2, graph.getProcedureCount());
+
+		graph.addCall(caller, sub);
+		assertEquals(Arrays.asList(sub), caller.getProcedures());
+		assertEquals(1, caller.getCallCount(0));
+	}
+
+	/**
+	 * The views of the sub-procedures are bounded by the number of edges
+	 */
+	public void testViewBounds()
+	{
+		SybaseProcedure caller = new SybaseProcedure("db", "caller", "");
+		graph.addCall(caller, new SybaseProcedure("db", "sub", ""));
+
+		try
+		{
+			caller.getProcedures().get(1);
+			fail("Sub-procedure out of the edges returned");
+		}
+		catch (IndexOutOfBoundsException e)
+		{
+			// expected
+		}
+	}
+
+}
@@ -0,0 +1,236 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.	
+ */
+package com.googlecode.msidor.maven.plugins.sybase.procedures;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * @author Maciej SIDOR
+ * 
+ * Detection of the procedure calls and of the tables referenced by a procedure body
+ */
+public class SybaseProceduresLexerTestCase extends TestCase
+{
+
+	/**
+	 * Check the call found
+	 * @param expectedName expected called procedure name
+	 * @param expectedOffset expected offset of the "exec" keyword
+	 * @param expectedCommented true if the call should be commented out
+	 * @param call the call found
+	 */
+	private static void assertCall(String expectedName, int expectedOffset, boolean expectedCommented, SybaseProceduresLexer.CallSite call)
+	{
+		assertEquals(expectedName, call.getName());
+		assertEquals(expectedOffset, call.getOffset());
+		assertEquals(expectedCommented, call.isCommented());
+	}
+
+	/**
+	 * "exec" and "execute" with plain, qualified and status assigned calls
+	 */
+	public void testCalls()
+	{
+		String text = "exec proc1\nexecute db..proc2 @p = 1\nexec @rc = db.owner.proc3\nEXEC @rc=proc4";
+		List<SybaseProceduresLexer.CallSite> calls = SybaseProceduresLexer.scan(text);
+
+		assertEquals(4, calls.size());
+		assertCall("proc1", 0, false, calls.get(0));
+		assertCall("db..proc2", text.indexOf("execute"), false, calls.get(1));
+		assertCall("db.owner.proc3", text.indexOf("exec @rc"), false, calls.get(2));
+		assertCall("proc4", text.indexOf("EXEC"), false, calls.get(3));
+	}
+
+	/**
+	 * The dynamic calls are not procedure calls
+	 */
+	public void testDynamicCalls()
+	{
+		List<SybaseProceduresLexer.CallSite> calls = SybaseProceduresLexer.scan("exec @procName\nexec ('exec proc1')\nexec (@sql)\nexec proc2");
+
+		assertEquals(1, calls.size());
+		assertEquals("proc2", calls.get(0).getName());
+	}
+
+	/**
+	 * The calls of the line comments and of the nested block comments are reported as commented
+	 */
+	public void testCommentedCalls()
+	{
+		String text = "-- exec proc1\n/* a /* nested */ exec proc2 */ exec proc3";
+		List<SybaseProceduresLexer.CallSite> calls = SybaseProceduresLexer.scan(text);
+
+		assertEquals(3, calls.size());
+		assertCall("proc1", 3, true, calls.get(0));
+		assertCall("proc2", text.indexOf("exec proc2"), true, calls.get(1));
+		assertCall("proc3", text.indexOf("exec proc3"), false, calls.get(2));
+	}
+
+	/**
+	 * The calls of the strings are ignored, doubled quotes don't end the string
+	 */
+	public void testCallsInStrings()
+	{
+		List<SybaseProceduresLexer.CallSite> calls = SybaseProceduresLexer.scan("select 'it''s exec proc1' exec proc2 print 'exec proc3'");
+
+		assertEquals(1, calls.size());
+		assertEquals("proc2", calls.get(0).getName());
+	}
+
+	/**
+	 * The quoted identifiers are a part of the name, without their quotes
+	 */
+	public void testQuotedIdentifiers()
+	{
+		List<SybaseProceduresLexer.CallSite> calls = SybaseProceduresLexer.scan("exec [db]..[my proc]\nexec \"db\"..\"pr\"\"oc\"");
+
+		assertEquals(2, calls.size());
+		assertEquals("db..my proc", calls.get(0).getName());
+		assertEquals("db..pr\"oc", calls.get(1).getName());
+	}
+
+	/**
+	 * The text given in chunks splitting the words, the comments, the strings and the quoted identifiers 
+	 * gives the same calls and tables as the whole text
+	 */
+	public void testChunks()
+	{
+		String text = "/* exec proc1 */ exec @rc = [db]..[proc2] select 'exec proc3' from t1 -- exec proc4\ndelete t2 exec proc5";
+
+		SybaseProceduresLexer whole = new SybaseProceduresLexer();
+		whole.feed(text);
+		List<SybaseProceduresLexer.CallSite> expectedCalls = whole.finish();
+
+		for (int chunkSize = 1; chunkSize < 10; chunkSize++)
+		{
+			SybaseProceduresLexer lexer = new SybaseProceduresLexer();
+			for (int i = 0; i < text.length(); i += chunkSize)
+				lexer.feed(text.substring(i, Math.min(text.length(), i + chunkSize)));
+			List<SybaseProceduresLexer.CallSite> calls = lexer.finish();
+
+			assertEquals(expectedCalls.size(), calls.size());
+			for (int i = 0; i < calls.size(); i++)
+				assertCall(expectedCalls.get(i).getName(), expectedCalls.get(i).getOffset(), expectedCalls.get(i).isCommented(), calls.get(i));
+
+			assertEquals(whole.getTableAccesses().size(), lexer.getTableAccesses().size());
+			for (int i = 0; i < lexer.getTableAccesses().size(); i++)
+				assertTable(whole.getTableAccesses().get(i).getName(), whole.getTableAccesses().get(i).isWrite(), lexer.getTableAccesses().get(i));
+		}
+
+		assertEquals(4, expectedCalls.size());
+		assertEquals(2, whole.getTableAccesses().size());
+	}
+
+	/**
+	 * Read the text and get the tables found
+	 * @param text the text
+	 * @return the tables found
+	 */
+	private static List<SybaseProceduresLexer.TableAccess> getTables(String text)
+	{
+		SybaseProceduresLexer lexer = new SybaseProceduresLexer();
+		lexer.feed(text);
+		lexer.finish();
+		return lexer.getTableAccesses();
+	}
+
+	/**
+	 * Check the table found
+	 * @param expectedName expected table name
+	 * @param expectedWrite true if the table should be written
+	 * @param table the table found
+	 */
+	private static void assertTable(String expectedName, boolean expectedWrite, SybaseProceduresLexer.TableAccess table)
+	{
+		assertEquals(expectedName, table.getName());
+		assertEquals(expectedWrite, table.isWrite());
+	}
+
+	/**
+	 * The tables read after "from" and "join", including the comma separated lists with aliases
+	 */
+	public void testTablesRead()
+	{
+		List<SybaseProceduresLexer.TableAccess> tables = getTables("select * from db..t1 a, t2 as b join t3 c on c.id = a.id");
+
+		assertEquals(3, tables.size());
+		assertTable("db..t1", false, tables.get(0));
+		assertTable("t2", false, tables.get(1));
+		assertTable("t3", false, tables.get(2));
+	}
+
+	/**
+	 * The tables written by "insert", "update", "delete", "select into" and "truncate table"
+	 */
+	public void testTablesWritten()
+	{
+		List<SybaseProceduresLexer.TableAccess> tables = getTables("insert t1 values (1)\n" 
+				+ "insert into t2 select * from t3\n" 
+				+ "update t4 set x = 1\n" 
+				+ "delete from t5\n" 
+				+ "delete t6\n" 
+				+ "truncate table t7");
+
+		assertEquals(7, tables.size());
+		assertTable("t1", true, tables.get(0));
+		assertTable("t2", true, tables.get(1));
+		assertTable("t3", false, tables.get(2));
+		assertTable("t4", true, tables.get(3));
+		assertTable("t5", true, tables.get(4));
+		assertTable("t6", true, tables.get(5));
+		assertTable("t7", true, tables.get(6));
+	}
+
+	/**
+	 * "update statistics", temporary tables and variables are not tables
+	 */
+	public void testSkippedTables()
+	{
+		List<SybaseProceduresLexer.TableAccess> tables = getTables("update statistics t1\nupdate index statistics t2\ninsert #tmp select * from @t\nupdate t3 set x = 1");
+
+		assertEquals(1, tables.size());
+		assertTable("t3", true, tables.get(0));
+	}
+
+	/**
+	 * The columns of "for update of" in a cursor declaration are not tables
+	 */
+	public void testCursorForUpdate()
+	{
+		List<SybaseProceduresLexer.TableAccess> tables = getTables("declare c cursor for select a, b from t1 where a = 1 for update of a, b\n" 
+				+ "declare d cursor for select a from t2 for update\n" 
+				+ "update t3 set a = 1");
+
+		assertEquals(3, tables.size());
+		assertTable("t1", false, tables.get(0));
+		assertTable("t2", false, tables.get(1));
+		assertTable("t3", true, tables.get(2));
+	}
+
+	/**
+	 * The tables of the comments and of the strings are ignored
+	 */
+	public void testTablesInCommentsAndStrings()
+	{
+		List<SybaseProceduresLexer.TableAccess> tables = getTables("-- delete from t1\n/* update t2 */ select 'from t3' from t4");
+
+		assertEquals(1, tables.size());
+		assertTable("t4", false, tables.get(0));
+	}
+
+}
@@ -21,6 +21,7 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.Map;
 
 import org.apache.xmlrpc.XmlRpcException;
 import org.codehaus.plexus.logging.Logger;
@@ -127,6 +128,39 @@ public class SybaseProceduresMojoDAOMockup implements SybaseProceduresMojoDAOI
 
 	}
 
+	@Override
+	/**
+	 * Connect to Sybase databse opening a pool of connections
+	 * @param syabseDriverVersion Sybase driver version
+	 * @param syabseUser Sybase user 
+	 * @param sybasePassword Sybase password
+	 * @param connectionString Sybase connection string
+	 * @param connectionPoolSize number of connections to open
+	 * @throws Exception
+	 */	
+	public void connectToSybase(String syabseDriverVersion, String syabseUser, String sybasePassword, String connectionString, int connectionPoolSize) throws Exception
+	{
+		// nothing to do here
+
+	}
+
+	@Override
+	/**
+	 * Connect to Sybase databse opening a pool of connections and connections per database
+	 * @param syabseDriverVersion Sybase driver version
+	 * @param syabseUser Sybase user 
+	 * @param sybasePassword Sybase password
+	 * @param connectionString Sybase connection string
+	 * @param connectionPoolSize number of connections to open
+	 * @param connectionsPerDatabase maximum number of connections per database
+	 * @throws Exception
+	 */	
+	public void connectToSybase(String syabseDriverVersion, String syabseUser, String sybasePassword, String connectionString, int connectionPoolSize, int connectionsPerDatabase) throws Exception
+	{
+		// nothing to do here
+
+	}
+
 	@Override
 	/**
 	 * Disconnect from Sybase
@@ -147,7 +181,8 @@ public class SybaseProceduresMojoDAOMockup implements SybaseProceduresMojoDAOI
 	 */	
 	public Statement executeSybaseQuery(String query) throws SQLException
 	{
-		logger.info("SybaseProceduresMojoDAOMockup: executing query \""+query+"\"");
+		if(logger!=null) 
+			logger.info("SybaseProceduresMojoDAOMockup: executing query \""+query+"\"");
 		
 		StatementMockup statement = null;
 		
@@ -157,6 +192,54 @@ public class SybaseProceduresMojoDAOMockup implements SybaseProceduresMojoDAOI
 		return statement;
 	}
 	
+	@Override
+	/**
+	 * Execute Sybase query on behalf of the database.
+	 * This implementation ignores the database.
+	 * @param dbName database the query works on
+	 * @param Sybase query
+	 * @return
+	 * @throws SQLException
+	 */	
+	public Statement executeSybaseQuery(String dbName, String query) throws SQLException
+	{
+		return executeSybaseQuery(query);
+	}
+	
+	@Override
+	/**
+	 * Close the statement returned by executeSybaseQuery
+	 * @param statement statement to close
+	 * @throws SQLException
+	 */	
+	public void closeSybaseStatement(Statement statement) throws SQLException
+	{
+		if(statement!=null)
+			statement.close();
+	}
+	
+	@Override
+	/**
+	 * Get the usage statistics of each database.
+	 * This implementation doesn't record any usage.
+	 * @return empty map
+	 */	
+	public Map<String, SybaseProceduresDatabaseUsage> getDatabaseUsage()
+	{
+		return new HashMap<String, SybaseProceduresDatabaseUsage>();
+	}
+	
+	@Override
+	/**
+	 * Get the time the last query of the current thread got its connection.
+	 * This implementation has no connection to wait for.
+	 * @return 0
+	 */	
+	public long getLastQueryStart()
+	{
+		return 0;
+	}
+	
 	/*-------------------------Helpers------------------------------*/
 	/**
 	 * Add ResultSet that will be returned in Statement object for the given query.
@@ -65,25 +65,41 @@ public class SybaseProceduresMojosDefaultTestCase extends AbstractMojoTestCase
 	 */
 	public void testBasicExecution() throws Exception
 	{
-		generatorBasicTestExecution();
+		generatorBasicTestExecution("generator-plugin-conf.xml");
 		publisherBasicTestExecution();
 	}
 	
+	/**
+	 * Default test case for "generate-sql" goal retrieving procedures with several threads and connections
+	 * @throws Exception if any
+	 */
+	public void testParallelExecution() throws Exception
+	{
+		generatorBasicTestExecution("generator-parallel-plugin-conf.xml");
+
+		//the bodies have been parsed by the pipelined parse stage feeding the persistent cache
+		SybaseProceduresParseCache parseCache = new SybaseProceduresParseCache(new File("out/sybase-proc-calls.cache"), 30);
+		assertFalse("Parse cache was not written", parseCache.isOutdated());
+		assertEquals("Number of bodies in the parse cache", 10, parseCache.size());
+	}
+	
 	
 	/**
 	 * The implementation of the default test case for "generate-sql" goal
 	 * 
+	 * @param pluginConfiguration
+	 *            name of the plugin configuration file
 	 * @throws Exception
 	 *             if any
 	 */
-	private void generatorBasicTestExecution() throws Exception
+	private void generatorBasicTestExecution(String pluginConfiguration) throws Exception
 	{
 		Logger logger = getContainer().getLogger();		
-		logger.info("Launching default test case");		
+		logger.info("Launching default test case with "+pluginConfiguration);		
 		logger.info("Setting test data");
 				
 		//load the plugin configuration
-		File pom = getTestFile("src/test/resources/com/googlecode/msidor/maven/plugins/sybase/procedures/generator-plugin-conf.xml");
+		File pom = getTestFile("src/test/resources/com/googlecode/msidor/maven/plugins/sybase/procedures/"+pluginConfiguration);
 		assertNotNull("POM file with polugin test configuration could not be found",pom);
 		assertTrue("POM file with polugin test configuration could not be found",pom.exists());
 
@@ -0,0 +1,181 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.	
+ */
+package com.googlecode.msidor.maven.plugins.sybase.procedures;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import junit.framework.TestCase;
+
+/**
+ * @author Maciej SIDOR
+ * 
+ * Name ids and procedures created once per generation
+ */
+public class SybaseProceduresNameTableTestCase extends TestCase
+{
+
+	/**
+	 * The names are compared with case by default
+	 */
+	public void testCaseSensitiveNames()
+	{
+		SybaseProceduresNameTable names = new SybaseProceduresNameTable(true);
+
+		int id = names.getId("proc");
+		assertEquals(id, names.getId("proc"));
+		assertFalse(id == names.getId("PROC"));
+		assertEquals(2, names.size());
+		assertEquals("PROC", names.getName(names.findId("PROC")));
+	}
+
+	/**
+	 * The names that only differ by case get the same id, the first spelling is kept
+	 */
+	public void testCaseInsensitiveNames()
+	{
+		SybaseProceduresNameTable names = new SybaseProceduresNameTable(false);
+
+		int id = names.getId("MyProc");
+		assertEquals(id, names.getId("MYPROC"));
+		assertEquals(id, names.findId("myproc"));
+		assertEquals("MyProc", names.getName(id));
+		assertEquals(1, names.size());
+	}
+
+	/**
+	 * The names never met are not registered by a lookup
+	 */
+	public void testFindUnknownName()
+	{
+		SybaseProceduresNameTable names = new SybaseProceduresNameTable(true);
+
+		assertEquals(-1, names.findId("proc"));
+		assertEquals(0, names.size());
+	}
+
+	/**
+	 * The lower case name gets its own id unless it is the same name
+	 */
+	public void testLowerCaseId()
+	{
+		SybaseProceduresNameTable sensitive = new SybaseProceduresNameTable(true);
+		int id = sensitive.getId("MyProc");
+		assertEquals("myproc", sensitive.getName(sensitive.getLowerCaseId(id)));
+		assertFalse(id == sensitive.getLowerCaseId(id));
+
+		SybaseProceduresNameTable insensitive = new SybaseProceduresNameTable(false);
+		id = insensitive.getId("MyProc");
+		assertEquals(id, insensitive.getLowerCaseId(id));
+	}
+
+	/**
+	 * The ids are kept while the table grows
+	 */
+	public void testGrowth()
+	{
+		SybaseProceduresNameTable names = new SybaseProceduresNameTable(true);
+
+		for (int i = 0; i < 1000; i++)
+			assertEquals(i, names.getId("proc" + i));
+		for (int i = 0; i < 1000; i++)
+			assertEquals("proc" + i, names.getName(names.findId("proc" + i)));
+	}
+
+	/**
+	 * The key of a procedure tells the database and the procedure apart
+	 */
+	public void testKey()
+	{
+		assertFalse(SybaseProceduresNameTable.getKey(1, 2) == SybaseProceduresNameTable.getKey(2, 1));
+		assertEquals(SybaseProceduresNameTable.getKey(1, 2), SybaseProceduresNameTable.getKey(1, 2));
+	}
+
+	/**
+	 * The deprecated lookup finds the procedures of the registry made current in the thread and in the threads it starts
+	 * @throws Exception if any
+	 */
+	@SuppressWarnings("deprecation")
+	public void testDeprecatedExistingProcedure() throws Exception
+	{
+		SybaseProceduresRegistry registry = new SybaseProceduresRegistry();
+		final SybaseProcedure procedure = registry.getOrCreate("db", "proc", "");
+		registry.makeCurrent();
+
+		assertSame(procedure, SybaseProcedure.getExistingProcedure("db", "proc"));
+		assertNull(SybaseProcedure.getExistingProcedure("db", "other"));
+
+		final SybaseProcedure[] found = new SybaseProcedure[1];
+		Thread thread = new Thread()
+		{
+			@Override
+			public void run()
+			{
+				found[0] = SybaseProcedure.getExistingProcedure("db", "proc");
+			}
+		};
+		thread.start();
+		thread.join();
+		assertSame(procedure, found[0]);
+
+		new SybaseProceduresRegistry().makeCurrent();
+		assertNull(SybaseProcedure.getExistingProcedure("db", "proc"));
+	}
+
+	/**
+	 * The threads creating the same procedure get the same object
+	 * @throws Exception if any
+	 */
+	public void testRegistryCreatesOnce() throws Exception
+	{
+		final SybaseProceduresRegistry registry = new SybaseProceduresRegistry(new SybaseProceduresNameTable(false));
+
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try
+		{
+			List<Future<SybaseProcedure>> created = new ArrayList<Future<SybaseProcedure>>();
+			for (int i = 0; i < 64; i++)
+			{
+				final String name = i % 2 == 0 ? "proc" : "PROC";
+				created.add(executor.submit(new Callable<SybaseProcedure>()
+				{
+					@Override
+					public SybaseProcedure call()
+					{
+						return registry.getOrCreate("db", name, "");
+					}
+				}));
+			}
+
+			SybaseProcedure procedure = created.get(0).get();
+			for (Future<SybaseProcedure> future : created)
+				assertSame(procedure, future.get());
+			assertSame(procedure, registry.get("DB", "Proc"));
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+
+		assertEquals(1, registry.size());
+		assertNull(registry.get("db", "other"));
+	}
+
+}
@@ -0,0 +1,251 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.	
+ */
+package com.googlecode.msidor.maven.plugins.sybase.procedures;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+
+import junit.framework.TestCase;
+
+/**
+ * @author Maciej SIDOR
+ * 
+ * Persistence of the calls and table references of the parsed bodies
+ */
+public class SybaseProceduresParseCacheTestCase extends TestCase
+{
+
+	private static final String BODY = "create proc p as\nexec db..sub1\n-- exec sub2\ninsert t1 select * from t2";
+
+	private File cacheFile = null;
+
+	/** {@inheritDoc} */
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+
+		cacheFile = File.createTempFile("parsecache", ".bin");
+		cacheFile.delete();
+	}
+
+	/** {@inheritDoc} */
+	protected void tearDown() throws Exception
+	{
+		cacheFile.delete();
+
+		super.tearDown();
+	}
+
+	/**
+	 * Create a cache holding the parsed bodies and save it
+	 * @param bodies the bodies
+	 * @throws Exception if any
+	 */
+	private void saveParsedBodies(String... bodies) throws Exception
+	{
+		SybaseProceduresParseCache cache = new SybaseProceduresParseCache(cacheFile, 30);
+		for (String body : bodies)
+		{
+			SybaseProcedure procedure = new SybaseProcedure("db", "p", "");
+			SybaseProceduresLexer.parse(procedure, body);
+			cache.put(SybaseProceduresChecksum.digest(body), procedure);
+		}
+		cache.save();
+	}
+
+	/**
+	 * Write the header of a cache file
+	 * @param magic the magic number
+	 * @param format the file format
+	 * @param version the lexer version
+	 * @throws Exception if any
+	 */
+	private void writeHeader(int magic, int format, int version) throws Exception
+	{
+		DataOutputStream out = new DataOutputStream(new FileOutputStream(cacheFile));
+		try
+		{
+			out.writeInt(magic);
+			out.writeInt(format);
+			out.writeInt(version);
+			out.writeInt(0);
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	/**
+	 * The calls and tables saved are restored by a new cache for the same body only
+	 * @throws Exception if any
+	 */
+	public void testRoundTrip() throws Exception
+	{
+		saveParsedBodies(BODY);
+
+		SybaseProceduresParseCache cache = new SybaseProceduresParseCache(cacheFile, 30);
+		assertFalse(cache.isOutdated());
+		assertEquals(1, cache.size());
+
+		SybaseProcedure procedure = new SybaseProcedure("db", "p", "");
+		assertTrue(cache.restore(SybaseProceduresChecksum.digest(BODY), procedure));
+		assertEquals(1, cache.getHits());
+
+		assertEquals(2, procedure.getCallSites().size());
+		assertEquals("db..sub1", procedure.getCallSites().get(0).getName());
+		assertEquals(BODY.indexOf("exec db..sub1"), procedure.getCallSites().get(0).getOffset());
+		assertFalse(procedure.getCallSites().get(0).isCommented());
+		assertEquals("sub2", procedure.getCallSites().get(1).getName());
+		assertTrue(procedure.getCallSites().get(1).isCommented());
+
+		assertEquals(2, procedure.getTableAccesses().size());
+		assertEquals("t1", procedure.getTableAccesses().get(0).getName());
+		assertTrue(procedure.getTableAccesses().get(0).isWrite());
+		assertEquals("t2", procedure.getTableAccesses().get(1).getName());
+		assertFalse(procedure.getTableAccesses().get(1).isWrite());
+
+		assertFalse(cache.restore(SybaseProceduresChecksum.digest(BODY + " "), new SybaseProcedure("db", "p", "")));
+	}
+
+	/**
+	 * Read the body with a reader looking the calls up in the cache
+	 * @param cache the cache
+	 * @param body the body
+	 * @return the procedure read
+	 */
+	private SybaseProcedure read(SybaseProceduresParseCache cache, String body)
+	{
+		SybaseProceduresBodyReader reader = new SybaseProceduresBodyReader(cache);
+		for (String row : body.split("(?<=\n)"))
+			reader.read(row);
+
+		SybaseProcedure procedure = new SybaseProcedure("db", "p", "");
+		reader.complete(procedure);
+		return procedure;
+	}
+
+	/**
+	 * A body is parsed the first time it is read only, also by the next generation
+	 * @throws Exception if any
+	 */
+	public void testHitsAndMisses() throws Exception
+	{
+		SybaseProceduresParseCache cache = new SybaseProceduresParseCache(cacheFile, 30);
+
+		SybaseProcedure procedure = read(cache, BODY);
+		assertEquals(0, cache.getHits());
+		assertEquals(1, cache.getMisses());
+		assertEquals("db..sub1", procedure.getCallSites().get(0).getName());
+
+		procedure = read(cache, BODY);
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+		assertEquals("db..sub1", procedure.getCallSites().get(0).getName());
+		assertEquals("t2", procedure.getTableAccesses().get(1).getName());
+
+		read(cache, "exec sub3");
+		assertEquals(1, cache.getHits());
+		assertEquals(2, cache.getMisses());
+		cache.save();
+
+		cache = new SybaseProceduresParseCache(cacheFile, 30);
+		procedure = read(cache, BODY);
+		read(cache, "exec sub3");
+		assertEquals(2, cache.getHits());
+		assertEquals(0, cache.getMisses());
+		assertEquals(2, procedure.getCallSites().size());
+	}
+
+	/**
+	 * A file written in another format is discarded
+	 * @throws Exception if any
+	 */
+	public void testOtherFormatDiscarded() throws Exception
+	{
+		saveParsedBodies(BODY);
+
+		// the first formats held the lexer version in place of the format
+		RandomAccessFile file = new RandomAccessFile(cacheFile, "rw");
+		try
+		{
+			file.seek(4);
+			file.writeInt(2);
+		}
+		finally
+		{
+			file.close();
+		}
+
+		SybaseProceduresParseCache cache = new SybaseProceduresParseCache(cacheFile, 30);
+		assertTrue(cache.isOutdated());
+		assertEquals(0, cache.size());
+	}
+
+	/**
+	 * A file written by another version of the lexer is discarded
+	 * @throws Exception if any
+	 */
+	public void testOtherLexerVersionDiscarded() throws Exception
+	{
+		saveParsedBodies(BODY);
+
+		RandomAccessFile file = new RandomAccessFile(cacheFile, "r");
+		int magic;
+		int format;
+		try
+		{
+			magic = file.readInt();
+			format = file.readInt();
+		}
+		finally
+		{
+			file.close();
+		}
+
+		writeHeader(magic, format, SybaseProceduresLexer.VERSION - 1);
+
+		SybaseProceduresParseCache cache = new SybaseProceduresParseCache(cacheFile, 30);
+		assertTrue(cache.isOutdated());
+		assertEquals(0, cache.size());
+	}
+
+	/**
+	 * A truncated file keeps the entries read
+	 * @throws Exception if any
+	 */
+	public void testTruncatedFile() throws Exception
+	{
+		saveParsedBodies(BODY, "exec sub3");
+
+		RandomAccessFile file = new RandomAccessFile(cacheFile, "rw");
+		try
+		{
+			file.setLength(file.length() - 3);
+		}
+		finally
+		{
+			file.close();
+		}
+
+		SybaseProceduresParseCache cache = new SybaseProceduresParseCache(cacheFile, 30);
+		assertFalse(cache.isOutdated());
+		assertEquals(1, cache.size());
+	}
+
+}
@@ -0,0 +1,138 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.	
+ */
+package com.googlecode.msidor.maven.plugins.sybase.procedures;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+/**
+ * @author Maciej SIDOR
+ * 
+ * Bodies kept on the heap within the budget and spilled to the memory-mapped file past it
+ */
+public class SybaseProceduresSpillStoreTestCase extends TestCase
+{
+
+	private File spillFile = null;
+	private SybaseProceduresSpillStore store = null;
+
+	/** {@inheritDoc} */
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+
+		spillFile = File.createTempFile("spill", ".bin");
+		store = new SybaseProceduresSpillStore(spillFile, 100);
+	}
+
+	/** {@inheritDoc} */
+	protected void tearDown() throws Exception
+	{
+		store.close();
+
+		super.tearDown();
+	}
+
+	/**
+	 * Create a procedure with its body
+	 * @param name procedure name
+	 * @param body the body
+	 * @return the procedure
+	 */
+	private static SybaseProcedure createProcedure(String name, String body)
+	{
+		SybaseProcedure procedure = new SybaseProcedure("db", name, "");
+		procedure.setBody(body);
+		return procedure;
+	}
+
+	/**
+	 * The bodies within the budget stay on the heap, the next ones are spilled and read back
+	 * @throws Exception if any
+	 */
+	public void testSpillPastBudget() throws Exception
+	{
+		String body1 = "create proc p1 as exec sub1";
+		String body2 = "create proc p2 as select 'caf\u00e9 \u20ac' from t2";
+		String body3 = "create proc p3 as\nexec sub3\n";
+
+		SybaseProcedure p1 = createProcedure("p1", body1);
+		SybaseProcedure p2 = createProcedure("p2", body2);
+		SybaseProcedure p3 = createProcedure("p3", body3);
+		store.retain(p1);
+		store.retain(p2);
+		store.retain(p3);
+
+		assertFalse(p1.isSpilled());
+		assertEquals(2L * body1.length(), store.getHeapBytes());
+
+		assertTrue(p2.isSpilled());
+		assertTrue(p3.isSpilled());
+		assertEquals(2, store.getSpilledCount());
+		assertEquals(2L * (body2.length() + body3.length()), store.getSpilledBytes());
+
+		assertEquals(body1, p1.getBody());
+		assertEquals(body2, p2.getBody());
+		assertEquals(body3, p3.getBody());
+	}
+
+	/**
+	 * The checksum of a spilled body is computed before the body leaves the heap
+	 * @throws Exception if any
+	 */
+	public void testChecksumKept() throws Exception
+	{
+		String body = "create proc p as select * from a_table_with_a_rather_long_name where a_column = 1";
+		SybaseProcedure procedure = createProcedure("p", body);
+		store.retain(procedure);
+
+		assertTrue(procedure.isSpilled());
+		SybaseProceduresChecksum checksum = new SybaseProceduresChecksum();
+		checksum.update(body);
+		assertEquals(checksum.getChecksum(), procedure.getChecksum());
+	}
+
+	/**
+	 * A body retained twice is counted once and a procedure without body is ignored
+	 * @throws Exception if any
+	 */
+	public void testRetainOnce() throws Exception
+	{
+		SybaseProcedure procedure = createProcedure("p", "exec sub");
+		store.retain(procedure);
+		store.retain(new SybaseProcedure("db", "nobody", ""));
+
+		assertEquals(16L, store.getHeapBytes());
+		assertEquals(0, store.getSpilledCount());
+
+		SybaseProcedure spilled = createProcedure("big", "create proc big as select * from a_table_with_a_rather_long_name");
+		store.retain(spilled);
+		store.retain(spilled);
+		assertEquals(1, store.getSpilledCount());
+	}
+
+	/**
+	 * Closing the store deletes the file
+	 */
+	public void testCloseDeletesFile()
+	{
+		assertTrue(spillFile.exists());
+		store.close();
+		assertFalse(spillFile.exists());
+	}
+
+}
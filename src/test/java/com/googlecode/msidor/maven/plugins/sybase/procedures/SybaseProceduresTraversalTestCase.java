@@ -0,0 +1,192 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.	
+ */
+package com.googlecode.msidor.maven.plugins.sybase.procedures;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+/**
+ * @author Maciej SIDOR
+ * 
+ * Visit order and levels of the traversal engine
+ */
+public class SybaseProceduresTraversalTestCase extends TestCase
+{
+
+	/**
+	 * Calls of each node: a calls b and c, b calls d, c calls d and a
+	 */
+	private Map<String, List<String>> calls = null;
+
+	/**
+	 * Nodes visited with their level, as "node:level"
+	 */
+	private List<String> visits = null;
+
+	/**
+	 * Visitor following the calls and recording the visits
+	 */
+	private SybaseProceduresVisitorI<String> visitor = new SybaseProceduresVisitorI<String>()
+	{
+		@Override
+		public Object getKey(String node)
+		{
+			return node;
+		}
+
+		@Override
+		public List<String> visit(String node, int level, SybaseProceduresTraversal<String> traversal)
+		{
+			visits.add(node + ":" + level);
+
+			List<String> children = calls.get(node);
+			return children != null ? children : Collections.<String> emptyList();
+		}
+	};
+
+	/** {@inheritDoc} */
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+
+		calls = new HashMap<String, List<String>>();
+		calls.put("a", Arrays.asList("b", "c"));
+		calls.put("b", Arrays.asList("d"));
+		calls.put("c", Arrays.asList("d", "a"));
+		visits = new ArrayList<String>();
+	}
+
+	/**
+	 * The children of a node are visited before its next sibling, each node once
+	 * @throws Exception if any
+	 */
+	public void testDepthFirst() throws Exception
+	{
+		new SybaseProceduresTraversal<String>(SybaseProceduresTraversal.Order.DEPTH_FIRST, visitor).traverse(Arrays.asList("a"), new HashSet<Object>());
+
+		assertEquals(Arrays.asList("a:0", "b:1", "d:2", "c:1"), visits);
+	}
+
+	/**
+	 * All the nodes of a level are visited before the next level, each node once
+	 * @throws Exception if any
+	 */
+	public void testBreadthFirst() throws Exception
+	{
+		new SybaseProceduresTraversal<String>(SybaseProceduresTraversal.Order.BREADTH_FIRST, visitor).traverse(Arrays.asList("a"), new HashSet<Object>());
+
+		assertEquals(Arrays.asList("a:0", "b:1", "c:1", "d:2"), visits);
+	}
+
+	/**
+	 * The lowest pending node is visited first
+	 * @throws Exception if any
+	 */
+	public void testPriority() throws Exception
+	{
+		new SybaseProceduresTraversal<String>(SybaseProceduresTraversal.Order.PRIORITY, Collections.<String> reverseOrder(), visitor).traverse(Arrays.asList("a"), new HashSet<Object>());
+
+		assertEquals(Arrays.asList("a:0", "c:1", "d:2", "b:1"), visits);
+	}
+
+	/**
+	 * The priority order requires a comparator
+	 */
+	public void testPriorityWithoutComparator()
+	{
+		try
+		{
+			new SybaseProceduresTraversal<String>(SybaseProceduresTraversal.Order.PRIORITY, visitor);
+			fail("Priority order without comparator accepted");
+		}
+		catch (IllegalArgumentException e)
+		{
+			// expected
+		}
+	}
+
+	/**
+	 * The nodes already visited are skipped and the visited set is updated
+	 * @throws Exception if any
+	 */
+	public void testVisitedSkipped() throws Exception
+	{
+		Set<Object> visited = new HashSet<Object>(Arrays.asList("c"));
+
+		for (SybaseProceduresTraversal.Order order : new SybaseProceduresTraversal.Order[] { SybaseProceduresTraversal.Order.DEPTH_FIRST, SybaseProceduresTraversal.Order.BREADTH_FIRST })
+		{
+			visits.clear();
+			new SybaseProceduresTraversal<String>(order, visitor).traverse(Arrays.asList("a"), new HashSet<Object>(visited));
+
+			assertEquals(Arrays.asList("a:0", "b:1", "d:2"), visits);
+		}
+
+		visits.clear();
+		new SybaseProceduresTraversal<String>(SybaseProceduresTraversal.Order.DEPTH_FIRST, visitor).traverse(Arrays.asList("a"), visited);
+		assertEquals(new HashSet<Object>(Arrays.asList("a", "b", "c", "d")), visited);
+	}
+
+	/**
+	 * A call chain deeper than the call stack allows is traversed
+	 * @throws Exception if any
+	 */
+	public void testDeepChain() throws Exception
+	{
+		int depth = 100000;
+		for (int i = 0; i < depth; i++)
+			calls.put("n" + i, Arrays.asList("n" + (i + 1)));
+
+		for (SybaseProceduresTraversal.Order order : new SybaseProceduresTraversal.Order[] { SybaseProceduresTraversal.Order.DEPTH_FIRST, SybaseProceduresTraversal.Order.BREADTH_FIRST })
+		{
+			visits.clear();
+			SybaseProceduresTraversal<String> traversal = new SybaseProceduresTraversal<String>(order, visitor);
+			traversal.traverse(Arrays.asList("n0"), new HashSet<Object>());
+
+			assertEquals(depth + 1, visits.size());
+			assertEquals("n" + depth + ":" + depth, visits.get(depth));
+			assertTrue(traversal.getPendingNodes().isEmpty());
+		}
+	}
+
+	/**
+	 * The nodes reached again are counted as skipped in every order
+	 * @throws Exception if any
+	 */
+	public void testSkippedCount() throws Exception
+	{
+		for (SybaseProceduresTraversal.Order order : new SybaseProceduresTraversal.Order[] { SybaseProceduresTraversal.Order.DEPTH_FIRST, SybaseProceduresTraversal.Order.BREADTH_FIRST })
+		{
+			SybaseProceduresTraversal<String> traversal = new SybaseProceduresTraversal<String>(order, visitor);
+			traversal.traverse(Arrays.asList("a"), new HashSet<Object>());
+
+			// "d" reached again through "c" and "a" called back by "c"
+			assertEquals(2, traversal.getSkippedCount());
+
+			// all the roots are visited already
+			traversal.traverse(Arrays.asList("a", "b"), new HashSet<Object>(Arrays.asList("a", "b")));
+			assertEquals(4, traversal.getSkippedCount());
+		}
+	}
+
+}
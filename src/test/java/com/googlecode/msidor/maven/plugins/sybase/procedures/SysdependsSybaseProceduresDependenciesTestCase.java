@@ -0,0 +1,131 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.	
+ */
+package com.googlecode.msidor.maven.plugins.sybase.procedures;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+/**
+ * @author Maciej SIDOR
+ * 
+ * Readings of the "sysdepends" edges once per database and concurrently for different databases
+ */
+public class SysdependsSybaseProceduresDependenciesTestCase extends TestCase
+{
+
+	/**
+	 * Number of readings of each database
+	 */
+	private AtomicInteger readings = null;
+
+	/**
+	 * Released to let the reading of db1 complete
+	 */
+	private CountDownLatch db1Released = null;
+
+	private SysdependsSybaseProceduresDependencies dependencies = null;
+
+	/** {@inheritDoc} */
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+
+		readings = new AtomicInteger();
+		db1Released = new CountDownLatch(1);
+
+		// the reading of db1 waits to be released, every reading answers the edge p1 -> p2
+		SybaseProceduresMojoDAOMockup dao = new SybaseProceduresMojoDAOMockup()
+		{
+			@Override
+			public Statement executeSybaseQuery(String dbName, String query) throws SQLException
+			{
+				readings.incrementAndGet();
+
+				try
+				{
+					if ("db1".equals(dbName)) db1Released.await(10, TimeUnit.SECONDS);
+				}
+				catch (InterruptedException e)
+				{
+					throw new SQLException(e);
+				}
+
+				ResultSetMockup rs = new ResultSetMockup();
+				rs.addValue("caller", "p1");
+				rs.addValue("callee", "p2");
+
+				StatementMockup statement = new StatementMockup();
+				statement.addResultSet(rs);
+				return statement;
+			}
+		};
+
+		dependencies = new SysdependsSybaseProceduresDependencies(dao, new SystemStreamLog());
+	}
+
+	/**
+	 * A database waiting for its edges does not hold up the other databases, 
+	 * concurrent requests for the same database share one reading
+	 * @throws Exception if any
+	 */
+	public void testConcurrentReadings() throws Exception
+	{
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try
+		{
+			Callable<List<String>> db1Request = new Callable<List<String>>()
+			{
+				@Override
+				public List<String> call() throws Exception
+				{
+					return dependencies.getCalledProcedures("db1", "p1");
+				}
+			};
+
+			Future<List<String>> first = executor.submit(db1Request);
+			Future<List<String>> second = executor.submit(db1Request);
+
+			// db2 is read while db1 is still being read
+			assertEquals("p2", dependencies.getCalledProcedures("db2", "p1").get(0));
+			assertFalse(first.isDone());
+
+			db1Released.countDown();
+			assertEquals("p2", first.get().get(0));
+			assertEquals("p2", second.get().get(0));
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+
+		assertEquals(2, readings.get());
+		assertTrue(dependencies.getCalledProcedures("db1", "p2").isEmpty());
+		assertEquals(2, readings.get());
+	}
+
+}
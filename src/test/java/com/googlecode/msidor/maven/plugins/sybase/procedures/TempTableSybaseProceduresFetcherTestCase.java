@@ -0,0 +1,186 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.	
+ */
+package com.googlecode.msidor.maven.plugins.sybase.procedures;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+/**
+ * @author Maciej SIDOR
+ * 
+ * Split of the requested procedures into one temp table batch per database
+ */
+public class TempTableSybaseProceduresFetcherTestCase extends TestCase
+{
+
+	/**
+	 * Database and SQL of the batches sent
+	 */
+	private List<String[]> batches = null;
+
+	private TempTableSybaseProceduresFetcher fetcher = null;
+
+	/** {@inheritDoc} */
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+
+		batches = new ArrayList<String[]>();
+
+		// every batch is recorded and answers no result
+		SybaseProceduresMojoDAOMockup dao = new SybaseProceduresMojoDAOMockup()
+		{
+			@Override
+			public Statement executeSybaseQuery(String dbName, String query) throws SQLException
+			{
+				batches.add(new String[] { dbName, query });
+				return new StatementMockup();
+			}
+		};
+
+		fetcher = new TempTableSybaseProceduresFetcher(dao, new SystemStreamLog());
+		fetcher.setRegistry(new SybaseProceduresRegistry());
+	}
+
+	/**
+	 * Count the occurrences of a text in a batch
+	 * @param batch the batch
+	 * @param text the text to count
+	 * @return number of occurrences
+	 */
+	private static int count(String batch, String text)
+	{
+		int count = 0;
+		for (int index = batch.indexOf(text); index >= 0; index = batch.indexOf(text, index + 1))
+			count++;
+
+		return count;
+	}
+
+	/**
+	 * Count the names inserted in the temp table by a batch
+	 * @param batch the batch
+	 * @return number of names
+	 */
+	private static int countInserts(String batch)
+	{
+		return count(batch, "select '");
+	}
+
+	/**
+	 * One batch per database inserting the distinct names of its procedures and reading its catalogs only
+	 * @throws Exception if any
+	 */
+	public void testOneBatchPerDatabase() throws Exception
+	{
+		fetcher.fetchProcedures(Arrays.asList(new String[] { "db1", "p1" }, new String[] { "db2", "p2" }, new String[] { "db1", "p3" }, new String[] { "db1", "p1" }));
+
+		assertEquals(2, batches.size());
+
+		assertEquals("db1", batches.get(0)[0]);
+		assertEquals(2, countInserts(batches.get(0)[1]));
+		assertTrue(batches.get(0)[1].contains("select 'p1', convert(varchar(30), null), 'p1', null"));
+		assertTrue(batches.get(0)[1].contains("select 'p3', convert(varchar(30), null), 'p3', null"));
+		assertTrue(batches.get(0)[1].contains("db1..sysobjects"));
+		assertFalse(batches.get(0)[1].contains("db2.."));
+
+		assertEquals("db2", batches.get(1)[0]);
+		assertEquals(1, countInserts(batches.get(1)[1]));
+		assertTrue(batches.get(1)[1].contains("select 'p2', convert(varchar(30), null), 'p2', null"));
+	}
+
+	/**
+	 * Each batch creates its own temp table, without a conditional drop compiled with the creation, and drops it at the end
+	 * @throws Exception if any
+	 */
+	public void testTempTableDropped() throws Exception
+	{
+		fetcher.fetchProcedures(Arrays.asList(new String[] { "db1", "p1" }, new String[] { "db1", "p2" }));
+		fetcher.fetchProcedures(Arrays.<String[]> asList(new String[] { "db1", "p3" }));
+
+		assertEquals(2, batches.size());
+		assertTrue(batches.get(0)[1].startsWith("create table #sybproc_requested1 "));
+		assertTrue(batches.get(0)[1].trim().endsWith("drop table #sybproc_requested1"));
+		assertTrue(batches.get(1)[1].startsWith("create table #sybproc_requested2 "));
+		assertTrue(batches.get(1)[1].trim().endsWith("drop table #sybproc_requested2"));
+		assertFalse(batches.get(0)[1].contains("object_id("));
+	}
+
+	/**
+	 * The names are inserted by groups of 50 selects joined with "union all"
+	 * @throws Exception if any
+	 */
+	public void testGroupedInserts() throws Exception
+	{
+		List<String[]> procedures = new ArrayList<String[]>();
+		for (int i = 0; i < 120; i++)
+			procedures.add(new String[] { "db1", "p" + i });
+
+		fetcher.fetchProcedures(procedures);
+
+		assertEquals(1, batches.size());
+		assertEquals(120, countInserts(batches.get(0)[1]));
+		assertEquals(3, count(batches.get(0)[1], "insert into "));
+		assertEquals(117, count(batches.get(0)[1], " union all "));
+	}
+
+	/**
+	 * Every procedure requested is reported once in the request order, missing ones mapped to null
+	 * @throws Exception if any
+	 */
+	public void testMissingProcedures() throws Exception
+	{
+		Map<String, SybaseProcedure> result = fetcher.fetchProcedures(Arrays.asList(new String[] { "db2", "p2" }, new String[] { "db1", "p1" }, new String[] { "db2", "p2" }));
+
+		assertEquals(Arrays.asList("db2..p2", "db1..p1"), new ArrayList<String>(result.keySet()));
+		for (SybaseProcedure procedure : result.values())
+			assertNull(procedure);
+	}
+
+	/**
+	 * The quotes of the names are escaped
+	 * @throws Exception if any
+	 */
+	public void testQuotedNames() throws Exception
+	{
+		fetcher.fetchProcedures(Arrays.asList(new String[] { "db1", "p'1" }, new String[] { "db1", "p2" }));
+
+		assertTrue(batches.get(0)[1].contains("select 'p''1', convert(varchar(30), null), 'p''1', null"));
+	}
+
+	/**
+	 * The owner of a qualified name is looked up as is, the unqualified names are resolved like SYBASE does
+	 * @throws Exception if any
+	 */
+	public void testOwnerQualifiedNames() throws Exception
+	{
+		fetcher.fetchProcedures(Arrays.asList(new String[] { "db1", "user1.p1" }, new String[] { "db1", "p2" }));
+
+		assertTrue(batches.get(0)[1].contains("select 'user1.p1', 'user1', 'p1', null"));
+		assertTrue(batches.get(0)[1].contains("isnull(#sybproc_requested1.owner, 'dbo')"));
+		assertTrue(batches.get(0)[1].contains("o.uid = user_id() and #sybproc_requested1.owner is null"));
+		assertTrue(batches.get(0)[1].contains("convert(varchar(26), o.crdate) crdate"));
+	}
+
+}